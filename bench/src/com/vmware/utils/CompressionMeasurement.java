@@ -0,0 +1,114 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.List;
+
+import com.vmware.vim25.ObjectContent;
+
+/**
+ * Measures the bytes on the wire and the time taken to retrieve the whole inventory of a
+ * FakeVCenter, with and without gzip compression (see ConnectionOptions), through JAX-WS and
+ * through a StreamingRetriever, at several network speeds. Unlike the JMH benchmarks it reports
+ * bytes as well as time, so it is a program of its own:<br><code>
+ *     java -cp classes:vim25.jar com.vmware.utils.CompressionMeasurement 20000
+ * </code>
+ */
+public class CompressionMeasurement {
+
+    // The network speeds, in bytes per second: the loopback interface, 1 Gbit/s and 100 Mbit/s.
+    private static final long[] BANDWIDTHS = { 0, 125000000, 12500000 };
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int vmCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        FakeVCenter fake = new FakeVCenter(vmCount);
+        fake.start();
+        try {
+            System.out.printf("%-10s %-9s %-11s %12s %10s%n", "bandwidth", "transport",
+                    "compression", "bytes", "ms");
+            for (long bandwidth : BANDWIDTHS) {
+                fake.setBandwidth(bandwidth);
+                for (boolean streaming : new boolean[] { false, true }) {
+                    for (boolean compression : new boolean[] { false, true }) {
+                        measure(fake, bandwidth, streaming, compression);
+                    }
+                }
+            }
+        } finally {
+            fake.close();
+        }
+    }
+
+    private static void measure(FakeVCenter fake, long bandwidth, boolean streaming,
+            boolean compression) throws Exception {
+        ConnectionOptions options = new ConnectionOptions();
+        options.setCompression(compression);
+        VMwareConnection conn = new VMwareConnection(fake.getUrl(), "user", "password", null,
+                options);
+        try {
+            long bestNanos = Long.MAX_VALUE;
+            long bytes = 0;
+            // The first round warms up the JIT; the fastest of the rest is reported.
+            for (int round = 0; round <= ROUNDS; round++) {
+                fake.resetStatistics();
+                long start = System.nanoTime();
+                int count = retrieveAll(conn, streaming);
+                long nanos = System.nanoTime() - start;
+                if (count != fake.getVmCount()) {
+                    throw new IllegalStateException("Retrieved " + count + " of "
+                            + fake.getVmCount() + " VMs.");
+                }
+                if (round > 0) {
+                    bestNanos = Math.min(bestNanos, nanos);
+                }
+                bytes = fake.getBytesSent();
+            }
+            System.out.printf("%-10s %-9s %-11s %12d %10d%n", bandwidth == 0 ? "loopback"
+                    : bandwidth * 8 / 1000000 + " Mbit/s", streaming ? "StAX" : "JAX-WS",
+                    compression ? "gzip" : "none", bytes, bestNanos / 1000000);
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static int retrieveAll(VMwareConnection conn, boolean streaming) throws Exception {
+        final int[] count = new int[1];
+        String[] properties = { "name", "runtime.host", "summary.config.instanceUuid",
+                "summary.config.uuid" };
+        if (streaming) {
+            conn.streamAllObjects(FindObjects.DEFAULT_PAGE_SIZE, new StreamingRetriever.Handler() {
+                public boolean handleObject(ObjectContent oc) {
+                    count[0]++;
+                    return true;
+                }
+            }, "VirtualMachine", properties);
+        } else {
+            conn.findAllObjects(FindObjects.DEFAULT_PAGE_SIZE, new ObjectContentHandler() {
+                public boolean handlePage(List<ObjectContent> page) {
+                    count[0] += page.size();
+                    return true;
+                }
+            }, "VirtualMachine", properties);
+        }
+        return count[0];
+    }
+}
@@ -0,0 +1,1432 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.vmware.vim25.ManagedObjectReference;
+
+/**
+ * A stand-in for the web services endpoint of a vCenter server, which serves /sdk/vimService on
+ * the loopback interface, so that the code in com.vmware.utils can be load tested without a
+ * vCenter. It answers the SOAP requests the utilities make, over an inventory of synthetic VMs
+ * (see SyntheticInventory):
+ * <UL>
+ * <LI>RetrieveServiceContent, Login, Logout and CurrentTime. A session cookie is set by Login,
+ * and every other call made without it fails with NotAuthenticated.
+ * <LI>CreateContainerView and DestroyView.
+ * <LI>RetrievePropertiesEx, ContinueRetrievePropertiesEx and CancelRetrievePropertiesEx, with
+ * ObjectSpecs, TraversalSpecs and paged results.
+ * <LI>CreatePropertyCollector, DestroyPropertyCollector, CreateFilter, DestroyPropertyFilter,
+ * WaitForUpdatesEx and CancelWaitForUpdates. The only changes are the ones made with renameVm.
+ * <LI>The SearchIndex methods FindAllByUuid, FindByUuid, FindByInventoryPath and FindChild.
+ * </UL>
+ * The inventory has one Datacenter named "Datacenter", with the VMs in its "vm" folder and 64
+ * HostSystems directly in its "host" folder, so "Datacenter/vm/vm0000042" is an inventory path.
+ * Only the properties the utilities use are there: name and parent, the VM properties of
+ * SyntheticInventory, childEntity of Folders, vmFolder and hostFolder of the Datacenter, and view
+ * of ContainerViews.
+ * <P>
+ * Latency can be added to every call, and to every object returned, and the bandwidth limited, to
+ * see how the client code behaves against a server further away. The number of calls and of
+ * bytes sent and received are counted. Like vCenter, it compresses its responses with gzip when
+ * the request has an Accept-Encoding header which allows it, and accepts requests compressed
+ * with gzip; the bytes counted are those on the wire.
+ * <P>
+ * Example of use:<br><code>
+ *     FakeVCenter fake = new FakeVCenter(10000);<br>
+ *     fake.start();<br>
+ *     VMwareConnection conn = new VMwareConnection(fake.getUrl(), "user", "password");<br>
+ *     ...<br>
+ *     conn.close();<br>
+ *     fake.close();<br>
+ * </code>
+ * <P>
+ * It can also be run on its own, for example to run the samples against it:<br><code>
+ *     java -cp classes:vim25.jar com.vmware.utils.FakeVCenter 10000 8080<br>
+ * </code>
+ */
+public class FakeVCenter implements Closeable {
+
+    /**
+     * The most objects returned in one page by RetrievePropertiesEx, whatever maxObjects is.
+     */
+    public static final int DEFAULT_MAX_PAGE_SIZE = 1000;
+
+    /**
+     * The number of HostSystems in the inventory.
+     */
+    public static final int HOST_COUNT = 64;
+
+    private static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+
+    static {
+        // Without TCP_NODELAY the small responses wait for delayed ACKs, about 40 milliseconds
+        // each, which would swamp what is measured. The JDK reads this once, so set it early.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    private static final String SESSION_COOKIE = "vmware_soap_session";
+    private static final String ROOT_FOLDER = "group-d1";
+    private static final String DATACENTER = "datacenter-2";
+    private static final String VM_FOLDER = "group-v3";
+    private static final String HOST_FOLDER = "group-h4";
+    private static final String DEFAULT_COLLECTOR = "propertyCollector";
+
+    private final int vmCount;
+    private final String instanceUuid = UUID.randomUUID().toString().toUpperCase();
+
+    // The inventory, and the views, by "type:value".
+    private final Map<String, FakeObject> objects = new ConcurrentHashMap<String, FakeObject>();
+    // Inventory objects by the key of their parent and their name, for FindChild.
+    private final Map<String, String> childByName = new ConcurrentHashMap<String, String>();
+    private final Map<String, Integer> vmByInstanceUuid = new HashMap<String, Integer>();
+    private final Map<String, Integer> vmByBiosUuid = new HashMap<String, Integer>();
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+    private final Map<String, RetrieveCursor> cursors = new ConcurrentHashMap<String, RetrieveCursor>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    // Collectors and filters, and the changes made with renameVm, are guarded by changeLock.
+    private final Object changeLock = new Object();
+    private final Map<String, Collector> collectors = new HashMap<String, Collector>();
+    private final Map<String, Filter> filters = new HashMap<String, Filter>();
+    private final List<Change> changes = new ArrayList<Change>();
+
+    private volatile int maxPageSize = DEFAULT_MAX_PAGE_SIZE;
+    private volatile long latencyMillis;
+    private volatile long latencyMicrosPerObject;
+    private volatile long bytesPerSecond;
+    private volatile String userName;
+    private volatile String password;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final Map<String, AtomicLong> requestCountByMethod = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final ThreadLocal<DocumentBuilder> documentBuilder = new ThreadLocal<DocumentBuilder>() {
+        protected DocumentBuilder initialValue() {
+            try {
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                return factory.newDocumentBuilder();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Creates a fake vCenter with the number of VMs given. It does not listen until it is started.
+     *
+     * @param vmCount
+     *            the number of VMs in the inventory
+     */
+    public FakeVCenter(int vmCount) {
+        this.vmCount = vmCount;
+        buildInventory();
+    }
+
+    /**
+     * Starts listening on a free port of the loopback interface.
+     */
+    public void start() throws IOException {
+        start(0);
+    }
+
+    /**
+     * Starts listening on the port given of the loopback interface.
+     *
+     * @param port
+     *            the port, or 0 for any free port
+     */
+    public synchronized void start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("The fake vCenter has already been started.");
+        }
+        // A long accept queue, so hundreds of clients connecting at once are not made to retry.
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                1024);
+        // Calls such as WaitForUpdatesEx block, so every call gets a thread.
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FakeVCenter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/sdk", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRequest(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stops listening, and ends the calls in progress.
+     */
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * Returns the URL of the endpoint, which can be given to VMwareConnection in place of the
+     * server name.
+     */
+    public synchronized String getUrl() {
+        if (server == null) {
+            throw new IllegalStateException("The fake vCenter has not been started.");
+        }
+        return "http://" + server.getAddress().getAddress().getHostAddress() + ":"
+                + server.getAddress().getPort() + "/sdk/vimService";
+    }
+
+    /**
+     * Returns the number of VMs in the inventory.
+     */
+    public int getVmCount() {
+        return vmCount;
+    }
+
+    /**
+     * Returns the instance UUID of this fake vCenter, as AboutInfo reports it.
+     */
+    public String getInstanceUuid() {
+        return instanceUuid;
+    }
+
+    /**
+     * Makes Login accept only the user name and password given. By default any are accepted.
+     */
+    public void setCredentials(String userName, String password) {
+        this.userName = userName;
+        this.password = password;
+    }
+
+    /**
+     * Sets the most objects returned in one page by RetrievePropertiesEx.
+     */
+    public void setMaxPageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Sets the latency added to every call.
+     *
+     * @param millisPerCall
+     *            the time every call takes, in milliseconds
+     * @param microsPerObject
+     *            the time added for every object in a RetrievePropertiesEx page or an UpdateSet,
+     *            in microseconds
+     */
+    public void setLatency(long millisPerCall, long microsPerObject) {
+        this.latencyMillis = millisPerCall;
+        this.latencyMicrosPerObject = microsPerObject;
+    }
+
+    /**
+     * Limits the speed the responses are sent at, to see how the client code behaves over a slow
+     * network, such as to a vCenter in another site.
+     *
+     * @param bytesPerSecond
+     *            the speed, in bytes per second, or 0 to send as fast as the loopback interface
+     *            allows
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Returns the number of calls received.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of calls received of the method given, for example
+     * "RetrievePropertiesEx".
+     */
+    public long getRequestCount(String method) {
+        AtomicLong count = requestCountByMethod.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Returns the number of bytes of the request bodies received, compressed if they were.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Returns the number of bytes of the response bodies sent, compressed if they were.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Sets the counts of calls and bytes back to zero.
+     */
+    public void resetStatistics() {
+        requestCount.set(0);
+        bytesReceived.set(0);
+        bytesSent.set(0);
+        requestCountByMethod.clear();
+    }
+
+    /**
+     * Changes the name of a VM, which WaitForUpdatesEx reports to the filters which include the
+     * VM and its name.
+     *
+     * @param i
+     *            the index of the VM
+     * @param name
+     *            its new name
+     */
+    public void renameVm(int i, String name) {
+        String key = "VirtualMachine:" + SyntheticInventory.vmMoRefValue(i);
+        FakeObject vm = objects.get(key);
+        synchronized (changeLock) {
+            childByName.remove(VM_FOLDER + "/" + vm.get("name"));
+            vm.set("name", name);
+            childByName.put(VM_FOLDER + "/" + name, key);
+            changes.add(new Change(key, "name"));
+            changeLock.notifyAll();
+        }
+    }
+
+    //
+    // The inventory
+    //
+
+    private void buildInventory() {
+        FakeObject rootFolder = addObject("Folder", ROOT_FOLDER, "Datacenters", null);
+        FakeObject datacenter = addObject("Datacenter", DATACENTER, "Datacenter", rootFolder);
+        FakeObject vmFolder = addObject("Folder", VM_FOLDER, "vm", datacenter);
+        FakeObject hostFolder = addObject("Folder", HOST_FOLDER, "host", datacenter);
+        datacenter.set("vmFolder", vmFolder.moRef);
+        datacenter.set("hostFolder", hostFolder.moRef);
+        rootFolder.set("childEntity", Collections.singletonList(datacenter.moRef));
+
+        List<ManagedObjectReference> hosts = new ArrayList<ManagedObjectReference>();
+        for (int i = 0; i < HOST_COUNT; i++) {
+            String name = String.format("esx%02d.example.com", i);
+            hosts.add(addObject("HostSystem", SyntheticInventory.hostMoRefValue(i), name,
+                    hostFolder).moRef);
+        }
+        hostFolder.set("childEntity", hosts);
+
+        List<ManagedObjectReference> vms = new ArrayList<ManagedObjectReference>(vmCount);
+        for (int i = 0; i < vmCount; i++) {
+            FakeObject vm = addObject("VirtualMachine", SyntheticInventory.vmMoRefValue(i),
+                    SyntheticInventory.vmName(i), vmFolder);
+            for (String path : SyntheticInventory.VM_PROPERTIES) {
+                vm.set(path, SyntheticInventory.vmProperty(i, path));
+            }
+            vms.add(vm.moRef);
+            vmByInstanceUuid.put(SyntheticInventory.instanceUuid(i), i);
+            vmByBiosUuid.put(SyntheticInventory.biosUuid(i), i);
+        }
+        vmFolder.set("childEntity", vms);
+    }
+
+    private FakeObject addObject(String type, String value, String name, FakeObject parent) {
+        FakeObject object = new FakeObject(type, value);
+        object.set("name", name);
+        if (parent != null) {
+            object.set("parent", parent.moRef);
+            childByName.put(parent.moRef.getValue() + "/" + name, object.key);
+        }
+        objects.put(object.key, object);
+        return object;
+    }
+
+    private FakeObject getObject(ManagedObjectReference moRef) throws FaultException {
+        FakeObject object = moRef == null ? null : objects.get(ObjectUtils.getMoRefKey(moRef));
+        if (object == null) {
+            throw managedObjectNotFound(moRef);
+        }
+        return object;
+    }
+
+    // The children of an inventory object, as they are seen by inventory paths and ContainerViews.
+    private List<ManagedObjectReference> getChildren(FakeObject object) {
+        List<ManagedObjectReference> children = new ArrayList<ManagedObjectReference>();
+        if (object.type.equals("Folder")) {
+            @SuppressWarnings("unchecked")
+            List<ManagedObjectReference> childEntity = (List<ManagedObjectReference>) object
+                    .get("childEntity");
+            if (childEntity != null) {
+                children.addAll(childEntity);
+            }
+        } else if (object.type.equals("Datacenter")) {
+            children.add((ManagedObjectReference) object.get("vmFolder"));
+            children.add((ManagedObjectReference) object.get("hostFolder"));
+        }
+        return children;
+    }
+
+    private static boolean isEntity(String type) {
+        return type.equals("Folder") || type.equals("Datacenter") || type.equals("HostSystem")
+                || type.equals("VirtualMachine");
+    }
+
+    private static boolean typeMatches(String wanted, String type) {
+        return wanted.equals(type) || (wanted.equals("ManagedEntity") && isEntity(type));
+    }
+
+    //
+    // HTTP and SOAP
+    //
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        String method = "unknown";
+        String setCookie = null;
+        int status = 200;
+        String body;
+        try {
+            byte[] request = readFully(exchange.getRequestBody());
+            bytesReceived.addAndGet(request.length);
+            if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst(
+                    "Content-Encoding"))) {
+                request = readFully(new GZIPInputStream(new ByteArrayInputStream(request)));
+            }
+            requestCount.incrementAndGet();
+            Element operation = parseOperation(request);
+            method = operation.getLocalName();
+            AtomicLong count = requestCountByMethod.get(method);
+            if (count == null) {
+                requestCountByMethod.putIfAbsent(method, new AtomicLong());
+                count = requestCountByMethod.get(method);
+            }
+            count.incrementAndGet();
+            sleep(latencyMillis * 1000000L);
+
+            Session session = sessions.get(getSessionCookie(exchange));
+            if (session == null && !method.equals("RetrieveServiceContent")
+                    && !method.equals("Login")) {
+                throw new FaultException("NotAuthenticated", "The session is not authenticated.",
+                        "<object type=\"Folder\">" + ROOT_FOLDER
+                                + "</object><privilegeId>System.View</privilegeId>");
+            }
+            if (method.equals("Login")) {
+                session = login(operation);
+                setCookie = SESSION_COOKIE + "=\"" + session.cookie + "\"; Path=/; HttpOnly";
+            }
+            body = "<" + method + "Response xmlns=\"urn:vim25\">"
+                    + invoke(method, operation, session) + "</" + method + "Response>";
+        } catch (FaultException e) {
+            status = 500;
+            body = e.toXml();
+        } catch (Exception e) {
+            status = 500;
+            body = new FaultException("RuntimeFault", method + ": " + e, "").toXml();
+        }
+
+        byte[] response = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<soapenv:Envelope xmlns:soapenv=\"" + SOAP_NS + "\""
+                + " xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\""
+                + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><soapenv:Body>"
+                + body + "</soapenv:Body></soapenv:Envelope>").getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+        if (setCookie != null) {
+            exchange.getResponseHeaders().set("Set-Cookie", setCookie);
+        }
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(response.length / 8);
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed) {
+                {
+                    // Fast compression, as web servers use for responses made on the fly.
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+            gzip.write(response);
+            gzip.close();
+            response = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        bytesSent.addAndGet(response.length);
+        exchange.sendResponseHeaders(status, response.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            // In pieces, as a slow network would deliver them.
+            for (int offset = 0; offset < response.length; offset += 64 * 1024) {
+                int length = Math.min(64 * 1024, response.length - offset);
+                sleep(bytesPerSecond > 0 ? length * 1000000000L / bytesPerSecond : 0);
+                out.write(response, offset, length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            out.close();
+        }
+    }
+
+    // Returns the XML inside the response element of the method.
+    private String invoke(String method, Element operation, Session session) throws Exception {
+        if (method.equals("RetrieveServiceContent")) {
+            return retrieveServiceContent();
+        } else if (method.equals("Login")) {
+            return userSessionXml(session);
+        } else if (method.equals("Logout")) {
+            logout(session);
+            return "";
+        } else if (method.equals("CurrentTime")) {
+            return "<returnval>" + formatDateTime(new Date()) + "</returnval>";
+        } else if (method.equals("CreateContainerView")) {
+            return createContainerView(operation, session);
+        } else if (method.equals("DestroyView")) {
+            destroyView(operation);
+            return "";
+        } else if (method.equals("RetrievePropertiesEx")) {
+            return retrievePropertiesEx(operation, session);
+        } else if (method.equals("ContinueRetrievePropertiesEx")) {
+            return continueRetrievePropertiesEx(operation, session);
+        } else if (method.equals("CancelRetrievePropertiesEx")) {
+            cursors.remove(session.cookie + "/" + text(operation, "token"));
+            return "";
+        } else if (method.equals("CreatePropertyCollector")) {
+            return createPropertyCollector(session);
+        } else if (method.equals("DestroyPropertyCollector")) {
+            destroyPropertyCollector(operation, session);
+            return "";
+        } else if (method.equals("CreateFilter")) {
+            return createFilter(operation, session);
+        } else if (method.equals("DestroyPropertyFilter")) {
+            destroyPropertyFilter(operation);
+            return "";
+        } else if (method.equals("WaitForUpdatesEx")) {
+            return waitForUpdatesEx(operation, session);
+        } else if (method.equals("CancelWaitForUpdates")) {
+            cancelWaitForUpdates(operation, session);
+            return "";
+        } else if (method.equals("FindAllByUuid") || method.equals("FindByUuid")) {
+            return findByUuid(operation, method.equals("FindByUuid"));
+        } else if (method.equals("FindByInventoryPath")) {
+            return findByInventoryPath(operation);
+        } else if (method.equals("FindChild")) {
+            return findChild(operation);
+        }
+        throw new FaultException("MethodFault", "The method " + method
+                + " is not implemented by the fake vCenter.", "");
+    }
+
+    private Element parseOperation(byte[] request) throws Exception {
+        Element envelope = documentBuilder.get().parse(new ByteArrayInputStream(request))
+                .getDocumentElement();
+        Element body = child(envelope, "Body");
+        Element operation = body == null ? null : firstChild(body);
+        if (operation == null) {
+            throw new IllegalArgumentException("The request has no SOAP body.");
+        }
+        return operation;
+    }
+
+    private static String getSessionCookie(HttpExchange exchange) {
+        List<String> headers = exchange.getRequestHeaders().get("Cookie");
+        if (headers == null) {
+            return "";
+        }
+        for (String header : headers) {
+            for (String cookie : header.split(";")) {
+                cookie = cookie.trim();
+                if (cookie.startsWith(SESSION_COOKIE + "=")) {
+                    return cookie.substring(SESSION_COOKIE.length() + 1).replace("\"", "");
+                }
+            }
+        }
+        return "";
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    private static void sleep(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+
+    //
+    // ServiceInstance and SessionManager
+    //
+
+    private String retrieveServiceContent() {
+        StringBuilder xml = new StringBuilder("<returnval>");
+        appendMoRef(xml, "rootFolder", "Folder", ROOT_FOLDER);
+        appendMoRef(xml, "propertyCollector", "PropertyCollector", DEFAULT_COLLECTOR);
+        appendMoRef(xml, "viewManager", "ViewManager", "ViewManager");
+        xml.append("<about><name>VMware vCenter Server</name>")
+                .append("<fullName>VMware vCenter Server 5.5.0 (fake)</fullName>")
+                .append("<vendor>VMware, Inc.</vendor><version>5.5.0</version><build>0</build>")
+                .append("<localeVersion>INTL</localeVersion><localeBuild>000</localeBuild>")
+                .append("<osType>linux-x64</osType><productLineId>vpx</productLineId>")
+                .append("<apiType>VirtualCenter</apiType><apiVersion>5.5</apiVersion>")
+                .append("<instanceUuid>").append(instanceUuid).append("</instanceUuid></about>");
+        appendMoRef(xml, "sessionManager", "SessionManager", "SessionManager");
+        appendMoRef(xml, "searchIndex", "SearchIndex", "SearchIndex");
+        return xml.append("</returnval>").toString();
+    }
+
+    private Session login(Element operation) throws FaultException {
+        String user = text(operation, "userName");
+        if (userName != null
+                && (!userName.equals(user) || !password.equals(text(operation, "password")))) {
+            throw new FaultException("InvalidLogin",
+                    "Cannot complete login due to an incorrect user name or password.", "");
+        }
+        Session session = new Session(UUID.randomUUID().toString(), user);
+        sessions.put(session.cookie, session);
+        return session;
+    }
+
+    private String userSessionXml(Session session) {
+        String now = formatDateTime(session.loginTime);
+        return "<returnval><key>" + session.cookie + "</key><userName>"
+                + SyntheticInventory.escape(session.userName) + "</userName><fullName>"
+                + SyntheticInventory.escape(session.userName) + "</fullName><loginTime>" + now
+                + "</loginTime><lastActiveTime>" + now + "</lastActiveTime>"
+                + "<locale>en</locale><messageLocale>en</messageLocale></returnval>";
+    }
+
+    private void logout(Session session) {
+        sessions.remove(session.cookie);
+        // Everything the session created goes away with it.
+        for (String key : new ArrayList<String>(objects.keySet())) {
+            if (session.cookie.equals(objects.get(key).owner)) {
+                objects.remove(key);
+            }
+        }
+        for (String key : new ArrayList<String>(cursors.keySet())) {
+            if (key.startsWith(session.cookie + "/")) {
+                cursors.remove(key);
+            }
+        }
+        synchronized (changeLock) {
+            for (Collector collector : new ArrayList<Collector>(collectors.values())) {
+                if (collector.owner.equals(session.cookie)) {
+                    removeCollector(collector);
+                }
+            }
+        }
+    }
+
+    //
+    // ViewManager
+    //
+
+    private String createContainerView(Element operation, Session session) throws FaultException {
+        FakeObject container = getObject(moRef(child(operation, "container")));
+        Set<String> types = new HashSet<String>();
+        for (Element type : children(operation, "type")) {
+            types.add(type.getTextContent());
+        }
+        boolean recursive = Boolean.parseBoolean(text(operation, "recursive"));
+
+        // The inventory only changes names, so the contents of a view are worked out once.
+        List<ManagedObjectReference> view = new ArrayList<ManagedObjectReference>();
+        addViewContents(container, types, recursive, view);
+
+        FakeObject containerView = new FakeObject("ContainerView", "session[" + session.cookie
+                + "]" + nextId.getAndIncrement());
+        containerView.owner = session.cookie;
+        containerView.set("container", container.moRef);
+        containerView.set("type", new ArrayList<String>(types));
+        containerView.set("recursive", recursive);
+        containerView.set("view", view);
+        objects.put(containerView.key, containerView);
+        return moRefXml("returnval", containerView.moRef);
+    }
+
+    private void addViewContents(FakeObject container, Set<String> types, boolean recursive,
+            List<ManagedObjectReference> view) {
+        for (ManagedObjectReference childRef : getChildren(container)) {
+            FakeObject child = objects.get(ObjectUtils.getMoRefKey(childRef));
+            boolean wanted = types.isEmpty();
+            for (String type : types) {
+                wanted = wanted || typeMatches(type, child.type);
+            }
+            if (wanted) {
+                view.add(child.moRef);
+            }
+            if (recursive) {
+                addViewContents(child, types, recursive, view);
+            }
+        }
+    }
+
+    private void destroyView(Element operation) throws FaultException {
+        FakeObject view = getObject(moRef(child(operation, "_this")));
+        objects.remove(view.key);
+    }
+
+    //
+    // PropertyCollector: RetrievePropertiesEx
+    //
+
+    private String retrievePropertiesEx(Element operation, Session session) throws Exception {
+        List<ObjectResult> results = new ArrayList<ObjectResult>();
+        for (Element specSet : children(operation, "specSet")) {
+            results.addAll(select(specSet).values());
+        }
+        Element options = child(operation, "options");
+        int pageSize = maxPageSize;
+        if (options != null && child(options, "maxObjects") != null) {
+            pageSize = Math.max(1, Math.min(pageSize, Integer.parseInt(text(options,
+                    "maxObjects"))));
+        }
+        if (results.isEmpty()) {
+            // An empty result is returned as no result at all.
+            return "";
+        }
+        return nextPage(new RetrieveCursor(results, pageSize), session);
+    }
+
+    private String continueRetrievePropertiesEx(Element operation, Session session)
+            throws Exception {
+        String token = text(operation, "token");
+        RetrieveCursor cursor = cursors.remove(session.cookie + "/" + token);
+        if (cursor == null) {
+            throw new FaultException("InvalidArgument", "The token " + token + " is not valid.",
+                    "<invalidProperty>token</invalidProperty>");
+        }
+        return nextPage(cursor, session);
+    }
+
+    private String nextPage(RetrieveCursor cursor, Session session) throws Exception {
+        int end = Math.min(cursor.results.size(), cursor.next + cursor.pageSize);
+        StringBuilder xml = new StringBuilder((end - cursor.next) * 700 + 100);
+        xml.append("<returnval>");
+        if (end < cursor.results.size()) {
+            String token = String.valueOf(nextId.getAndIncrement());
+            xml.append("<token>").append(token).append("</token>");
+            cursors.put(session.cookie + "/" + token, new RetrieveCursor(cursor.results, end,
+                    cursor.pageSize));
+        }
+        for (int i = cursor.next; i < end; i++) {
+            ObjectResult result = cursor.results.get(i);
+            xml.append("<objects>");
+            appendMoRef(xml, "obj", result.object.type, result.object.moRef.getValue());
+            for (String path : result.paths) {
+                Object value = result.object.get(path);
+                if (value != null) {
+                    xml.append("<propSet><name>").append(path).append("</name>");
+                    appendValue(xml, "val", value);
+                    xml.append("</propSet>");
+                }
+            }
+            xml.append("</objects>");
+        }
+        sleep((end - cursor.next) * latencyMicrosPerObject * 1000L);
+        return xml.append("</returnval>").toString();
+    }
+
+    /**
+     * Works out the objects a PropertyFilterSpec selects, and the properties of each to return,
+     * by following its ObjectSpecs and TraversalSpecs. Objects of a type no PropertySpec asks for
+     * are left out.
+     */
+    private Map<String, ObjectResult> select(Element filterSpec) throws FaultException {
+        // The properties wanted for each type, or null for all of them.
+        Map<String, Set<String>> pathsByType = new HashMap<String, Set<String>>();
+        for (Element propSet : children(filterSpec, "propSet")) {
+            String type = text(propSet, "type");
+            Set<String> paths = pathsByType.get(type);
+            if (!pathsByType.containsKey(type)) {
+                paths = new LinkedHashSet<String>();
+                pathsByType.put(type, paths);
+            }
+            if (paths == null || Boolean.parseBoolean(text(propSet, "all"))) {
+                pathsByType.put(type, null);
+            } else {
+                for (Element path : children(propSet, "pathSet")) {
+                    paths.add(path.getTextContent());
+                }
+            }
+        }
+
+        Map<String, FakeObject> selected = new LinkedHashMap<String, FakeObject>();
+        for (Element objectSet : children(filterSpec, "objectSet")) {
+            FakeObject object = getObject(moRef(child(objectSet, "obj")));
+            if (!Boolean.parseBoolean(text(objectSet, "skip"))) {
+                selected.put(object.key, object);
+            }
+            Map<String, Element> namedSpecs = new HashMap<String, Element>();
+            collectNamedSpecs(objectSet, namedSpecs);
+            traverse(object, children(objectSet, "selectSet"), namedSpecs, selected,
+                    new HashSet<String>());
+        }
+
+        Map<String, ObjectResult> results = new LinkedHashMap<String, ObjectResult>();
+        for (FakeObject object : selected.values()) {
+            List<String> paths = null;
+            for (Map.Entry<String, Set<String>> entry : pathsByType.entrySet()) {
+                if (typeMatches(entry.getKey(), object.type)) {
+                    if (paths == null) {
+                        paths = new ArrayList<String>();
+                    }
+                    Set<String> typePaths = entry.getValue() == null ? object.getPropertyNames()
+                            : entry.getValue();
+                    for (String path : typePaths) {
+                        if (!paths.contains(path)) {
+                            paths.add(path);
+                        }
+                    }
+                }
+            }
+            if (paths != null) {
+                results.put(object.key, new ObjectResult(object, paths));
+            }
+        }
+        return results;
+    }
+
+    private static void collectNamedSpecs(Element parent, Map<String, Element> namedSpecs) {
+        for (Element selectSet : children(parent, "selectSet")) {
+            String name = text(selectSet, "name");
+            if (name != null && child(selectSet, "path") != null) {
+                namedSpecs.put(name, selectSet);
+                collectNamedSpecs(selectSet, namedSpecs);
+            }
+        }
+    }
+
+    private void traverse(FakeObject object, List<Element> selectSets,
+            Map<String, Element> namedSpecs, Map<String, FakeObject> selected, Set<String> visited) {
+        for (Element selectSet : selectSets) {
+            // A SelectionSpec is only a reference to a TraversalSpec by its name.
+            Element spec = child(selectSet, "path") != null ? selectSet : namedSpecs.get(text(
+                    selectSet, "name"));
+            if (spec == null || !typeMatches(text(spec, "type"), object.type)) {
+                continue;
+            }
+            if (!visited.add(object.key + "/" + System.identityHashCode(spec))) {
+                continue;
+            }
+            Object value = object.get(text(spec, "path"));
+            List<ManagedObjectReference> targets = new ArrayList<ManagedObjectReference>();
+            if (value instanceof ManagedObjectReference) {
+                targets.add((ManagedObjectReference) value);
+            } else if (value instanceof List) {
+                for (Object item : (List<?>) value) {
+                    if (item instanceof ManagedObjectReference) {
+                        targets.add((ManagedObjectReference) item);
+                    }
+                }
+            }
+            boolean skip = Boolean.parseBoolean(text(spec, "skip"));
+            List<Element> nested = children(spec, "selectSet");
+            for (ManagedObjectReference targetRef : targets) {
+                FakeObject target = objects.get(ObjectUtils.getMoRefKey(targetRef));
+                if (target == null) {
+                    continue;
+                }
+                if (!skip) {
+                    selected.put(target.key, target);
+                }
+                traverse(target, nested, namedSpecs, selected, visited);
+            }
+        }
+    }
+
+    //
+    // PropertyCollector: filters and WaitForUpdatesEx
+    //
+
+    private String createPropertyCollector(Session session) {
+        Collector collector = new Collector("session[" + session.cookie + "]"
+                + nextId.getAndIncrement(), session.cookie);
+        synchronized (changeLock) {
+            collectors.put(collector.value, collector);
+        }
+        return moRefXml("returnval", ObjectUtils.createMoRef("PropertyCollector",
+                collector.value));
+    }
+
+    private void destroyPropertyCollector(Element operation, Session session)
+            throws FaultException {
+        synchronized (changeLock) {
+            removeCollector(getCollector(moRef(child(operation, "_this")), session));
+        }
+    }
+
+    // Must be called holding changeLock.
+    private void removeCollector(Collector collector) {
+        collectors.remove(collector.value);
+        for (Filter filter : collector.filters) {
+            filters.remove(filter.value);
+        }
+        collector.destroyed = true;
+        changeLock.notifyAll();
+    }
+
+    // Must be called holding changeLock.
+    private Collector getCollector(ManagedObjectReference moRef, Session session)
+            throws FaultException {
+        if (moRef == null) {
+            throw managedObjectNotFound(null);
+        }
+        if (moRef.getValue().equals(DEFAULT_COLLECTOR)) {
+            // Each session has its own state on the default collector.
+            String value = DEFAULT_COLLECTOR + "/" + session.cookie;
+            Collector collector = collectors.get(value);
+            if (collector == null) {
+                collector = new Collector(value, session.cookie);
+                collectors.put(value, collector);
+            }
+            return collector;
+        }
+        Collector collector = collectors.get(moRef.getValue());
+        if (collector == null) {
+            throw managedObjectNotFound(moRef);
+        }
+        return collector;
+    }
+
+    private String createFilter(Element operation, Session session) throws FaultException {
+        Map<String, ObjectResult> selected = select(child(operation, "spec"));
+        synchronized (changeLock) {
+            Collector collector = getCollector(moRef(child(operation, "_this")), session);
+            Filter filter = new Filter("session[" + session.cookie + "]"
+                    + nextId.getAndIncrement(), collector, selected);
+            collector.filters.add(filter);
+            filters.put(filter.value, filter);
+            changeLock.notifyAll();
+            return moRefXml("returnval", ObjectUtils.createMoRef("PropertyFilter",
+                    filter.value));
+        }
+    }
+
+    private void destroyPropertyFilter(Element operation) throws FaultException {
+        ManagedObjectReference moRef = moRef(child(operation, "_this"));
+        synchronized (changeLock) {
+            Filter filter = filters.remove(moRef.getValue());
+            if (filter == null) {
+                throw managedObjectNotFound(moRef);
+            }
+            filter.collector.filters.remove(filter);
+        }
+    }
+
+    private void cancelWaitForUpdates(Element operation, Session session)
+            throws FaultException {
+        synchronized (changeLock) {
+            Collector collector = getCollector(moRef(child(operation, "_this")), session);
+            if (collector.waiting) {
+                collector.canceled = true;
+                changeLock.notifyAll();
+            }
+        }
+    }
+
+    private String waitForUpdatesEx(Element operation, Session session) throws Exception {
+        String version = text(operation, "version");
+        Element options = child(operation, "options");
+        int maxWaitSeconds = -1;
+        int maxObjectUpdates = Integer.MAX_VALUE;
+        if (options != null && child(options, "maxWaitSeconds") != null) {
+            maxWaitSeconds = Integer.parseInt(text(options, "maxWaitSeconds"));
+        }
+        if (options != null && child(options, "maxObjectUpdates") != null) {
+            maxObjectUpdates = Math.max(1, Integer.parseInt(text(options, "maxObjectUpdates")));
+        }
+        long deadline = System.currentTimeMillis() + maxWaitSeconds * 1000L;
+
+        List<Update> updates = new ArrayList<Update>();
+        boolean truncated;
+        String newVersion;
+        synchronized (changeLock) {
+            Collector collector = getCollector(moRef(child(operation, "_this")), session);
+            if (version == null || version.length() == 0) {
+                // Start again: every object is new to the caller, and older changes are not.
+                for (Filter filter : collector.filters) {
+                    filter.reported.clear();
+                }
+                collector.seenChanges = changes.size();
+            } else if (!version.equals(String.valueOf(collector.version))) {
+                throw new FaultException("InvalidCollectorVersion", "The version " + version
+                        + " is not the current version of the collector.", "");
+            }
+            collector.waiting = true;
+            try {
+                while (true) {
+                    if (collector.canceled) {
+                        collector.canceled = false;
+                        throw new FaultException("RequestCanceled", "The request was canceled.",
+                                "");
+                    }
+                    if (collector.destroyed) {
+                        throw managedObjectNotFound(ObjectUtils.createMoRef("PropertyCollector",
+                                collector.value));
+                    }
+                    truncated = collectUpdates(collector, maxObjectUpdates, updates);
+                    if (!updates.isEmpty() || maxWaitSeconds == 0) {
+                        break;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (maxWaitSeconds > 0 && remaining <= 0) {
+                        break;
+                    }
+                    changeLock.wait(maxWaitSeconds > 0 ? remaining : 0);
+                }
+            } finally {
+                collector.waiting = false;
+            }
+            if (updates.isEmpty()) {
+                // Nothing happened before maxWaitSeconds.
+                return "";
+            }
+            collector.version++;
+            newVersion = String.valueOf(collector.version);
+        }
+        sleep(updates.size() * latencyMicrosPerObject * 1000L);
+        return updateSetXml(newVersion, updates, truncated);
+    }
+
+    // Must be called holding changeLock. Returns true if there are more updates than were taken.
+    private boolean collectUpdates(Collector collector, int maxObjectUpdates, List<Update> updates) {
+        // First the objects the caller has not seen yet.
+        for (Filter filter : collector.filters) {
+            for (ObjectResult result : filter.objects.values()) {
+                if (!filter.reported.contains(result.object.key)) {
+                    if (updates.size() == maxObjectUpdates) {
+                        return true;
+                    }
+                    filter.reported.add(result.object.key);
+                    updates.add(new Update(filter, "enter", result.object, result.paths));
+                }
+            }
+        }
+        // Then the changes made since the last call.
+        while (collector.seenChanges < changes.size()) {
+            Change change = changes.get(collector.seenChanges);
+            for (Filter filter : collector.filters) {
+                ObjectResult result = filter.objects.get(change.key);
+                if (result != null && result.paths.contains(change.path)) {
+                    if (updates.size() == maxObjectUpdates) {
+                        return true;
+                    }
+                    updates.add(new Update(filter, "modify", result.object, Collections
+                            .singletonList(change.path)));
+                }
+            }
+            collector.seenChanges++;
+        }
+        return false;
+    }
+
+    private String updateSetXml(String version, List<Update> updates, boolean truncated) {
+        StringBuilder xml = new StringBuilder(updates.size() * 700 + 200);
+        xml.append("<returnval><version>").append(version).append("</version>");
+        Filter current = null;
+        for (Update update : updates) {
+            if (update.filter != current) {
+                if (current != null) {
+                    xml.append("</filterSet>");
+                }
+                current = update.filter;
+                xml.append("<filterSet>");
+                appendMoRef(xml, "filter", "PropertyFilter", current.value);
+            }
+            xml.append("<objectSet><kind>").append(update.kind).append("</kind>");
+            appendMoRef(xml, "obj", update.object.type, update.object.moRef.getValue());
+            for (String path : update.paths) {
+                Object value = update.object.get(path);
+                if (value != null) {
+                    xml.append("<changeSet><name>").append(path)
+                            .append("</name><op>assign</op>");
+                    appendValue(xml, "val", value);
+                    xml.append("</changeSet>");
+                }
+            }
+            xml.append("</objectSet>");
+        }
+        if (current != null) {
+            xml.append("</filterSet>");
+        }
+        xml.append("<truncated>").append(truncated).append("</truncated></returnval>");
+        return xml.toString();
+    }
+
+    //
+    // SearchIndex
+    //
+
+    private String findByUuid(Element operation, boolean first) {
+        String uuid = text(operation, "uuid");
+        boolean vmSearch = Boolean.parseBoolean(text(operation, "vmSearch"));
+        boolean instance = Boolean.parseBoolean(text(operation, "instanceUuid"));
+        Integer i = null;
+        if (vmSearch && uuid != null) {
+            // vCenter matches UUIDs whatever their case.
+            i = (instance ? vmByInstanceUuid : vmByBiosUuid).get(uuid.toLowerCase());
+        }
+        if (i == null) {
+            return "";
+        }
+        return moRefXml("returnval", ObjectUtils.createMoRef("VirtualMachine",
+                SyntheticInventory.vmMoRefValue(i)));
+    }
+
+    private String findByInventoryPath(Element operation) {
+        String key = "Folder:" + ROOT_FOLDER;
+        for (String name : text(operation, "inventoryPath").split("/")) {
+            if (name.length() == 0) {
+                continue;
+            }
+            // In inventory paths, "/" and "%" in names are escaped as %2f and %25.
+            name = name.replace("%2f", "/").replace("%2F", "/").replace("%25", "%");
+            key = childByName.get(objects.get(key).moRef.getValue() + "/" + name);
+            if (key == null) {
+                return "";
+            }
+        }
+        return moRefXml("returnval", objects.get(key).moRef);
+    }
+
+    private String findChild(Element operation) throws FaultException {
+        FakeObject entity = getObject(moRef(child(operation, "entity")));
+        String key = childByName.get(entity.moRef.getValue() + "/" + text(operation, "name"));
+        return key == null ? "" : moRefXml("returnval", objects.get(key).moRef);
+    }
+
+    //
+    // XML
+    //
+
+    private static Element firstChild(Element parent) {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static Element child(Element parent, String name) {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && name.equals(node.getLocalName())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> children = new ArrayList<Element>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && name.equals(node.getLocalName())) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    private static String text(Element parent, String name) {
+        Element child = child(parent, name);
+        return child == null ? null : child.getTextContent().trim();
+    }
+
+    private static ManagedObjectReference moRef(Element element) {
+        if (element == null) {
+            return null;
+        }
+        return ObjectUtils.createMoRef(element.getAttribute("type"), element.getTextContent()
+                .trim());
+    }
+
+    private static String moRefXml(String element, ManagedObjectReference moRef) {
+        StringBuilder xml = new StringBuilder();
+        appendMoRef(xml, element, moRef.getType(), moRef.getValue());
+        return xml.toString();
+    }
+
+    private static void appendMoRef(StringBuilder xml, String element, String type, String value) {
+        xml.append('<').append(element).append(" type=\"").append(type).append("\">")
+                .append(SyntheticInventory.escape(value)).append("</").append(element)
+                .append('>');
+    }
+
+    private static void appendValue(StringBuilder xml, String element, Object value) {
+        if (value instanceof ManagedObjectReference) {
+            ManagedObjectReference moRef = (ManagedObjectReference) value;
+            xml.append('<').append(element)
+                    .append(" xsi:type=\"ManagedObjectReference\" type=\"")
+                    .append(moRef.getType()).append("\">")
+                    .append(SyntheticInventory.escape(moRef.getValue()));
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            boolean moRefs = !list.isEmpty() && list.get(0) instanceof ManagedObjectReference;
+            xml.append('<').append(element).append(" xsi:type=\"")
+                    .append(moRefs ? "ArrayOfManagedObjectReference" : "ArrayOfString")
+                    .append("\">");
+            for (Object item : list) {
+                if (moRefs) {
+                    ManagedObjectReference moRef = (ManagedObjectReference) item;
+                    appendMoRef(xml, "ManagedObjectReference", moRef.getType(), moRef.getValue());
+                } else {
+                    xml.append("<string>").append(SyntheticInventory.escape(item.toString()))
+                            .append("</string>");
+                }
+            }
+        } else if (value instanceof Boolean) {
+            xml.append('<').append(element).append(" xsi:type=\"xsd:boolean\">").append(value);
+        } else if (value instanceof Integer) {
+            xml.append('<').append(element).append(" xsi:type=\"xsd:int\">").append(value);
+        } else {
+            xml.append('<').append(element).append(" xsi:type=\"xsd:string\">")
+                    .append(SyntheticInventory.escape(value.toString()));
+        }
+        xml.append("</").append(element).append('>');
+    }
+
+    private static String formatDateTime(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    private static FaultException managedObjectNotFound(ManagedObjectReference moRef) {
+        return new FaultException("ManagedObjectNotFound", "The object has already been deleted"
+                + " or has not been completely created", moRef == null ? "" : moRefXml("obj",
+                moRef));
+    }
+
+    //
+    // State
+    //
+
+    private static class FakeObject {
+        final String type;
+        final String key;
+        final ManagedObjectReference moRef;
+        // The session which created the object, for views, or null for the inventory.
+        String owner;
+        // Copied when a property is set, so it can be read without locking.
+        private volatile Map<String, Object> properties = new LinkedHashMap<String, Object>();
+
+        FakeObject(String type, String value) {
+            this.type = type;
+            this.moRef = ObjectUtils.createMoRef(type, value);
+            this.key = ObjectUtils.getMoRefKey(moRef);
+        }
+
+        Object get(String path) {
+            return properties.get(path);
+        }
+
+        synchronized void set(String path, Object value) {
+            Map<String, Object> copy = new LinkedHashMap<String, Object>(properties);
+            copy.put(path, value);
+            properties = copy;
+        }
+
+        Set<String> getPropertyNames() {
+            return properties.keySet();
+        }
+    }
+
+    private static class Session {
+        final String cookie;
+        final String userName;
+        final Date loginTime = new Date();
+
+        Session(String cookie, String userName) {
+            this.cookie = cookie;
+            this.userName = userName;
+        }
+    }
+
+    private static class ObjectResult {
+        final FakeObject object;
+        final List<String> paths;
+
+        ObjectResult(FakeObject object, List<String> paths) {
+            this.object = object;
+            this.paths = paths;
+        }
+    }
+
+    private static class RetrieveCursor {
+        final List<ObjectResult> results;
+        final int next;
+        final int pageSize;
+
+        RetrieveCursor(List<ObjectResult> results, int pageSize) {
+            this(results, 0, pageSize);
+        }
+
+        RetrieveCursor(List<ObjectResult> results, int next, int pageSize) {
+            this.results = results;
+            this.next = next;
+            this.pageSize = pageSize;
+        }
+    }
+
+    private static class Collector {
+        final String value;
+        final String owner;
+        final List<Filter> filters = new ArrayList<Filter>();
+        int version;
+        int seenChanges;
+        boolean waiting;
+        boolean canceled;
+        boolean destroyed;
+
+        Collector(String value, String owner) {
+            this.value = value;
+            this.owner = owner;
+        }
+    }
+
+    private static class Filter {
+        final String value;
+        final Collector collector;
+        final Map<String, ObjectResult> objects;
+        final Set<String> reported = new HashSet<String>();
+
+        Filter(String value, Collector collector, Map<String, ObjectResult> objects) {
+            this.value = value;
+            this.collector = collector;
+            this.objects = objects;
+        }
+    }
+
+    private static class Change {
+        final String key;
+        final String path;
+
+        Change(String key, String path) {
+            this.key = key;
+            this.path = path;
+        }
+    }
+
+    private static class Update {
+        final Filter filter;
+        final String kind;
+        final FakeObject object;
+        final List<String> paths;
+
+        Update(Filter filter, String kind, FakeObject object, List<String> paths) {
+            this.filter = filter;
+            this.kind = kind;
+            this.object = object;
+            this.paths = paths;
+        }
+    }
+
+    private static class FaultException extends Exception {
+        private static final long serialVersionUID = 1L;
+        final String faultType;
+        final String detail;
+
+        FaultException(String faultType, String message, String detail) {
+            super(message);
+            this.faultType = faultType;
+            this.detail = detail;
+        }
+
+        String toXml() {
+            return "<soapenv:Fault><faultcode>ServerFaultCode</faultcode><faultstring>"
+                    + SyntheticInventory.escape(getMessage()) + "</faultstring><detail><"
+                    + faultType + "Fault xmlns=\"urn:vim25\" xsi:type=\"" + faultType + "\">"
+                    + detail + "</" + faultType + "Fault></detail></soapenv:Fault>";
+        }
+    }
+
+    /**
+     * Runs a fake vCenter until the process is stopped.
+     *
+     * @param args
+     *            the number of VMs, and optionally the port to listen on
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: FakeVCenter <number of VMs> [<port>]");
+            System.exit(1);
+        }
+        FakeVCenter fake = new FakeVCenter(Integer.parseInt(args[0]));
+        fake.start(args.length > 1 ? Integer.parseInt(args[1]) : 0);
+        System.out.printf("Fake vCenter with %d VMs listening at %s%n", fake.getVmCount(),
+                fake.getUrl());
+        System.out.println("Press Ctrl-C to stop.");
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
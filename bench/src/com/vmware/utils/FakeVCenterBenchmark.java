@@ -0,0 +1,131 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+
+/**
+ * Measures the real client code paths, through JAX-WS, against a FakeVCenter on the loopback
+ * interface: retrieving every VM in pages, through JAX-WS and through a StreamingRetriever,
+ * finding a VM by name with a full scan, by inventory path and in its folder, and finding one by
+ * UUID with the SearchIndex. The latency added to every call stands in for the network and the
+ * vCenter itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FakeVCenterBenchmark {
+
+    @Param({ "10000" })
+    public int vmCount;
+
+    @Param({ "100", "1000" })
+    public int pageSize;
+
+    @Param({ "0", "5" })
+    public long latencyMillis;
+
+    private FakeVCenter fake;
+    private VMwareConnection conn;
+    private String lastName;
+    private String lastUuid;
+
+    @Setup
+    public void setup() throws Exception {
+        fake = new FakeVCenter(vmCount);
+        fake.start();
+        fake.setLatency(latencyMillis, 0);
+        conn = new VMwareConnection(fake.getUrl(), "user", "password");
+        lastName = SyntheticInventory.vmName(vmCount - 1);
+        lastUuid = SyntheticInventory.instanceUuid(vmCount - 1);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        conn.close();
+        fake.close();
+    }
+
+    @Benchmark
+    public int findAllObjects() throws Exception {
+        final int[] count = new int[1];
+        conn.findAllObjects(pageSize, new ObjectContentHandler() {
+            public boolean handlePage(List<ObjectContent> page) {
+                count[0] += page.size();
+                return true;
+            }
+        }, "VirtualMachine", "name", "summary.config.instanceUuid");
+        return count[0];
+    }
+
+    @Benchmark
+    public int streamAllObjects() throws Exception {
+        final int[] count = new int[1];
+        conn.streamAllObjects(pageSize, new StreamingRetriever.Handler() {
+            public boolean handleObject(ObjectContent oc) {
+                count[0]++;
+                return true;
+            }
+        }, "VirtualMachine", "name", "summary.config.instanceUuid");
+        return count[0];
+    }
+
+    @Benchmark
+    public ManagedObjectReference findObjectByScan() throws Exception {
+        return FindObjects.findObject(conn.getVimPort(), conn.getServiceContent(),
+                "VirtualMachine", lastName);
+    }
+
+    @Benchmark
+    public ObjectContent findObjectByInventoryPath() throws Exception {
+        return conn.findObjectByInventoryPath("VirtualMachine", "Datacenter/vm/" + lastName,
+                "name");
+    }
+
+    @Benchmark
+    public ObjectContent findObjectInFolder() throws Exception {
+        return conn.findObjectInContainer("Datacenter/vm", "VirtualMachine", lastName, "name");
+    }
+
+    @Benchmark
+    public List<ManagedObjectReference> findVirtualMachinesByUuid() throws Exception {
+        return conn.findVirtualMachinesByUuid(lastUuid, true);
+    }
+}
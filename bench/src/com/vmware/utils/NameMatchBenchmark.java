@@ -0,0 +1,98 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+
+/**
+ * Measures finding a VM by name on the client: the name-matching loop of FindObjects.findObject
+ * (FindObjects.findByName) over a page of objects with only the "name" property, as findObject
+ * retrieves them, compared with a lookup in an ObjectNameIndex.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameMatchBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int objectCount;
+
+    private List<ObjectContent> vms;
+    private String lastName;
+    private Map<String, ManagedObjectReference> nameMap;
+
+    @Setup
+    public void setup() {
+        vms = new ArrayList<ObjectContent>(objectCount);
+        nameMap = new HashMap<String, ManagedObjectReference>();
+        for (int i = 0; i < objectCount; i++) {
+            ObjectContent oc = new ObjectContent();
+            oc.setObj(ObjectUtils.createMoRef("VirtualMachine",
+                    SyntheticInventory.vmMoRefValue(i)));
+            DynamicProperty dp = new DynamicProperty();
+            dp.setName("name");
+            dp.setVal(SyntheticInventory.vmName(i));
+            oc.getPropSet().add(dp);
+            vms.add(oc);
+            nameMap.put(SyntheticInventory.vmName(i), oc.getObj());
+        }
+        // The worst case for the loop: the wanted object is the last one.
+        lastName = new String(SyntheticInventory.vmName(objectCount - 1));
+    }
+
+    @Benchmark
+    public ObjectContent findByNameLast() {
+        return FindObjects.findByName(vms, lastName);
+    }
+
+    @Benchmark
+    public ObjectContent findByNameMissing() {
+        return FindObjects.findByName(vms, "no-such-vm");
+    }
+
+    @Benchmark
+    public ManagedObjectReference hashLookup() {
+        // What an ObjectNameIndex lookup costs once the index is built.
+        return nameMap.get(lastName);
+    }
+}
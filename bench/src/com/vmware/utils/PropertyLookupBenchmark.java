@@ -0,0 +1,121 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vmware.vim25.ObjectContent;
+
+/**
+ * Measures reading properties out of ObjectContents with ObjectUtils.getPropertyValue and
+ * getPropertyObject, and out of IndexedObjectContents, over 10,000 synthetic VMs. Each VM has the
+ * usual properties followed by extraProperties more, so propSet sizes match what a caller asking
+ * for a few or a few dozen properties gets back. The scores are for reading 10-20 properties from
+ * every VM, as a CMDB sync does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyLookupBenchmark {
+
+    @Param({ "0", "14", "44" })
+    public int extraProperties;
+
+    private List<ObjectContent> vms;
+    private List<IndexedObjectContent> indexedVms;
+    private String[] readPaths;
+
+    @Setup
+    public void setup() {
+        vms = SyntheticInventory.createVms(10000, extraProperties);
+        indexedVms = IndexedObjectContent.indexAll(vms);
+        // Read the usual properties, and up to ten of the extra ones spread through the propSet.
+        int extraReads = Math.min(10, extraProperties);
+        readPaths = new String[SyntheticInventory.VM_PROPERTIES.length + extraReads];
+        for (int i = 0; i < SyntheticInventory.VM_PROPERTIES.length; i++) {
+            // Copies, so that lookups can not succeed on reference equality alone.
+            readPaths[i] = new String(SyntheticInventory.VM_PROPERTIES[i]);
+        }
+        for (int i = 0; i < extraReads; i++) {
+            readPaths[SyntheticInventory.VM_PROPERTIES.length + i] = SyntheticInventory
+                    .extraPropertyName(i * extraProperties / extraReads);
+        }
+    }
+
+    @Benchmark
+    public void getPropertyObject(Blackhole blackhole) {
+        for (ObjectContent vm : vms) {
+            for (String path : readPaths) {
+                blackhole.consume(ObjectUtils.getPropertyObject(vm, path));
+            }
+        }
+    }
+
+    @Benchmark
+    public void indexedGetPropertyObject(Blackhole blackhole) {
+        for (IndexedObjectContent vm : indexedVms) {
+            for (String path : readPaths) {
+                blackhole.consume(vm.getPropertyObject(path));
+            }
+        }
+    }
+
+    @Benchmark
+    public void indexAndGetPropertyObject(Blackhole blackhole) {
+        // Includes building the index, for objects which are read only once.
+        for (ObjectContent vm : vms) {
+            IndexedObjectContent indexed = new IndexedObjectContent(vm);
+            for (String path : readPaths) {
+                blackhole.consume(indexed.getPropertyObject(path));
+            }
+        }
+    }
+
+    @Benchmark
+    public void getPropertyValueName(Blackhole blackhole) {
+        for (ObjectContent vm : vms) {
+            blackhole.consume(ObjectUtils.getPropertyValue(vm, readPaths[0]));
+        }
+    }
+
+    @Benchmark
+    public void getPropertyValueMissing(Blackhole blackhole) {
+        for (ObjectContent vm : vms) {
+            blackhole.consume(ObjectUtils.getPropertyValue(vm, "summary.runtime.powerState"));
+        }
+    }
+}
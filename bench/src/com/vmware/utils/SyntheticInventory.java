@@ -0,0 +1,210 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+
+/**
+ * Generates a made-up inventory of VirtualMachines, so the benchmarks can run without a vCenter
+ * server. Everything is derived from the index of the VM, so the same index always gives the same
+ * name, MoRef and UUIDs.
+ */
+public class SyntheticInventory {
+
+    /**
+     * The properties every synthetic VM has, in the order they appear in its propSet.
+     */
+    public static final String[] VM_PROPERTIES = { "name", "summary.config.instanceUuid",
+            "summary.config.uuid", "summary.config.vmPathName", "config.guestFullName",
+            "runtime.host" };
+
+    /**
+     * Returns the name of the VM with the index given.
+     */
+    public static String vmName(int i) {
+        return String.format("vm%07d", i);
+    }
+
+    /**
+     * Returns the MoRef value of the VM with the index given.
+     */
+    public static String vmMoRefValue(int i) {
+        return "vm-" + (i + 100);
+    }
+
+    /**
+     * Returns the instance UUID of the VM with the index given, in lower case as vCenter reports
+     * it.
+     */
+    public static String instanceUuid(int i) {
+        long mostSigBits = 0x5000000000004000L | ((long) i << 32);
+        long leastSigBits = 0x8000000000000000L | (i * 0x9E3779B97F4A7C15L) >>> 1;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
+    /**
+     * Returns the BIOS UUID of the VM with the index given.
+     */
+    public static String biosUuid(int i) {
+        long mostSigBits = 0x4200000000004000L | ((long) i << 32);
+        long leastSigBits = 0x8000000000000000L | (i * 0xC2B2AE3D27D4EB4FL) >>> 1;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
+    /**
+     * Returns the MoRef value of the host the VM with the index given runs on.
+     */
+    public static String hostMoRefValue(int i) {
+        return "host-" + (i % 64 + 10);
+    }
+
+    /**
+     * Returns the value of a property of the VM with the index given, as it would be unmarshalled.
+     */
+    public static Object vmProperty(int i, String path) {
+        if (path.equals("name")) {
+            return vmName(i);
+        } else if (path.equals("summary.config.instanceUuid")) {
+            return instanceUuid(i);
+        } else if (path.equals("summary.config.uuid")) {
+            return biosUuid(i);
+        } else if (path.equals("summary.config.vmPathName")) {
+            return "[datastore" + (i % 16) + "] " + vmName(i) + "/" + vmName(i) + ".vmx";
+        } else if (path.equals("config.guestFullName")) {
+            return "Other 3.x or later Linux (64-bit)";
+        } else if (path.equals("runtime.host")) {
+            return ObjectUtils.createMoRef("HostSystem", hostMoRefValue(i));
+        }
+        return null;
+    }
+
+    /**
+     * Creates the ObjectContent of a VM, with the usual properties followed by extra String
+     * properties named "config.extraConfig.key0", "config.extraConfig.key1" and so on.
+     *
+     * @param i
+     *            the index of the VM
+     * @param extraProperties
+     *            the number of extra properties
+     * @return the ObjectContent.
+     */
+    public static ObjectContent createVm(int i, int extraProperties) {
+        ObjectContent oc = new ObjectContent();
+        oc.setObj(ObjectUtils.createMoRef("VirtualMachine", vmMoRefValue(i)));
+        for (String path : VM_PROPERTIES) {
+            oc.getPropSet().add(createProperty(path, vmProperty(i, path)));
+        }
+        for (int extra = 0; extra < extraProperties; extra++) {
+            oc.getPropSet().add(createProperty(extraPropertyName(extra), "value" + extra));
+        }
+        return oc;
+    }
+
+    /**
+     * Returns the name of the extra property with the index given.
+     */
+    public static String extraPropertyName(int extra) {
+        return "config.extraConfig.key" + extra;
+    }
+
+    /**
+     * Creates the ObjectContents of many VMs; see createVm.
+     */
+    public static List<ObjectContent> createVms(int count, int extraProperties) {
+        List<ObjectContent> vms = new ArrayList<ObjectContent>(count);
+        for (int i = 0; i < count; i++) {
+            vms.add(createVm(i, extraProperties));
+        }
+        return vms;
+    }
+
+    private static DynamicProperty createProperty(String name, Object value) {
+        DynamicProperty dp = new DynamicProperty();
+        dp.setName(name);
+        dp.setVal(value);
+        return dp;
+    }
+
+    /**
+     * Writes the XML of one ObjectContent for a VM, as it appears in a RetrievePropertiesEx
+     * response (the "objects" element), with only the properties given.
+     *
+     * @param xml
+     *            where to write the XML
+     * @param i
+     *            the index of the VM
+     * @param paths
+     *            the properties to include
+     */
+    public static void appendVmXml(StringBuilder xml, int i, List<String> paths) {
+        xml.append("<objects><obj type=\"VirtualMachine\">").append(vmMoRefValue(i))
+                .append("</obj>");
+        for (String path : paths) {
+            Object value = vmProperty(i, path);
+            if (value == null) {
+                continue;
+            }
+            xml.append("<propSet><name>").append(path).append("</name>");
+            if (value instanceof ManagedObjectReference) {
+                ManagedObjectReference mor = (ManagedObjectReference) value;
+                xml.append("<val xsi:type=\"ManagedObjectReference\" type=\"")
+                        .append(mor.getType()).append("\">").append(mor.getValue())
+                        .append("</val>");
+            } else {
+                xml.append("<val xsi:type=\"xsd:string\">").append(escape(value.toString()))
+                        .append("</val>");
+            }
+            xml.append("</propSet>");
+        }
+        xml.append("</objects>");
+    }
+
+    /**
+     * Returns the body of a RetrievePropertiesEx response (the RetrievePropertiesExResponse
+     * element, without the SOAP envelope) holding the VMs with the indexes from 0 to count - 1,
+     * with all the usual properties.
+     */
+    public static String createRetrievePropertiesExResponse(int count) {
+        List<String> paths = Arrays.asList(VM_PROPERTIES);
+        StringBuilder xml = new StringBuilder(count * 700);
+        xml.append("<RetrievePropertiesExResponse xmlns=\"urn:vim25\"")
+                .append(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"")
+                .append(" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\"><returnval>");
+        for (int i = 0; i < count; i++) {
+            appendVmXml(xml, i, paths);
+        }
+        xml.append("</returnval></RetrievePropertiesExResponse>");
+        return xml.toString();
+    }
+
+    /**
+     * Escapes the characters which may not appear as they are in XML text.
+     */
+    public static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
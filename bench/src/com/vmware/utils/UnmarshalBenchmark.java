@@ -0,0 +1,76 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.vim25.RetrievePropertiesExResponse;
+
+/**
+ * Measures JAXB unmarshalling of a RetrievePropertiesEx response into the vim25 object graph
+ * (RetrieveResult, ObjectContent, DynamicProperty), which is what the JAX-WS client does for
+ * every findAllObjects page. The responses are synthetic VMs with the usual properties.
+ * <P>
+ * Run with a larger heap (for example -jvmArgs -Xmx4g) for 100,000 objects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UnmarshalBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int objectCount;
+
+    private JAXBContext context;
+    private String response;
+
+    @Setup
+    public void setup() throws Exception {
+        context = JAXBContext.newInstance("com.vmware.vim25");
+        response = SyntheticInventory.createRetrievePropertiesExResponse(objectCount);
+    }
+
+    @Benchmark
+    public RetrievePropertiesExResponse unmarshal() throws Exception {
+        Unmarshaller unmarshaller = context.createUnmarshaller();
+        return unmarshaller.unmarshal(new StreamSource(new StringReader(response)),
+                RetrievePropertiesExResponse.class).getValue();
+    }
+}
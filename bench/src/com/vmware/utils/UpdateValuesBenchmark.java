@@ -0,0 +1,85 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.TaskInfoState;
+
+/**
+ * Measures TaskUtils.updateValues, which TaskUtils.wait calls twice for every property change it
+ * receives, with the property lists getTaskResultAfterDone uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateValuesBenchmark {
+
+    private final String[] filterProps = { "info.state", "info.error" };
+    private final String[] endWaitProps = { "state" };
+    private Object[] filterVals;
+    private Object[] endVals;
+    private PropertyChange stateChange;
+    private PropertyChange progressChange;
+
+    @Setup
+    public void setup() {
+        filterVals = new Object[filterProps.length];
+        endVals = new Object[endWaitProps.length];
+        stateChange = new PropertyChange();
+        stateChange.setName("info.state");
+        stateChange.setOp(PropertyChangeOp.ASSIGN);
+        stateChange.setVal(TaskInfoState.RUNNING);
+        progressChange = new PropertyChange();
+        progressChange.setName("info.progress");
+        progressChange.setOp(PropertyChangeOp.ASSIGN);
+        progressChange.setVal(Integer.valueOf(42));
+    }
+
+    @Benchmark
+    public Object[] matchingChange() {
+        TaskUtils.updateValues(endWaitProps, endVals, stateChange);
+        TaskUtils.updateValues(filterProps, filterVals, stateChange);
+        return filterVals;
+    }
+
+    @Benchmark
+    public Object[] otherChange() {
+        TaskUtils.updateValues(endWaitProps, endVals, progressChange);
+        TaskUtils.updateValues(filterProps, filterVals, progressChange);
+        return filterVals;
+    }
+}
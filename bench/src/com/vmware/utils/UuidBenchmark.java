@@ -0,0 +1,110 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures Uuid parsing and formatting against java.util.UUID, and UuidIntMap lookups against a
+ * HashMap with String keys, over the instance UUIDs of up to 500,000 synthetic VMs. Run with
+ * -prof gc to see the allocation of each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UuidBenchmark {
+
+    @Param({ "10000", "500000" })
+    public int uuidCount;
+
+    private String[] uuids;
+    private Uuid[] parsed;
+    private Map<String, Integer> hashMap;
+    private UuidIntMap uuidIntMap;
+    private int next;
+
+    @Setup
+    public void setup() {
+        uuids = new String[uuidCount];
+        parsed = new Uuid[uuidCount];
+        hashMap = new HashMap<String, Integer>();
+        uuidIntMap = new UuidIntMap();
+        for (int i = 0; i < uuidCount; i++) {
+            uuids[i] = SyntheticInventory.instanceUuid(i);
+            parsed[i] = Uuid.parse(uuids[i]);
+            hashMap.put(uuids[i], i);
+            uuidIntMap.put(parsed[i], i);
+        }
+    }
+
+    // A different UUID each call, so the lookups are spread over the whole table.
+    private int nextIndex() {
+        next = (next + 7919) % uuidCount;
+        return next;
+    }
+
+    @Benchmark
+    public Uuid parseUuid() {
+        return Uuid.parse(uuids[nextIndex()]);
+    }
+
+    @Benchmark
+    public UUID parseJavaUtilUuid() {
+        return UUID.fromString(uuids[nextIndex()]);
+    }
+
+    @Benchmark
+    public String formatUuid() {
+        return parsed[nextIndex()].toString();
+    }
+
+    @Benchmark
+    public int uuidIntMapGetString() {
+        return uuidIntMap.get(uuids[nextIndex()]);
+    }
+
+    @Benchmark
+    public int uuidIntMapGetUuid() {
+        return uuidIntMap.get(parsed[nextIndex()]);
+    }
+
+    @Benchmark
+    public Integer hashMapGet() {
+        return hashMap.get(uuids[nextIndex()]);
+    }
+}
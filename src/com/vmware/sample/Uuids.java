@@ -24,7 +24,7 @@ import java.util.Map;
 import javax.xml.ws.BindingProvider;
 
 import com.vmware.vim25.ManagedObjectReference;
-import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.ObjectContent;
 import com.vmware.vim25.ServiceContent;
 
 /*
@@ -53,21 +53,98 @@ public class Uuids {
     private com.vmware.vim25.VimService vimService;
     private com.vmware.vim25.VimPortType vimPort;
     private com.vmware.vim25.ServiceContent serviceContent;
-    private com.vmware.vim25.ManagedObjectReference virtualMachine;
-    private com.vmware.vim25.ObjectContent objectContents;
+    // The MoRef and instance UUID of the VMs looked up, by name, shared by getUuid, getUuids and
+    // getMoRefString.
+    private final com.vmware.utils.ExpiringLruCache<String, CachedVm> cache;
+    // The file the session is saved in, or null to log in and out every time.
+    private final java.io.File sessionFile;
+
+    /**
+     * The number of VM names whose MoRef and UUID are cached, unless another number is given to
+     * the constructor.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /**
+     * How long a cached MoRef and UUID are used for, in milliseconds, unless another time is
+     * given to the constructor. A VM may be renamed, or removed and another created with its
+     * name, so they are looked up again after this time.
+     */
+    public static final long DEFAULT_CACHE_TIME_TO_LIVE_MILLIS = 5 * 60 * 1000;
+
+    private static class CachedVm {
+        final ManagedObjectReference moRef;
+        final String instanceUuid;
+
+        CachedVm(ManagedObjectReference moRef, String instanceUuid) {
+            this.moRef = moRef;
+            this.instanceUuid = instanceUuid;
+        }
+    }
 
     /**
      * Constructs a new <code>Uuids</code> and initializes the connection to vCenter.
      *
      * @param serverName
-     *            the name or IP address of the vCenter server to connect to
+     *            the name or IP address of the vCenter server to connect to, or the full URL of
+     *            its web services endpoint
      * @param userName
      *            the user's name to login as
      * @param password
      *            the user's password
      */
     public Uuids(String serverName, String userName, String password) throws Exception {
-        String url = "https://" + serverName + "/sdk/vimService";
+        this(serverName, userName, password, DEFAULT_CACHE_SIZE,
+                DEFAULT_CACHE_TIME_TO_LIVE_MILLIS);
+    }
+
+    /**
+     * Constructs a new <code>Uuids</code> with a cache of the size given, and initializes the
+     * connection to vCenter.
+     *
+     * @param serverName
+     *            the name or IP address of the vCenter server to connect to, or the full URL of
+     *            its web services endpoint
+     * @param userName
+     *            the user's name to login as
+     * @param password
+     *            the user's password
+     * @param cacheSize
+     *            the number of VM names whose MoRef and UUID are kept
+     * @param cacheTimeToLiveMillis
+     *            how long a cached MoRef and UUID are used for, in milliseconds
+     */
+    public Uuids(String serverName, String userName, String password, int cacheSize,
+            long cacheTimeToLiveMillis) throws Exception {
+        this(serverName, userName, password, cacheSize, cacheTimeToLiveMillis, null);
+    }
+
+    /**
+     * Constructs a new <code>Uuids</code> which uses the vCenter session saved in a file, if it
+     * is still logged in, instead of logging in. A short-lived program run from a script then
+     * spends about a tenth of the time connecting.
+     *
+     * @param serverName
+     *            the name or IP address of the vCenter server to connect to, or the full URL of
+     *            its web services endpoint
+     * @param userName
+     *            the user's name to login as
+     * @param password
+     *            the user's password
+     * @param cacheSize
+     *            the number of VM names whose MoRef and UUID are kept
+     * @param cacheTimeToLiveMillis
+     *            how long a cached MoRef and UUID are used for, in milliseconds
+     * @param sessionFile
+     *            the file the session is saved in, or null to log in and out every time
+     */
+    public Uuids(String serverName, String userName, String password, int cacheSize,
+            long cacheTimeToLiveMillis, java.io.File sessionFile) throws Exception {
+        this.sessionFile = sessionFile;
+        cache = new com.vmware.utils.ExpiringLruCache<String, CachedVm>(cacheSize,
+                cacheTimeToLiveMillis);
+        String url = serverName.contains("://") ? serverName : "https://" + serverName
+                + "/sdk/vimService";
 
         // Set up the manufactured managed object reference for the ServiceInstance
         ManagedObjectReference serviceInstanceMOR = new ManagedObjectReference();
@@ -89,18 +166,43 @@ public class Uuids {
         // the Server will start a new session with each request.
         ctxt.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, url);
         ctxt.put(BindingProvider.SESSION_MAINTAIN_PROPERTY, true);
+        // Ask for gzip compressed responses, keep the HTTP connection open between calls, and
+        // do not wait for ever for a server which can not be reached.
+        new com.vmware.utils.ConnectionOptions().apply(vimPort);
+        // Use the saved session if it is still logged in: CurrentTime fails if it is not.
+        com.vmware.utils.SavedSession saved = sessionFile != null ? com.vmware.utils.SavedSession
+                .load(sessionFile) : null;
+        if (saved != null && saved.isFor(url, userName)) {
+            com.vmware.utils.SavedSession.setSessionCookie(vimPort, saved.getCookie());
+            try {
+                vimPort.currentTime(serviceInstanceMOR);
+                serviceContent = saved.getServiceContent();
+                return;
+            } catch (Exception e) {
+                com.vmware.utils.SavedSession.setSessionCookie(vimPort, null);
+            }
+        }
+
         // Retrieve the ServiceContent object and login
         serviceContent = vimPort.retrieveServiceContent(serviceInstanceMOR);
         vimPort.login(serviceContent.getSessionManager(), userName, password, null);
+        String cookie = com.vmware.utils.SavedSession.getSessionCookie(vimPort);
+        if (sessionFile != null && cookie != null) {
+            new com.vmware.utils.SavedSession(url, userName, cookie, serviceContent)
+                    .save(sessionFile);
+        }
     }
 
     /**
      * Logs out automatically when Uuids object goes out of scope, and can not be used anymore. This
      * is not recommended for production code, because you can not prodict exactly when the Java
-     * runtime will execute this call. But for sample code it does not really matter.
+     * runtime will execute this call. But for sample code it does not really matter. A session
+     * saved to a file is left logged in, for the next run to use.
      */
     protected void finalize() throws Throwable {
-        vimPort.logout(serviceContent.getSessionManager());
+        if (sessionFile == null) {
+            vimPort.logout(serviceContent.getSessionManager());
+        }
     }
 
     /**
@@ -121,30 +223,135 @@ public class Uuids {
      *         and letters will be lower case).
      */
     public String getUuid(String virtualMachineName) throws Exception {
-        String returnValue = null;
-        // If this object doesn't have objectContents set already, then get it set.
-        // In the future we will need the "summary.config.instanceUuid" property set, so we specify
-        // it here.
-        if (objectContents == null) {
-            com.vmware.vim25.PropertySpec neededProperties = com.vmware.utils.ObjectUtils
-                    .createPropertySpec("VirtualMachine", "name", "summary.config.instanceUuid");
-
-            objectContents = com.vmware.utils.FindObjects.findObject(vimPort, serviceContent,
-                    neededProperties, virtualMachineName);
-            virtualMachine = objectContents.getObj();
-        }
-        if (objectContents == null) {
+        UuidResults results = getUuids(java.util.Collections.singleton(virtualMachineName));
+        String returnValue = results.getUuids().get(virtualMachineName);
+        if (returnValue == null) {
             returnValue = "Did not find a VirtualMachine named " + virtualMachineName
                     + ", so nothing was done.";
-        } else {
-            //
-            returnValue = com.vmware.utils.ObjectUtils.getPropertyValue(objectContents,
-                    "summary.config.instanceUuid");
         }
         // System.out.printf("Got: %s%n",returnValue);
         return returnValue;
     }
 
+    /**
+     * Returns the UUIDs for many virtual machines at once. Names in the cache are answered from
+     * it. For the others, the name and instance UUID of the VirtualMachines are read in one paged
+     * retrieval, which stops as soon as every name has been found, so this costs the same as one
+     * call to getUuid no matter how many names are given. If two VMs have the same name, the first
+     * one found is used. The VMs found are added to the cache; names which were not found are not
+     * cached, so a VM created later is found.
+     *
+     * @param virtualMachineNames
+     *            the names of the VMs
+     * @return the UUIDs of the VMs which were found, and the names which were not.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public UuidResults getUuids(java.util.Collection<String> virtualMachineNames)
+            throws Exception {
+        final UuidResults results = new UuidResults();
+        for (String name : virtualMachineNames) {
+            CachedVm cached = cache.get(name);
+            if (cached != null) {
+                results.uuids.put(name, cached.instanceUuid);
+                results.moRefs.put(name, cached.moRef);
+            } else {
+                results.notFound.add(name);
+            }
+        }
+        if (results.notFound.isEmpty()) {
+            return results;
+        }
+
+        com.vmware.utils.FindObjects.findAllObjects(vimPort, serviceContent,
+                com.vmware.utils.FindObjects.DEFAULT_PAGE_SIZE,
+                new com.vmware.utils.ObjectContentHandler() {
+                    public boolean handlePage(java.util.List<ObjectContent> page) {
+                        for (com.vmware.vim25.ObjectContent oc : page) {
+                            String name = com.vmware.utils.ObjectUtils.getPropertyValue(oc, "name");
+                            if (name != null && results.notFound.remove(name)) {
+                                String uuid = com.vmware.utils.ObjectUtils.getPropertyValue(oc,
+                                        "summary.config.instanceUuid");
+                                results.uuids.put(name, uuid);
+                                results.moRefs.put(name, oc.getObj());
+                                cache.put(name, new CachedVm(oc.getObj(), uuid));
+                            }
+                        }
+                        // Stop reading pages once every name has been found.
+                        return !results.notFound.isEmpty();
+                    }
+                }, "VirtualMachine", "name", "summary.config.instanceUuid");
+        return results;
+    }
+
+    /**
+     * Returns the virtual machines with a given UUID. This is the reverse of getUuid: the lookup
+     * is done by the server's SearchIndex, so no VM names are read.
+     *
+     * @param uuid
+     *            the UUID to look for
+     * @param instanceUuid
+     *            true if the UUID is an instance UUID (as returned by getUuid), false if it is a
+     *            BIOS UUID
+     * @return the VMs with the UUID, or an empty list if there are none.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public java.util.List<ManagedObjectReference> getVirtualMachines(String uuid,
+            boolean instanceUuid) throws Exception {
+        return com.vmware.utils.FindObjects.findVirtualMachinesByUuid(vimPort, serviceContent,
+                uuid, instanceUuid);
+    }
+
+    /**
+     * Returns the virtual machines with each of many UUIDs.
+     *
+     * @param uuids
+     *            the UUIDs to look for
+     * @param instanceUuid
+     *            true if the UUIDs are instance UUIDs, false if they are BIOS UUIDs
+     * @return the VMs with each UUID, in the order given. A UUID with no VM maps to an empty list.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public Map<String, java.util.List<ManagedObjectReference>> getVirtualMachines(
+            java.util.Collection<String> uuids, boolean instanceUuid) throws Exception {
+        return com.vmware.utils.FindObjects.findVirtualMachinesByUuid(vimPort, serviceContent,
+                uuids, instanceUuid);
+    }
+
+    /**
+     * The result of getUuids: the instance UUID and MoRef of each VM found, by name, and the names
+     * which were not found.
+     */
+    public static class UuidResults {
+        private final Map<String, String> uuids = new java.util.LinkedHashMap<String, String>();
+        private final Map<String, ManagedObjectReference> moRefs =
+                new java.util.LinkedHashMap<String, ManagedObjectReference>();
+        private final java.util.Set<String> notFound = new java.util.LinkedHashSet<String>();
+
+        /**
+         * Returns the instance UUID of each VM found, by name.
+         */
+        public Map<String, String> getUuids() {
+            return uuids;
+        }
+
+        /**
+         * Returns the Managed Object Reference of each VM found, by name.
+         */
+        public Map<String, ManagedObjectReference> getMoRefs() {
+            return moRefs;
+        }
+
+        /**
+         * Returns the names for which no VM was found.
+         */
+        public java.util.Set<String> getNotFound() {
+            return notFound;
+        }
+    }
+
     /**
      * Returns a string representation of a VM as found in the ManagedObjectReference.
      *
@@ -155,26 +362,21 @@ public class Uuids {
      *             if an exception occurred
      */
     public String getMoRefString(String virtualMachineName) throws Exception {
-        String returnValue = null;
-        // If this object doesn't have objectContents set already, then get it set.
-        // In the future we will need the "summary.config.instanceUuid" property set, so we specify
-        // it here.
-        if (objectContents == null) {
-            PropertySpec neededProperties = com.vmware.utils.ObjectUtils.createPropertySpec(
-                    "VirtualMachine", "name", "summary.config.instanceUuid");
-
-            objectContents = com.vmware.utils.FindObjects.findObject(vimPort, serviceContent,
-                    neededProperties, virtualMachineName);
-            virtualMachine = objectContents.getObj();
-        }
-        if (objectContents == null) {
-            returnValue = "Did not find a VirtualMachine named " + virtualMachineName
+        // The same lookup as getUuid, so whichever is called second is answered from the cache.
+        UuidResults results = getUuids(java.util.Collections.singleton(virtualMachineName));
+        ManagedObjectReference virtualMachineMOR = results.getMoRefs().get(virtualMachineName);
+        if (virtualMachineMOR == null) {
+            return "Did not find a VirtualMachine named " + virtualMachineName
                     + ", so nothing was done.";
-        } else {
-            returnValue = virtualMachine.getType() + "-" + virtualMachine.getValue();
         }
+        return virtualMachineMOR.getType() + "-" + virtualMachineMOR.getValue();
+    }
 
-        return returnValue;
+    /**
+     * Forgets the cached MoRefs and UUIDs, so the next calls look every VM up on the server.
+     */
+    public void clearCache() {
+        cache.clear();
     }
 
     /**
@@ -184,6 +386,10 @@ public class Uuids {
      * Run with a command similar to this:<br>
      * <code>java -cp vim25.jar com.vmware.general.Uuids <i>ip_or_name</i> <i>user</i> <i>password</i> <i>vm_name</i></code><br>
      * <code>java -cp vim25.jar com.vmware.general.Uuids 10.20.30.40 JoeUser JoePasswd myvm</code>
+     * <p>
+     * To use the same vCenter session from one run to the next, instead of logging in every time,
+     * name a file to save it in with the system property uuids.sessionFile:<br>
+     * <code>java -Duuids.sessionFile=/home/joe/.uuids-session -cp vim25.jar com.vmware.general.Uuids 10.20.30.40 JoeUser JoePasswd myvm</code>
      *
      * @param args
      *            the ip_or_name, user, password, and virtuall machine name
@@ -213,7 +419,11 @@ public class Uuids {
 
         // Create a new Uuids object, which includes a connection to vCenter.
         // The arguments all have to do with setting up that connection.
-        Uuids uuids = new Uuids(serverName, userName, password);
+        // If a session file is named, the session is saved in it and used again next time.
+        String sessionFileName = System.getProperty("uuids.sessionFile");
+        Uuids uuids = new Uuids(serverName, userName, password, DEFAULT_CACHE_SIZE,
+                DEFAULT_CACHE_TIME_TO_LIVE_MILLIS, sessionFileName != null ? new java.io.File(
+                        sessionFileName) : null);
 
         // Print out UUID data from the object
         System.out.printf("Name: %s%n", virtualMachineName);
@@ -0,0 +1,445 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.sample;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/*
+ * Coding Conventions Used Here:
+ * 1. The connection to vCenter is managed by the VMwareConnection class.
+ * 2. Many methods are listed as "throws Exception" which means that the exceptions are ignored
+ *    and printed out at the call stack.  If used in real development, exceptions should be caught
+ *    and recovered from.
+ *
+ * Also: Full path names are used for all java classes when they are first used (for declarations
+ * or to call static methods).  This makes it easier to find their source code, so you can understand
+ * it.  For example "com.vmware.utils.VMwareConnection conn" rather than "VMwareConnection conn".
+ */
+
+/**
+ * Answers the questions Uuids answers, but as a long-running server instead of a program run for
+ * each question. Uuids starts a JVM, logs in and searches the inventory every time it runs; this
+ * does all that once, keeps the names and UUIDs of all VMs in an InventoryMirror which vCenter
+ * keeps up to date, and answers each question from memory over HTTP.
+ * <P>
+ * The server only listens on the loopback address, so only programs on the same machine can ask
+ * it. It also refuses (with 403) any request whose Host header is not localhost, 127.0.0.1 or
+ * [::1] with the server's port, so a web page which has pointed its own host name at 127.0.0.1
+ * (DNS rebinding) cannot read the inventory through the browser. It answers in JSON:
+ * <UL>
+ * <LI>GET /uuid?name=<i>vm_name</i> returns the VMs with the name, and their UUIDs.
+ * <LI>GET /vm?uuid=<i>uuid</i> returns the VMs with the instance UUID; add &amp;bios=true to look
+ * for a BIOS UUID instead.
+ * <LI>POST /uuid and POST /vm do the same for many names or UUIDs at once, one per line of the
+ * request body, and return an object with an entry for each. A body of more than
+ * MAX_REQUEST_LINES lines or MAX_REQUEST_BYTES bytes is refused with 413.
+ * <LI>GET /status returns the number of VMs and whether the mirror is being kept up to date.
+ * </UL>
+ * For example, <code>curl 'http://localhost:8087/uuid?name=vm1'</code> returns:<br>
+ * <code>{"name":"vm1","vms":[{"moRef":"VirtualMachine-vm-12","name":"vm1",
+ * "instanceUuid":"52f7b088-357e-bb81-59ec-9d9389c7d89e","biosUuid":"4226...",
+ * "vCenterInstanceUuid":"A7B9E382-060E-4A02-8970-148D6822A1DA"}]}</code>
+ */
+public class UuidsServer {
+
+    /**
+     * The port the server listens on, unless another is given.
+     */
+    public static final int DEFAULT_PORT = 8087;
+
+    /**
+     * The largest POST body accepted, in bytes. A larger one is refused with 413.
+     */
+    public static final int MAX_REQUEST_BYTES = 1024 * 1024;
+
+    /**
+     * The largest number of names or UUIDs accepted in one POST. More are refused with 413.
+     */
+    public static final int MAX_REQUEST_LINES = 10000;
+
+    static {
+        // With only a few threads, a client which sends its request slowly must not hold one for
+        // ever. The JDK reads this once, so set it early; a value given on the command line wins.
+        if (System.getProperty("sun.net.httpserver.maxReqTime") == null) {
+            System.setProperty("sun.net.httpserver.maxReqTime", "30");
+        }
+    }
+
+    private static final String NAME = "name";
+    private static final String INSTANCE_UUID = "summary.config.instanceUuid";
+    private static final String BIOS_UUID = "summary.config.uuid";
+
+    private final com.vmware.utils.InventoryMirror mirror;
+    private final String vCenterInstanceUuid;
+    private com.sun.net.httpserver.HttpServer httpServer;
+
+    /**
+     * Creates a server which answers from a connection to vCenter. Nothing is read from vCenter
+     * until start() is called.
+     *
+     * @param conn
+     *            the connection to vCenter, used only by this server
+     */
+    public UuidsServer(com.vmware.utils.VMwareConnection conn) {
+        this.mirror = new com.vmware.utils.InventoryMirror(conn.getVimPort(),
+                conn.getServiceContent(), "VirtualMachine", NAME, INSTANCE_UUID, BIOS_UUID);
+        this.vCenterInstanceUuid = conn.getServiceContent().getAbout().getInstanceUuid();
+    }
+
+    /**
+     * Loads the names and UUIDs of all VMs, starts keeping them up to date, and starts answering
+     * on the port given.
+     *
+     * @param port
+     *            the port to listen on, on the loopback address
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public void start(int port) throws Exception {
+        mirror.start();
+        mirror.startBackgroundUpdates(60);
+
+        httpServer = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress(
+                java.net.InetAddress.getLoopbackAddress(), port), 0);
+        final List<String> allowedHosts = getAllowedHosts(httpServer.getAddress().getPort());
+        Filter hostCheck = new Filter() {
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                String host = exchange.getRequestHeaders().getFirst("Host");
+                if (host == null || !allowedHosts.contains(host.toLowerCase())) {
+                    send(exchange, 403, error("The Host header must name this machine."));
+                    return;
+                }
+                chain.doFilter(exchange);
+            }
+
+            public String description() {
+                return "Refuses requests whose Host header is not the loopback address.";
+            }
+        };
+        httpServer.createContext("/uuid", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                answer(exchange, "name", false);
+            }
+        }).getFilters().add(hostCheck);
+        httpServer.createContext("/vm", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                answer(exchange, "uuid", "true".equals(getParameter(exchange, "bios")));
+            }
+        }).getFilters().add(hostCheck);
+        httpServer.createContext("/status", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                Exception updateException = mirror.getLastUpdateException();
+                StringBuilder json = new StringBuilder("{\"vms\":").append(mirror.size());
+                json.append(",\"version\":");
+                appendString(json, mirror.getVersion());
+                json.append(",\"lastUpdateError\":");
+                appendString(json, updateException == null ? null : updateException.toString());
+                json.append('}');
+                send(exchange, 200, json);
+            }
+        }).getFilters().add(hostCheck);
+        // The questions are answered from memory, so a few threads are plenty.
+        httpServer.setExecutor(java.util.concurrent.Executors.newFixedThreadPool(4));
+        httpServer.start();
+    }
+
+    /**
+     * Returns the values of the Host header a request to this server may have, in lower case.
+     */
+    private static List<String> getAllowedHosts(int port) {
+        List<String> hosts = new ArrayList<String>(Arrays.asList("localhost:" + port, "127.0.0.1:"
+                + port, "[::1]:" + port));
+        if (port == 80) {
+            hosts.addAll(Arrays.asList("localhost", "127.0.0.1", "[::1]"));
+        }
+        return hosts;
+    }
+
+    /**
+     * Stops answering, and stops keeping the mirror up to date. The connection is not closed.
+     *
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public void stop() throws Exception {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            ((java.util.concurrent.ExecutorService) httpServer.getExecutor()).shutdown();
+            httpServer = null;
+        }
+        mirror.close();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     */
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Answers GET /uuid and /vm for the parameter given, or POST for each line of the body.
+     */
+    private void answer(HttpExchange exchange, String parameter, boolean bios) throws IOException {
+        try {
+            StringBuilder json = new StringBuilder();
+            if ("GET".equals(exchange.getRequestMethod())) {
+                String key = getParameter(exchange, parameter);
+                if (key == null) {
+                    send(exchange, 400, error("The " + parameter + " parameter is missing."));
+                    return;
+                }
+                json.append("{\"").append(parameter).append("\":");
+                appendString(json, key);
+                json.append(",\"vms\":");
+                appendVms(json, find(parameter, key, bios));
+                json.append('}');
+            } else if ("POST".equals(exchange.getRequestMethod())) {
+                // Each line is looked up; the answer has an entry for each, in the same order.
+                json.append('{');
+                List<String> keys = readLines(exchange);
+                if (keys == null) {
+                    send(exchange, 413, error("The request may have at most " + MAX_REQUEST_LINES
+                            + " lines and " + MAX_REQUEST_BYTES + " bytes."));
+                    return;
+                }
+                for (String key : keys) {
+                    if (json.length() > 1) {
+                        json.append(',');
+                    }
+                    appendString(json, key);
+                    json.append(':');
+                    appendVms(json, find(parameter, key, bios));
+                }
+                json.append('}');
+            } else {
+                send(exchange, 405, error("Only GET and POST are supported."));
+                return;
+            }
+            send(exchange, 200, json);
+        } catch (RuntimeException e) {
+            send(exchange, 500, error(e.toString()));
+        }
+    }
+
+    private List<com.vmware.utils.InventoryMirror.MirroredObject> find(String parameter,
+            String key, boolean bios) {
+        if ("name".equals(parameter)) {
+            return mirror.findByName(key);
+        }
+        // vCenter reports UUIDs in lower case, with hyphens.
+        String property = bios ? BIOS_UUID : INSTANCE_UUID;
+        if (com.vmware.utils.Uuid.isValid(key)) {
+            List<com.vmware.utils.InventoryMirror.MirroredObject> found = mirror.findByProperty(
+                    property, com.vmware.utils.Uuid.parse(key).toString());
+            if (!found.isEmpty()) {
+                return found;
+            }
+        }
+        return mirror.findByProperty(property, key);
+    }
+
+    private void appendVms(StringBuilder json,
+            List<com.vmware.utils.InventoryMirror.MirroredObject> vms) {
+        json.append('[');
+        for (int i = 0; i < vms.size(); i++) {
+            com.vmware.utils.InventoryMirror.MirroredObject vm = vms.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"moRef\":");
+            appendString(json, vm.getObj().getType() + "-" + vm.getObj().getValue());
+            json.append(",\"name\":");
+            appendString(json, vm.getPropertyValue(NAME));
+            json.append(",\"instanceUuid\":");
+            appendString(json, vm.getPropertyValue(INSTANCE_UUID));
+            json.append(",\"biosUuid\":");
+            appendString(json, vm.getPropertyValue(BIOS_UUID));
+            json.append(",\"vCenterInstanceUuid\":");
+            appendString(json, vCenterInstanceUuid);
+            json.append('}');
+        }
+        json.append(']');
+    }
+
+    private static StringBuilder error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        return json.append('}');
+    }
+
+    /**
+     * Appends a JSON string, or null.
+     */
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static String getParameter(HttpExchange exchange, String name) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                return URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the non-empty lines of the request body, or returns null if the body is larger than
+     * MAX_REQUEST_BYTES or has more than MAX_REQUEST_LINES lines. No more than the limit is read.
+     */
+    private static List<String> readLines(HttpExchange exchange) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength.trim()) > MAX_REQUEST_BYTES) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        // The header may be missing (chunked) or wrong, so count what is read as well.
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            if (body.size() + read > MAX_REQUEST_BYTES) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(body.toByteArray()), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() > 0) {
+                if (lines.size() == MAX_REQUEST_LINES) {
+                    return null;
+                }
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static void send(HttpExchange exchange, int status, CharSequence json)
+            throws IOException {
+        byte[] body = json.toString().getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Runs the server until the process is stopped.
+     *
+     * <p>
+     * Run with a command similar to this:<br>
+     * <code>java -cp vim25.jar com.vmware.sample.UuidsServer <i>ip_or_name</i> <i>user</i> <i>password</i> [<i>port</i>]</code><br>
+     * <code>java -cp vim25.jar com.vmware.sample.UuidsServer 10.20.30.40 JoeUser JoePasswd 8087</code>
+     *
+     * @param args
+     *            the ip_or_name, user, password, and optionally the port to listen on
+     * @throws Exception
+     *             if an exception occurred
+     *
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Wrong number of arguments, must provide three or four arguments:");
+            System.out.println("[1] The server name or IP address");
+            System.out.println("[2] The user name to log in as");
+            System.out.println("[3] The password to use");
+            System.out.println("[4] The port to listen on (optional, " + DEFAULT_PORT + ")");
+            System.exit(1);
+        }
+
+        // arglist variables
+        String serverName = args[0];
+        String userName = args[1];
+        String password = args[2];
+        int port = args.length == 4 ? Integer.parseInt(args[3]) : DEFAULT_PORT;
+
+        final com.vmware.utils.VMwareConnection conn = new com.vmware.utils.VMwareConnection(
+                serverName, userName, password);
+        final UuidsServer server = new UuidsServer(conn);
+        server.start(port);
+        System.out.printf("Answering for %d VMs on http://localhost:%d/%n", server.mirror.size(),
+                server.getPort());
+
+        // Tidy up on the server when the process is stopped.
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                try {
+                    server.stop();
+                    conn.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+}
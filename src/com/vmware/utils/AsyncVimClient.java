@@ -0,0 +1,417 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.UserSession;
+import com.vmware.vim25.WaitOptions;
+
+/**
+ * Makes the calls com.vmware.utils depends on most (RetrievePropertiesEx and the rest of the
+ * PropertyCollector, CreateContainerView and Login) with java.net.http.HttpClient instead of
+ * JAX-WS, and returns a CompletableFuture instead of blocking. JAX-WS holds a thread for every
+ * call in flight; here the calls wait without threads, and a thread is only used to decode each
+ * response, so one JVM can have hundreds of calls in flight to many vCenters at once.
+ * <P>
+ * The methods have the names and parameters of the VimPortType methods they stand in for. Each
+ * response is read in full before it is decoded, so use small pages, or StreamingRetriever for
+ * very large ones. A fault completes the future with a VimFaultException. The HttpClient keeps a
+ * pool of HTTP/1.1 connections to each server.
+ * <P>
+ * The client needs Java 11 or later. It uses the SSLContext of its HttpClient, so to connect to a
+ * server with a certificate the JVM does not trust, pass an HttpClient built with an SSLContext
+ * which does. The HttpClient runs its work, such as decoding the responses, on its executor; one
+ * the client creates has a fixed number of daemon threads, where the default of HttpClient would
+ * start a thread for every response which arrives while the others are busy.
+ * <P>
+ * Example of use:<br><code>
+ *     AsyncVimClient client = new AsyncVimClient(url, "5.5", new ConnectionOptions());<br>
+ *     client.setSessionCookie(conn.getSessionCookie());<br>
+ *     CompletableFuture&lt;RetrieveResult&gt; page = client.retrievePropertiesEx(propColl, specSet, options);<br>
+ * </code>
+ */
+public class AsyncVimClient {
+
+    private final HttpClient httpClient;
+    private final URI uri;
+    private final String soapAction;
+    private final ConnectionOptions options;
+    private volatile String sessionCookie;
+
+    // Decodes the returnval of a response; the reader is on its start element.
+    private interface Decoder<T> {
+        T decode(XMLStreamReader reader) throws Exception;
+    }
+
+    private static final Decoder<Void> NO_RESULT = new Decoder<Void>() {
+        public Void decode(XMLStreamReader reader) {
+            return null;
+        }
+    };
+
+    private static final Decoder<ManagedObjectReference> MOREF_RESULT =
+            new Decoder<ManagedObjectReference>() {
+                public ManagedObjectReference decode(XMLStreamReader reader) throws Exception {
+                    return SoapMessages.readMoRef(reader);
+                }
+            };
+
+    private static final Decoder<RetrieveResult> RETRIEVE_RESULT = new Decoder<RetrieveResult>() {
+        public RetrieveResult decode(XMLStreamReader reader) throws Exception {
+            RetrieveResult result = new RetrieveResult();
+            reader.next();
+            while (SoapMessages.toTag(reader)) {
+                if ("token".equals(reader.getLocalName())) {
+                    result.setToken(SoapMessages.readText(reader));
+                } else if ("objects".equals(reader.getLocalName())) {
+                    result.getObjects().add(SoapMessages.readObject(reader, null));
+                } else {
+                    SoapMessages.skip(reader);
+                }
+            }
+            return result;
+        }
+    };
+
+    /**
+     * Creates a client with an HttpClient of its own, with the connect timeout of the options, and
+     * a thread for each processor to decode the responses.
+     *
+     * @param url
+     *            the URL of the web services endpoint of the server
+     * @param apiVersion
+     *            the API version to call, such as "5.5"
+     * @param options
+     *            the compression and timeout settings; keep-alive is always on
+     */
+    public AsyncVimClient(String url, String apiVersion, ConnectionOptions options) {
+        this(url, apiVersion, options, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a client with an HttpClient of its own, with the connect timeout of the options, and
+     * no more than maxThreads threads to decode the responses.
+     *
+     * @param url
+     *            the URL of the web services endpoint of the server
+     * @param apiVersion
+     *            the API version to call, such as "5.5"
+     * @param options
+     *            the compression and timeout settings; keep-alive is always on
+     * @param maxThreads
+     *            the most threads the HttpClient runs its work on
+     */
+    public AsyncVimClient(String url, String apiVersion, ConnectionOptions options,
+            int maxThreads) {
+        this(url, apiVersion, options, createHttpClient(options, maxThreads));
+    }
+
+    /**
+     * Creates a client which uses an HttpClient the caller has built, for example with its own
+     * SSLContext. Many clients, for many servers, can share one HttpClient. Build it with a
+     * bounded executor, such as one from VirtualThreads.newPlatformThreadExecutor, because without
+     * one the HttpClient starts as many threads as it has responses to decode at once.
+     *
+     * @param url
+     *            the URL of the web services endpoint of the server
+     * @param apiVersion
+     *            the API version to call, such as "5.5"
+     * @param options
+     *            the compression and read timeout settings
+     * @param httpClient
+     *            the HttpClient to make the calls with
+     */
+    public AsyncVimClient(String url, String apiVersion, ConnectionOptions options,
+            HttpClient httpClient) {
+        this.uri = URI.create(url);
+        this.soapAction = "urn:vim25/" + apiVersion;
+        this.options = options;
+        this.httpClient = httpClient;
+    }
+
+    private static HttpClient createHttpClient(ConnectionOptions options, int maxThreads) {
+        HttpClient.Builder builder = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .executor(VirtualThreads.newPlatformThreadExecutor("AsyncVimClient", maxThreads));
+        if (options.getConnectTimeout() > 0) {
+            builder.connectTimeout(Duration.ofMillis(options.getConnectTimeout()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Sets the session cookie sent with every call, for example from
+     * VMwareConnection.getSessionCookie(), to make the calls in that session. login() sets it.
+     */
+    public void setSessionCookie(String sessionCookie) {
+        this.sessionCookie = sessionCookie;
+    }
+
+    /**
+     * Returns the session cookie sent with every call, or null if there is none.
+     */
+    public String getSessionCookie() {
+        return sessionCookie;
+    }
+
+    /**
+     * Returns the ServiceContent, which may be retrieved before logging in.
+     */
+    public CompletableFuture<ServiceContent> retrieveServiceContent() {
+        return call("RetrieveServiceContent", ObjectUtils.createMoRef("ServiceInstance",
+                "ServiceInstance"), null, new Decoder<ServiceContent>() {
+                    public ServiceContent decode(XMLStreamReader reader) throws Exception {
+                        return SoapMessages.unmarshal(reader, ServiceContent.class);
+                    }
+                });
+    }
+
+    /**
+     * Logs in, and keeps the session cookie the server returns for the calls after.
+     */
+    public CompletableFuture<UserSession> login(ManagedObjectReference sessionManager,
+            final String userName, final String password, final String locale) {
+        return call("Login", sessionManager, new Body() {
+            public void write(XMLStreamWriter writer) throws XMLStreamException {
+                SoapMessages.writeElement(writer, "userName", userName);
+                SoapMessages.writeElement(writer, "password", password);
+                SoapMessages.writeElement(writer, "locale", locale);
+            }
+        }, new Decoder<UserSession>() {
+            public UserSession decode(XMLStreamReader reader) throws Exception {
+                return SoapMessages.unmarshal(reader, UserSession.class);
+            }
+        });
+    }
+
+    /**
+     * Logs out of the session.
+     */
+    public CompletableFuture<Void> logout(ManagedObjectReference sessionManager) {
+        return call("Logout", sessionManager, null, NO_RESULT);
+    }
+
+    /**
+     * Creates a ContainerView. Destroy it with destroyView when done.
+     */
+    public CompletableFuture<ManagedObjectReference> createContainerView(
+            ManagedObjectReference viewManager, final ManagedObjectReference container,
+            final List<String> type, final boolean recursive) {
+        return call("CreateContainerView", viewManager, new Body() {
+            public void write(XMLStreamWriter writer) throws XMLStreamException {
+                SoapMessages.writeMoRef(writer, "container", container);
+                for (String t : type) {
+                    SoapMessages.writeElement(writer, "type", t);
+                }
+                SoapMessages.writeElement(writer, "recursive", recursive);
+            }
+        }, MOREF_RESULT);
+    }
+
+    /**
+     * Destroys a view.
+     */
+    public CompletableFuture<Void> destroyView(ManagedObjectReference view) {
+        return call("DestroyView", view, null, NO_RESULT);
+    }
+
+    /**
+     * Retrieves the first page of the objects and properties the specs select. The result is
+     * null if nothing was found; if it has a token, get the next page with
+     * continueRetrievePropertiesEx. The retrieveOptions may be null, as with VimPortType, for the
+     * server's own page size.
+     */
+    public CompletableFuture<RetrieveResult> retrievePropertiesEx(ManagedObjectReference propColl,
+            List<PropertyFilterSpec> specSet, RetrieveOptions retrieveOptions) {
+        try {
+            return send(SoapMessages.createRetrieveRequest(propColl, specSet,
+                    retrieveOptions == null ? null : retrieveOptions.getMaxObjects()),
+                    RETRIEVE_RESULT);
+        } catch (XMLStreamException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Retrieves the next page of a result.
+     */
+    public CompletableFuture<RetrieveResult> continueRetrievePropertiesEx(
+            ManagedObjectReference propColl, String token) {
+        try {
+            return send(SoapMessages.createTokenRequest("ContinueRetrievePropertiesEx", propColl,
+                    token), RETRIEVE_RESULT);
+        } catch (XMLStreamException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Discards the rest of a result which will not be read.
+     */
+    public CompletableFuture<Void> cancelRetrievePropertiesEx(ManagedObjectReference propColl,
+            String token) {
+        try {
+            return send(SoapMessages.createTokenRequest("CancelRetrievePropertiesEx", propColl,
+                    token), NO_RESULT);
+        } catch (XMLStreamException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Waits for changes to the objects of the filters of a PropertyCollector, as
+     * VimPortType.waitForUpdatesEx does. The fault type InvalidCollectorVersion means the version
+     * is too old, and the full state must be read again with an empty version.
+     */
+    public CompletableFuture<UpdateSet> waitForUpdatesEx(ManagedObjectReference propColl,
+            final String version, final WaitOptions waitOptions) {
+        return call("WaitForUpdatesEx", propColl, new Body() {
+            public void write(XMLStreamWriter writer) throws XMLStreamException {
+                SoapMessages.writeElement(writer, "version", version);
+                if (waitOptions != null) {
+                    writer.writeStartElement("options");
+                    SoapMessages.writeElement(writer, "maxWaitSeconds", waitOptions
+                            .getMaxWaitSeconds());
+                    SoapMessages.writeElement(writer, "maxObjectUpdates", waitOptions
+                            .getMaxObjectUpdates());
+                    writer.writeEndElement();
+                }
+            }
+        }, new Decoder<UpdateSet>() {
+            public UpdateSet decode(XMLStreamReader reader) throws Exception {
+                return SoapMessages.unmarshal(reader, UpdateSet.class);
+            }
+        });
+    }
+
+    // Writes the parameters of a call after _this.
+    private interface Body {
+        void write(XMLStreamWriter writer) throws XMLStreamException;
+    }
+
+    private <T> CompletableFuture<T> call(String method, ManagedObjectReference _this,
+            Body body, Decoder<T> decoder) {
+        try {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            XMLStreamWriter writer = SoapMessages.startRequest(request, method, _this);
+            if (body != null) {
+                body.write(writer);
+            }
+            return send(SoapMessages.endRequest(writer, request), decoder);
+        } catch (XMLStreamException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private <T> CompletableFuture<T> send(byte[] request, final Decoder<T> decoder) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(request))
+                .header("Content-Type", "text/xml; charset=utf-8")
+                .header("SOAPAction", soapAction);
+        if (options.isCompression()) {
+            builder.header("Accept-Encoding", "gzip");
+        }
+        if (options.getReadTimeout() > 0) {
+            builder.timeout(Duration.ofMillis(options.getReadTimeout()));
+        }
+        String cookie = sessionCookie;
+        if (cookie != null) {
+            builder.header("Cookie", cookie);
+        }
+        return httpClient.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(new Function<HttpResponse<byte[]>, T>() {
+                    public T apply(HttpResponse<byte[]> response) {
+                        try {
+                            return decode(response, decoder);
+                        } catch (RuntimeException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                    }
+                });
+    }
+
+    private <T> T decode(HttpResponse<byte[]> response, Decoder<T> decoder) throws Exception {
+        // A fault comes with status 500.
+        if (response.statusCode() != 200 && response.statusCode() != 500) {
+            throw new IOException("HTTP " + response.statusCode() + " from " + uri);
+        }
+        String cookie = SavedSession.findSessionCookie(response.headers().allValues(
+                "Set-Cookie"));
+        if (cookie != null) {
+            sessionCookie = cookie;
+        }
+        InputStream in = new ByteArrayInputStream(response.body());
+        if ("gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding")
+                .orElse(null))) {
+            in = new GZIPInputStream(in, 64 * 1024);
+        }
+        XMLStreamReader reader = SoapMessages.createReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (!reader.isStartElement()) {
+                    reader.next();
+                } else if ("Fault".equals(reader.getLocalName())
+                        && SoapMessages.SOAP_NS.equals(reader.getNamespaceURI())) {
+                    throw SoapMessages.readFault(reader);
+                } else if ("returnval".equals(reader.getLocalName())) {
+                    return decoder.decode(reader);
+                } else {
+                    // The Envelope, Body and response elements.
+                    reader.next();
+                }
+            }
+            if (response.statusCode() != 200) {
+                // A 500 with no SOAP fault in it, such as an error page from a proxy, must not
+                // look like an empty result.
+                throw new IOException("HTTP " + response.statusCode() + " with no SOAP fault from "
+                        + uri);
+            }
+            // A method with no result, or a RetrievePropertiesEx which found nothing.
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+}
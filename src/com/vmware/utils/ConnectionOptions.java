@@ -0,0 +1,212 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.MessageContext;
+
+/**
+ * The HTTP settings of a connection to vCenter: compression, persistent connections and
+ * timeouts. By default JAX-WS asks for no compression and waits for ever, and PropertyCollector
+ * responses are XML which gzip makes ten or more times smaller, so on a slow network a large
+ * retrieval spends most of its time in transfer.
+ * <P>
+ * apply() puts the settings in the request context of a VimPortType, where the JAX-WS runtime
+ * reads them. The runtime decompresses gzip responses itself. The timeout properties are those of
+ * the JAX-WS reference implementation, both the standalone one and the copy in the JDK.
+ * <P>
+ * Example of use:<br><code>
+ *     ConnectionOptions options = new ConnectionOptions();<br>
+ *     options.setReadTimeout(10 * 60 * 1000);<br>
+ *     VMwareConnection conn = new VMwareConnection(serverName, userName, password, null, options);<br>
+ * </code>
+ */
+public class ConnectionOptions {
+
+    /**
+     * How long to wait for a connection to be made, in milliseconds, unless setConnectTimeout is
+     * called.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final String[] CONNECT_TIMEOUT_PROPERTIES = {
+            "com.sun.xml.ws.connect.timeout", "com.sun.xml.internal.ws.connect.timeout" };
+    private static final String[] REQUEST_TIMEOUT_PROPERTIES = {
+            "com.sun.xml.ws.request.timeout", "com.sun.xml.internal.ws.request.timeout" };
+
+    private boolean compression = true;
+    private boolean keepAlive = true;
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int readTimeoutMillis = 0;
+
+    /**
+     * Sets whether responses are asked for compressed with gzip. The default is true.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Returns whether responses are asked for compressed with gzip.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets whether the HTTP connection is kept open after each call, for the next call to use.
+     * The default is true, which saves a TCP and TLS handshake on every call; false closes the
+     * connection after every call, as some load balancers need.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Returns whether the HTTP connection is kept open after each call.
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Sets how long to wait for a connection to be made, in milliseconds, or 0 to wait for ever.
+     */
+    public void setConnectTimeout(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Returns how long to wait for a connection to be made, in milliseconds.
+     */
+    public int getConnectTimeout() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * Sets how long to wait for the response to a call, in milliseconds, or 0 to wait for ever,
+     * which is the default. Leave room for the calls which wait on the server, such as
+     * WaitForUpdatesEx with maxWaitSeconds and WaitForTask.
+     */
+    public void setReadTimeout(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Returns how long to wait for the response to a call, in milliseconds.
+     */
+    public int getReadTimeout() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * Sets the largest number of idle connections the JDK keeps open to each server, for all
+     * connections in the JVM (the http.maxConnections system property; the JDK default is 5).
+     * Set it before the first connection is made, since the JDK reads it only once. A pool of
+     * VMwareConnections used by more threads than this reconnects for many of its calls.
+     *
+     * @param maxConnections
+     *            the number of idle connections to keep for each server
+     */
+    public static void setMaxIdleConnectionsPerServer(int maxConnections) {
+        System.setProperty("http.maxConnections", Integer.toString(maxConnections));
+    }
+
+    /**
+     * Puts these settings in the request context of a port, replacing any set before. Other HTTP
+     * request headers, such as a session cookie, are kept.
+     *
+     * @param vimPort
+     *            the VimPortType to configure
+     */
+    @SuppressWarnings("unchecked")
+    public void apply(Object vimPort) {
+        Map<String, Object> ctxt = ((BindingProvider) vimPort).getRequestContext();
+        for (String property : CONNECT_TIMEOUT_PROPERTIES) {
+            ctxt.put(property, connectTimeoutMillis);
+        }
+        for (String property : REQUEST_TIMEOUT_PROPERTIES) {
+            ctxt.put(property, readTimeoutMillis);
+        }
+
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        Map<String, List<String>> oldHeaders = (Map<String, List<String>>) ctxt
+                .get(MessageContext.HTTP_REQUEST_HEADERS);
+        if (oldHeaders != null) {
+            headers.putAll(oldHeaders);
+        }
+        headers.remove("Accept-Encoding");
+        headers.remove("Connection");
+        if (compression) {
+            headers.put("Accept-Encoding", Collections.singletonList("gzip"));
+        }
+        if (!keepAlive) {
+            headers.put("Connection", Collections.singletonList("close"));
+        }
+        ctxt.put(MessageContext.HTTP_REQUEST_HEADERS, headers);
+    }
+
+    /**
+     * Puts these settings on an HttpURLConnection, for code which makes its calls without
+     * JAX-WS; read its response with getInputStream.
+     *
+     * @param connection
+     *            the connection, before it is connected
+     */
+    public void apply(HttpURLConnection connection) {
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        if (compression) {
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+        }
+        if (!keepAlive) {
+            connection.setRequestProperty("Connection", "close");
+        }
+    }
+
+    /**
+     * Returns the body of the response to an HttpURLConnection, decompressed if the server
+     * compressed it.
+     *
+     * @param connection
+     *            the connection
+     * @param in
+     *            its input stream or error stream
+     * @return the body.
+     * @throws IOException
+     *             if the body is not valid gzip
+     */
+    public static InputStream getInputStream(HttpURLConnection connection, InputStream in)
+            throws IOException {
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            return new GZIPInputStream(in, 64 * 1024);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * Keeps ContainerViews on the server so they can be used again, instead of creating a new view
+ * (one round trip) for every lookup and never destroying it. Each view lives on the server until
+ * it is destroyed or the session ends, and many leftover views slow down the server's
+ * PropertyCollector for every user.
+ * <P>
+ * Views are kept by container, type list and recursive flag, and counted as they are acquired and
+ * released. A view which nobody is using stays in the cache so the next acquire() can use it, but
+ * no more than maxIdleViews of them are kept; the least recently used are destroyed first. close()
+ * destroys all of them.
+ * <P>
+ * Example of use:<br><code>
+ *     ManagedObjectReference view = viewCache.acquire(rootFolder, Arrays.asList("VirtualMachine"), true);<br>
+ *     try {<br>
+ *         ...<br>
+ *     } finally {<br>
+ *         viewCache.release(view);<br>
+ *     }<br>
+ * </code>
+ */
+public class ContainerViewCache {
+
+    /**
+     * The number of unused views kept, unless another number is given to the constructor.
+     */
+    public static final int DEFAULT_MAX_IDLE_VIEWS = 16;
+
+    private final VimPortType vimPort;
+    private final ManagedObjectReference viewManager;
+    private final int maxIdleViews;
+    // By cache key, in order of last use, so the first idle entry is the one to evict.
+    private final LinkedHashMap<String, CachedView> views =
+            new LinkedHashMap<String, CachedView>(16, 0.75f, true);
+    // The same entries, by the MoRef key of the view.
+    private final Map<String, CachedView> viewsByMoRef = new HashMap<String, CachedView>();
+    private int idleViews;
+    private boolean closed;
+
+    private static class CachedView {
+        String cacheKey;
+        ManagedObjectReference view;
+        int users;
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param viewManager
+     *            the ViewManager, from the ServiceContent
+     * @param maxIdleViews
+     *            the largest number of views kept while nobody is using them
+     */
+    public ContainerViewCache(VimPortType vimPort, ManagedObjectReference viewManager,
+            int maxIdleViews) {
+        this.vimPort = vimPort;
+        this.viewManager = viewManager;
+        this.maxIdleViews = maxIdleViews;
+    }
+
+    /**
+     * Returns a ContainerView of the container given, creating it only if the cache does not
+     * have one. Every acquire() must be matched by a release().
+     *
+     * @param container
+     *            the Folder, Datacenter, ComputeResource, ResourcePool or HostSystem to view
+     * @param types
+     *            the types of the objects to include in the view
+     * @param recursive
+     *            true to include objects in the container's descendants, not just its children
+     * @return the view.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public synchronized ManagedObjectReference acquire(ManagedObjectReference container,
+            List<String> types, boolean recursive) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("The ContainerViewCache is closed.");
+        }
+        String cacheKey = createCacheKey(container, types, recursive);
+        CachedView cached = views.get(cacheKey);
+        if (cached == null) {
+            cached = new CachedView();
+            cached.cacheKey = cacheKey;
+            cached.view = vimPort.createContainerView(viewManager, container, types, recursive);
+            views.put(cacheKey, cached);
+            viewsByMoRef.put(ObjectUtils.getMoRefKey(cached.view), cached);
+        } else if (cached.users == 0) {
+            idleViews--;
+        }
+        cached.users++;
+        return cached.view;
+    }
+
+    /**
+     * Gives back a view from acquire(). If more than maxIdleViews views are then unused, the
+     * least recently used are destroyed.
+     *
+     * @param view
+     *            the view from acquire()
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public void release(ManagedObjectReference view) throws Exception {
+        List<ManagedObjectReference> evicted;
+        synchronized (this) {
+            CachedView cached = viewsByMoRef.get(ObjectUtils.getMoRefKey(view));
+            if (cached == null || cached.users == 0) {
+                throw new IllegalArgumentException("The view " + view.getValue()
+                        + " was not acquired from this cache.");
+            }
+            cached.users--;
+            if (cached.users != 0) {
+                return;
+            }
+            idleViews++;
+            evicted = evict(closed ? 0 : maxIdleViews);
+        }
+        destroyViews(evicted);
+    }
+
+    /**
+     * Takes idle views out of the cache, least recently used first, until no more than the number
+     * given are left, and returns them to be destroyed once the lock is let go.
+     */
+    private List<ManagedObjectReference> evict(int keep) {
+        List<ManagedObjectReference> evicted = new ArrayList<ManagedObjectReference>();
+        Iterator<CachedView> it = views.values().iterator();
+        while (idleViews > keep && it.hasNext()) {
+            CachedView cached = it.next();
+            if (cached.users == 0) {
+                it.remove();
+                viewsByMoRef.remove(ObjectUtils.getMoRefKey(cached.view));
+                idleViews--;
+                evicted.add(cached.view);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Destroys views taken out of the cache. This is done without holding the lock, so other
+     * threads do not wait for the server, and failures are ignored, since the views are no longer
+     * in the cache either way and go away with the session.
+     */
+    private void destroyViews(List<ManagedObjectReference> evicted) {
+        for (ManagedObjectReference view : evicted) {
+            FindObjects.destroyViewQuietly(vimPort, view);
+        }
+    }
+
+    /**
+     * Returns the number of views in the cache, both in use and idle.
+     */
+    public synchronized int getViewCount() {
+        return views.size();
+    }
+
+    /**
+     * Destroys every idle view. Views still in use are destroyed when they are released.
+     *
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public void close() throws Exception {
+        List<ManagedObjectReference> evicted;
+        synchronized (this) {
+            closed = true;
+            evicted = evict(0);
+        }
+        destroyViews(evicted);
+    }
+
+    private static String createCacheKey(ManagedObjectReference container, List<String> types,
+            boolean recursive) {
+        // The same types in another order give the same view.
+        List<String> sortedTypes = new ArrayList<String>(types);
+        Collections.sort(sortedTypes);
+        StringBuilder cacheKey = new StringBuilder(ObjectUtils.getMoRefKey(container));
+        cacheKey.append(recursive ? "|recursive" : "|children");
+        for (String type : sortedTypes) {
+            cacheKey.append('|').append(type);
+        }
+        return cacheKey.toString();
+    }
+}
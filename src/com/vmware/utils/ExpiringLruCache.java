@@ -0,0 +1,155 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache whose entries also expire. It holds at most maxEntries entries, and when it is
+ * full the least recently used entry is dropped to make room. An entry older than timeToLiveMillis
+ * is not returned, so a value which changed on the server is read again after a while.
+ * <P>
+ * It is thread safe.
+ * <P>
+ * Example of use:<br><code>
+ *     ExpiringLruCache&lt;String, String&gt; cache = new ExpiringLruCache&lt;String, String&gt;(1000, 60000);<br>
+ *     String uuid = cache.get(name);<br>
+ *     if (uuid == null) {<br>
+ *         uuid = ...;<br>
+ *         cache.put(name, uuid);<br>
+ *     }<br>
+ * </code>
+ *
+ * @param <K>
+ *            the type of the keys
+ * @param <V>
+ *            the type of the values
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    // In order of last use, so the eldest entry is the one to drop.
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long hits;
+    private long misses;
+
+    private static class Entry<V> {
+        final V value;
+        final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxEntries
+     *            the largest number of entries kept
+     * @param timeToLiveMillis
+     *            how long an entry is returned for after it was put in the cache, in milliseconds
+     */
+    public ExpiringLruCache(final int maxEntries, long timeToLiveMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1.");
+        }
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLiveMillis;
+        entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the value for a key, or null if the key is not in the cache or its entry has
+     * expired.
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.expires - System.currentTimeMillis() <= 0) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Puts a value in the cache, replacing any value the key had, and dropping the least recently
+     * used entry if the cache is full.
+     */
+    public synchronized void put(K key, V value) {
+        entries.put(key, new Entry<V>(value, System.currentTimeMillis() + timeToLiveMillis));
+    }
+
+    /**
+     * Removes the entry for a key, if there is one.
+     */
+    public synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of entries, including any which have expired but not been removed yet.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the largest number of entries kept.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the number of calls to get() which returned a value.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of calls to get() which returned null.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
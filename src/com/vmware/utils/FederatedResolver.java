@@ -0,0 +1,356 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+
+/**
+ * Finds VMs by name or UUID across many vCenter servers at once. It holds a VMwareConnectionPool
+ * for each vCenter, and sends a lookup to all of them in parallel on an executor, so a lookup
+ * takes as long as the slowest vCenter rather than the sum of them all. A lookup which only needs
+ * one answer, such as by instance UUID, returns as soon as one vCenter finds the VM.
+ * <P>
+ * The VMs found are merged by the instance UUID of their vCenter and their own instance UUID, so
+ * a vCenter reachable by two names is not counted twice. A vCenter which fails or does not answer
+ * in time does not fail the lookup: it is reported in the Resolution, with the VMs the other
+ * vCenters found.
+ * <P>
+ * The pools and the executor belong to the caller, who closes them when done. The executor needs
+ * a thread for each vCenter to look them all up at once.
+ * <P>
+ * Example of use:<br><code>
+ *     List&lt;VMwareConnectionPool&gt; pools = ...; // one for each vCenter<br>
+ *     ExecutorService executor = Executors.newFixedThreadPool(pools.size());<br>
+ *     FederatedResolver resolver = new FederatedResolver(pools, executor);<br>
+ *     FederatedResolver.Resolution found = resolver.findByUuid(uuid, true);<br>
+ *     FederatedResolver.VmLocation vm = found.getUniqueMatch();<br>
+ * </code>
+ */
+public class FederatedResolver {
+
+    /**
+     * How long a lookup waits for the vCenters to answer, in milliseconds, unless setTimeout is
+     * called.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final List<VMwareConnectionPool> pools;
+    private final ExecutorService executor;
+    private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    // What to do on one vCenter, with a connection from its pool.
+    private interface Lookup {
+        List<ObjectContent> lookup(VMwareConnection conn) throws Exception;
+    }
+
+    /**
+     * Creates a resolver.
+     *
+     * @param pools
+     *            a pool of connections for each vCenter
+     * @param executor
+     *            runs the lookups on the vCenters
+     */
+    public FederatedResolver(Collection<VMwareConnectionPool> pools, ExecutorService executor) {
+        this.pools = new ArrayList<VMwareConnectionPool>(pools);
+        this.executor = executor;
+    }
+
+    /**
+     * Sets how long a lookup waits for the vCenters to answer. A vCenter which has not answered by
+     * then is reported as failed with a TimeoutException.
+     *
+     * @param timeoutMillis
+     *            the time, in milliseconds
+     */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the pools of the vCenters this resolver looks in.
+     */
+    public List<VMwareConnectionPool> getPools() {
+        return Collections.unmodifiableList(pools);
+    }
+
+    /**
+     * Finds the VMs with a name in every vCenter. This waits for all the vCenters, since any of
+     * them may have a VM with the name.
+     *
+     * @param name
+     *            the name of the VMs
+     * @return the VMs found, and the vCenters which failed.
+     * @throws InterruptedException
+     *             if the calling thread is interrupted while waiting
+     */
+    public Resolution findAllByName(String name) throws InterruptedException {
+        return resolve(createNameLookup(name), false);
+    }
+
+    /**
+     * Finds a VM with a name in any vCenter, returning as soon as one vCenter has found one. Use
+     * this when names are known to be unique across the vCenters; otherwise the VM returned is
+     * whichever was found first.
+     *
+     * @param name
+     *            the name of the VM
+     * @return the VMs found by the first vCenter to find any, and the vCenters which failed
+     *         before that.
+     * @throws InterruptedException
+     *             if the calling thread is interrupted while waiting
+     */
+    public Resolution findFirstByName(String name) throws InterruptedException {
+        return resolve(createNameLookup(name), true);
+    }
+
+    /**
+     * Finds the VMs with a UUID in every vCenter, using each vCenter's SearchIndex. An instance
+     * UUID identifies one VM, so the lookup returns as soon as one vCenter finds it. BIOS UUIDs
+     * may be shared by cloned VMs, so a lookup of one waits for all the vCenters.
+     *
+     * @param uuid
+     *            the UUID to look for
+     * @param instanceUuid
+     *            true to look for an instance UUID, false to look for a BIOS UUID
+     * @return the VMs found, and the vCenters which failed.
+     * @throws InterruptedException
+     *             if the calling thread is interrupted while waiting
+     */
+    public Resolution findByUuid(final String uuid, final boolean instanceUuid)
+            throws InterruptedException {
+        return resolve(new Lookup() {
+            public List<ObjectContent> lookup(VMwareConnection conn) throws Exception {
+                List<ObjectContent> found = new ArrayList<ObjectContent>();
+                for (ManagedObjectReference vm : conn.findVirtualMachinesByUuid(uuid,
+                        instanceUuid)) {
+                    found.add(conn.findObject(vm, "name", "summary.config.instanceUuid"));
+                }
+                return found;
+            }
+        }, instanceUuid);
+    }
+
+    private static Lookup createNameLookup(final String name) {
+        return new Lookup() {
+            public List<ObjectContent> lookup(VMwareConnection conn) throws Exception {
+                return conn.findAllObjectsNamed("VirtualMachine", name, "name",
+                        "summary.config.instanceUuid");
+            }
+        };
+    }
+
+    /**
+     * Runs a lookup on every vCenter at once, and collects the answers until all have answered,
+     * the time is up, or (if firstMatch) one has found something. Lookups still running then are
+     * cancelled.
+     */
+    private Resolution resolve(final Lookup lookup, boolean firstMatch)
+            throws InterruptedException {
+        CompletionService<List<VmLocation>> completionService =
+                new ExecutorCompletionService<List<VmLocation>>(executor);
+        Map<Future<List<VmLocation>>, VMwareConnectionPool> running =
+                new HashMap<Future<List<VmLocation>>, VMwareConnectionPool>();
+        for (final VMwareConnectionPool pool : pools) {
+            running.put(completionService.submit(new Callable<List<VmLocation>>() {
+                public List<VmLocation> call() throws Exception {
+                    VMwareConnectionPool.Lease lease = pool.lease();
+                    try {
+                        VMwareConnection conn = lease.getConnection();
+                        String vCenterUuid = conn.getServiceContent().getAbout().getInstanceUuid();
+                        List<VmLocation> found = new ArrayList<VmLocation>();
+                        for (ObjectContent oc : lookup.lookup(conn)) {
+                            found.add(new VmLocation(pool.getServerName(), vCenterUuid, oc));
+                        }
+                        return found;
+                    } finally {
+                        lease.close();
+                    }
+                }
+            }), pool);
+        }
+
+        Resolution resolution = new Resolution();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (!running.isEmpty()) {
+                long wait = deadline - System.currentTimeMillis();
+                Future<List<VmLocation>> done = wait > 0 ? completionService.poll(wait,
+                        TimeUnit.MILLISECONDS) : null;
+                if (done == null) {
+                    // Out of time: the vCenters still running have failed.
+                    for (VMwareConnectionPool pool : running.values()) {
+                        resolution.failures.put(pool.getServerName(), new TimeoutException(
+                                "No answer within " + timeoutMillis + " milliseconds."));
+                    }
+                    break;
+                }
+                VMwareConnectionPool pool = running.remove(done);
+                try {
+                    resolution.add(done.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    resolution.failures.put(pool.getServerName(),
+                            cause instanceof Exception ? (Exception) cause : e);
+                }
+                if (firstMatch && !resolution.matches.isEmpty()) {
+                    break;
+                }
+            }
+        } finally {
+            for (Future<List<VmLocation>> future : running.keySet()) {
+                future.cancel(true);
+            }
+        }
+        resolution.complete = running.isEmpty();
+        return resolution;
+    }
+
+    /**
+     * A VM found by a FederatedResolver, and the vCenter it is in.
+     */
+    public static class VmLocation {
+        private final String serverName;
+        private final String vCenterUuid;
+        private final ManagedObjectReference vm;
+        private final String name;
+        private final String instanceUuid;
+
+        VmLocation(String serverName, String vCenterUuid, ObjectContent oc) {
+            this.serverName = serverName;
+            this.vCenterUuid = vCenterUuid;
+            this.vm = oc.getObj();
+            this.name = ObjectUtils.getPropertyValue(oc, "name");
+            this.instanceUuid = ObjectUtils.getPropertyValue(oc, "summary.config.instanceUuid");
+        }
+
+        /**
+         * Returns the name of the vCenter server the VM was found on, as given to its pool.
+         */
+        public String getServerName() {
+            return serverName;
+        }
+
+        /**
+         * Returns the instance UUID of the vCenter the VM is in.
+         */
+        public String getVCenterUuid() {
+            return vCenterUuid;
+        }
+
+        /**
+         * Returns the Managed Object Reference of the VM, which is only meaningful on its vCenter.
+         */
+        public ManagedObjectReference getVm() {
+            return vm;
+        }
+
+        /**
+         * Returns the name of the VM.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the instance UUID of the VM.
+         */
+        public String getInstanceUuid() {
+            return instanceUuid;
+        }
+
+        /**
+         * Returns the key the VMs found are merged by: the instance UUIDs of the vCenter and of
+         * the VM.
+         */
+        public String getKey() {
+            // A VM being created may not have an instance UUID yet; its MoRef is unique too.
+            return vCenterUuid + "/" + (instanceUuid != null ? instanceUuid : vm.getValue());
+        }
+
+        public String toString() {
+            return name + " (" + vm.getValue() + " on " + serverName + ")";
+        }
+    }
+
+    /**
+     * The result of a lookup: the VMs found, and the vCenters which failed.
+     */
+    public static class Resolution {
+        private final Map<String, VmLocation> matches = new LinkedHashMap<String, VmLocation>();
+        private final Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+        private boolean complete;
+
+        private void add(List<VmLocation> found) {
+            for (VmLocation location : found) {
+                if (!matches.containsKey(location.getKey())) {
+                    matches.put(location.getKey(), location);
+                }
+            }
+        }
+
+        /**
+         * Returns the VMs found, in the order the vCenters answered.
+         */
+        public List<VmLocation> getMatches() {
+            return new ArrayList<VmLocation>(matches.values());
+        }
+
+        /**
+         * Returns the VM found if exactly one was, or null if none or more than one were.
+         */
+        public VmLocation getUniqueMatch() {
+            return matches.size() == 1 ? matches.values().iterator().next() : null;
+        }
+
+        /**
+         * Returns the exception of each vCenter which failed or did not answer in time, by server
+         * name.
+         */
+        public Map<String, Exception> getFailures() {
+            return failures;
+        }
+
+        /**
+         * Returns true if every vCenter answered, false if the lookup returned early on a match,
+         * or ran out of time.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+}
@@ -20,7 +20,11 @@
 package com.vmware.utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.vmware.vim25.DynamicProperty;
 import com.vmware.vim25.ManagedObjectReference;
@@ -55,6 +59,18 @@ import com.vmware.vim25.VimPortType;
 
 public class FindObjects {
 
+    /**
+     * The number of objects asked for in each page of a retrieval, unless the caller gives a page
+     * size of its own.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    /**
+     * The largest batch of UUIDs which findVirtualMachinesByUuid looks up one at a time with the
+     * SearchIndex. Larger batches are looked up in a UuidIndex.
+     */
+    public static final int UUID_BATCH_SEARCH_LIMIT = 50;
+
     /**
      * Returns all ObjectContent objects of the specified type and with each one include the
      * properties specified.
@@ -130,16 +146,288 @@ public class FindObjects {
         List<PropertyFilterSpec> fSpecList = new ArrayList<PropertyFilterSpec>();
         fSpecList.add(fSpec);
 
-        // get the data from the server
-        com.vmware.vim25.RetrieveOptions retrieveOptions = new RetrieveOptions();
-        com.vmware.vim25.RetrieveResult props = vimPort.retrievePropertiesEx(propColl, fSpecList,
-                retrieveOptions);
+        // get the data from the server, one page at a time, and keep all of it
+        final List<ObjectContent> allObjects = new ArrayList<ObjectContent>();
+        try {
+            retrievePages(vimPort, propColl, fSpecList, DEFAULT_PAGE_SIZE,
+                    new ObjectContentHandler() {
+                        public boolean handlePage(List<ObjectContent> page) {
+                            allObjects.addAll(page);
+                            return true;
+                        }
+                    });
+        } finally {
+            // The view lives on the server until destroyed, so do not leave it behind.
+            destroyViewQuietly(vimPort, cViewRef);
+        }
 
-        // go through the returned list and print out the data
-        if (props != null) {
-            return props.getObjects();
+        if (allObjects.isEmpty()) {
+            return null;
+        }
+        return allObjects;
+    }
+
+    /**
+     * Finds all objects of the specified type, with the properties specified, and hands them to
+     * the handler one page at a time as each page arrives from the server. Unlike the list version
+     * of findAllObjects, only one page is held in memory at once, so this is the method to use on
+     * a large inventory.
+     *
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param handler
+     *            receives each page; it can return false to stop early
+     * @param objectType
+     *            the type of the managed object
+     * @param properties
+     *            zero or more property names
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static void findAllObjects(VimPortType vimPort, ServiceContent serviceContent,
+            int pageSize, ObjectContentHandler handler, String objectType, String... properties)
+            throws Exception {
+        ManagedObjectReference cViewRef = vimPort.createContainerView(
+                serviceContent.getViewManager(), serviceContent.getRootFolder(),
+                Arrays.asList(objectType), true);
+        try {
+            findAllObjectsInView(vimPort, serviceContent.getPropertyCollector(), cViewRef,
+                    pageSize, handler, objectType, properties);
+        } finally {
+            destroyViewQuietly(vimPort, cViewRef);
+        }
+    }
+
+    /**
+     * Finds all objects of the specified type in a ContainerView which the caller already has, and
+     * hands them to the handler one page at a time. The view is not destroyed, so it can be used
+     * again; see ContainerViewCache.
+     *
+     * @param propColl
+     *            the PropertyCollector to use
+     * @param containerView
+     *            the ContainerView to look in
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param handler
+     *            receives each page; it can return false to stop early
+     * @param objectType
+     *            the type of the managed object
+     * @param properties
+     *            zero or more property names
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static void findAllObjectsInView(VimPortType vimPort, ManagedObjectReference propColl,
+            ManagedObjectReference containerView, int pageSize, ObjectContentHandler handler,
+            String objectType, String... properties) throws Exception {
+        PropertySpec pSpec = ObjectUtils.createPropertySpec(objectType, properties);
+        List<PropertyFilterSpec> fSpecList = new ArrayList<PropertyFilterSpec>();
+        fSpecList.add(ObjectUtils.createContainerViewFilterSpec(containerView, pSpec));
+
+        retrievePages(vimPort, propColl, fSpecList, pageSize, handler);
+    }
+
+    /**
+     * Returns an iterator over all objects of the specified type, with the properties specified.
+     * Pages are fetched from the server as the iterator reaches them. Close the iterator if you
+     * stop before the end. Example of use:<br>
+     * <code>ObjectContentIterator it = FindObjects.iterateAllObjects(vimPort, serviceContent, 500, "VirtualMachine", "name");</code><br>
+     * <code>try { while (it.hasNext()) { ... } } finally { it.close(); }</code>
+     *
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param objectType
+     *            the type of the managed object
+     * @param properties
+     *            zero or more property names
+     * @return an iterator which must be closed if it is not read to the end.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static ObjectContentIterator iterateAllObjects(VimPortType vimPort,
+            ServiceContent serviceContent, int pageSize, String objectType, String... properties)
+            throws Exception {
+        ManagedObjectReference cViewRef = vimPort.createContainerView(
+                serviceContent.getViewManager(), serviceContent.getRootFolder(),
+                Arrays.asList(objectType), true);
+        PropertySpec pSpec = ObjectUtils.createPropertySpec(objectType, properties);
+        List<PropertyFilterSpec> fSpecList = new ArrayList<PropertyFilterSpec>();
+        fSpecList.add(ObjectUtils.createContainerViewFilterSpec(cViewRef, pSpec));
+
+        RetrieveOptions retrieveOptions = new RetrieveOptions();
+        retrieveOptions.setMaxObjects(pageSize);
+        RetrieveResult firstPage;
+        try {
+            firstPage = vimPort.retrievePropertiesEx(serviceContent.getPropertyCollector(),
+                    fSpecList, retrieveOptions);
+        } catch (Exception e) {
+            destroyViewQuietly(vimPort, cViewRef);
+            throw e;
+        }
+        // The iterator destroys the view when it reaches the end or is closed.
+        return new ObjectContentIterator(vimPort, serviceContent.getPropertyCollector(),
+                firstPage, cViewRef, null);
+    }
+
+    /**
+     * Finds all objects of one or more types inside a container, with the properties specified
+     * for each type, and hands them to the handler one page at a time. Only the container is
+     * searched, so the cost follows the part of the inventory wanted, such as one datacenter or
+     * cluster, not the whole inventory. Objects of all the types come back in the same pages, in
+     * one retrieval. Example of use:<br>
+     * <code>FindObjects.findAllObjects(vimPort, serviceContent, clusterMOR, true, 1000, handler,</code><br>
+     * <code>        ObjectUtils.createPropertySpec("VirtualMachine", "name", "runtime.host"),</code><br>
+     * <code>        ObjectUtils.createPropertySpec("HostSystem", "name"));</code>
+     *
+     * @param container
+     *            the Folder, Datacenter, ComputeResource, ResourcePool or HostSystem to look in
+     * @param recursive
+     *            true to include objects in the container's descendants, not just its children
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param handler
+     *            receives each page; it can return false to stop early
+     * @param propertySpecs
+     *            one PropertySpec for each type of object to find, with the properties to return
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static void findAllObjects(VimPortType vimPort, ServiceContent serviceContent,
+            ManagedObjectReference container, boolean recursive, int pageSize,
+            ObjectContentHandler handler, PropertySpec... propertySpecs) throws Exception {
+        ManagedObjectReference cViewRef = vimPort.createContainerView(
+                serviceContent.getViewManager(), container,
+                ObjectUtils.getPropertySpecTypes(propertySpecs), recursive);
+        try {
+            findAllObjectsInView(vimPort, serviceContent.getPropertyCollector(), cViewRef,
+                    pageSize, handler, propertySpecs);
+        } finally {
+            destroyViewQuietly(vimPort, cViewRef);
+        }
+    }
+
+    /**
+     * Finds all objects in a ContainerView which the caller already has, with the properties
+     * specified for each type, and hands them to the handler one page at a time. The view is not
+     * destroyed.
+     *
+     * @param propColl
+     *            the PropertyCollector to use
+     * @param containerView
+     *            the ContainerView to look in
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param handler
+     *            receives each page; it can return false to stop early
+     * @param propertySpecs
+     *            one PropertySpec for each type of object to find, with the properties to return
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static void findAllObjectsInView(VimPortType vimPort, ManagedObjectReference propColl,
+            ManagedObjectReference containerView, int pageSize, ObjectContentHandler handler,
+            PropertySpec... propertySpecs) throws Exception {
+        List<PropertyFilterSpec> fSpecList = new ArrayList<PropertyFilterSpec>();
+        fSpecList.add(ObjectUtils.createContainerViewFilterSpec(containerView, propertySpecs));
+
+        retrievePages(vimPort, propColl, fSpecList, pageSize, handler);
+    }
+
+    /**
+     * Returns an iterator over all objects of one or more types inside a container, with the
+     * properties specified for each type. Close the iterator if you stop before the end.
+     *
+     * @param container
+     *            the Folder, Datacenter, ComputeResource, ResourcePool or HostSystem to look in
+     * @param recursive
+     *            true to include objects in the container's descendants, not just its children
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param propertySpecs
+     *            one PropertySpec for each type of object to find, with the properties to return
+     * @return an iterator which must be closed if it is not read to the end.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static ObjectContentIterator iterateAllObjects(VimPortType vimPort,
+            ServiceContent serviceContent, ManagedObjectReference container, boolean recursive,
+            int pageSize, PropertySpec... propertySpecs) throws Exception {
+        ManagedObjectReference cViewRef = vimPort.createContainerView(
+                serviceContent.getViewManager(), container,
+                ObjectUtils.getPropertySpecTypes(propertySpecs), recursive);
+        List<PropertyFilterSpec> fSpecList = new ArrayList<PropertyFilterSpec>();
+        fSpecList.add(ObjectUtils.createContainerViewFilterSpec(cViewRef, propertySpecs));
+
+        RetrieveOptions retrieveOptions = new RetrieveOptions();
+        retrieveOptions.setMaxObjects(pageSize);
+        RetrieveResult firstPage;
+        try {
+            firstPage = vimPort.retrievePropertiesEx(serviceContent.getPropertyCollector(),
+                    fSpecList, retrieveOptions);
+        } catch (Exception e) {
+            destroyViewQuietly(vimPort, cViewRef);
+            throw e;
+        }
+        // The iterator destroys the view when it reaches the end or is closed.
+        return new ObjectContentIterator(vimPort, serviceContent.getPropertyCollector(),
+                firstPage, cViewRef, null);
+    }
+
+    /**
+     * Runs a PropertyCollector retrieval page by page. The first page comes from
+     * retrievePropertiesEx, and each following page from continueRetrievePropertiesEx using the
+     * token of the page before it, until the server returns no token. If the handler returns
+     * false or throws an exception, the rest of the result is cancelled with
+     * cancelRetrievePropertiesEx, so the server can free it.
+     *
+     * @param propColl
+     *            the PropertyCollector to use
+     * @param fSpecList
+     *            the filter specs which describe what to retrieve
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param handler
+     *            receives each page as it arrives
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static void retrievePages(VimPortType vimPort, ManagedObjectReference propColl,
+            List<PropertyFilterSpec> fSpecList, int pageSize, ObjectContentHandler handler)
+            throws Exception {
+        RetrieveOptions retrieveOptions = new RetrieveOptions();
+        retrieveOptions.setMaxObjects(pageSize);
+        RetrieveResult result = vimPort.retrievePropertiesEx(propColl, fSpecList, retrieveOptions);
+
+        // The server returns null (not an empty result) when nothing was found.
+        String token = null;
+        try {
+            while (result != null) {
+                token = result.getToken();
+                if (!handler.handlePage(result.getObjects())) {
+                    if (token != null) {
+                        String cancelToken = token;
+                        token = null;
+                        vimPort.cancelRetrievePropertiesEx(propColl, cancelToken);
+                    }
+                    return;
+                }
+                if (token == null) {
+                    return;
+                }
+                result = vimPort.continueRetrievePropertiesEx(propColl, token);
+            }
+        } catch (Exception e) {
+            // Free the rest of the result on the server, but report the original problem.
+            if (token != null) {
+                try {
+                    vimPort.cancelRetrievePropertiesEx(propColl, token);
+                } catch (Exception cancelFailed) {
+                    // ignored, the original exception is more useful
+                }
+            }
+            throw e;
         }
-        return null;
     }
 
     /**
@@ -156,7 +444,8 @@ public class FindObjects {
      *             if an exception occurred
      */
     public static ManagedObjectReference findObject(VimPortType vimPort,
-            ServiceContent serviceContent, String objectType, String name) throws Exception {
+            ServiceContent serviceContent, String objectType, final String name)
+            throws Exception {
 
         // Get references to the ViewManager and PropertyCollector
         ManagedObjectReference viewMgrRef = serviceContent.getViewManager();
@@ -213,32 +502,22 @@ public class FindObjects {
         List<PropertyFilterSpec> fSpecList = new ArrayList<PropertyFilterSpec>();
         fSpecList.add(fSpec);
 
-        // get the data from the server
-        RetrieveOptions retrieveOptions = new RetrieveOptions();
-        RetrieveResult props = vimPort.retrievePropertiesEx(propColl, fSpecList, retrieveOptions);
-
-        // go through the returned list and print out the data
-        if (props != null) {
-            for (ObjectContent oc : props.getObjects()) {
-                String value = null;
-                String path = null;
-                List<com.vmware.vim25.DynamicProperty> dps = oc.getPropSet();
-                if (dps != null) {
-                    for (DynamicProperty dp : dps) {
-                        path = dp.getName();
-                        if (path.equals("name")) {
-                            value = (String) dp.getVal();
-                            // Uncomment the next line if needed to help with troubleshooting
-                            // System.out.printf("found = [%s], looking for [%s]%n", value, name);
-                            if (value.equals(name)) {
-                                // Uncomment the next line if needed to help with troubleshooting
-                                // System.out.printf("found = %s", value);
-                                return oc.getObj();
-                            }
+        // get the data from the server a page at a time, and stop as soon as the name is found
+        final ObjectContent[] found = new ObjectContent[1];
+        try {
+            retrievePages(vimPort, propColl, fSpecList, DEFAULT_PAGE_SIZE,
+                    new ObjectContentHandler() {
+                        public boolean handlePage(List<ObjectContent> page) {
+                            found[0] = findByName(page, name);
+                            return found[0] == null;
                         }
-                    }
-                }
-            }
+                    });
+        } finally {
+            // The view lives on the server until destroyed, so do not leave it behind.
+            destroyViewQuietly(vimPort, cViewRef);
+        }
+        if (found[0] != null) {
+            return found[0].getObj();
         }
         return null;
     }
@@ -256,7 +535,7 @@ public class FindObjects {
      *             if an exception occurred
      */
     public static ObjectContent findObject(VimPortType vimPort, ServiceContent serviceContent,
-            PropertySpec propertySpec, String name) throws Exception {
+            PropertySpec propertySpec, final String name) throws Exception {
 
         // Get references to the ViewManager and PropertyCollector
         ManagedObjectReference viewMgrRef = serviceContent.getViewManager();
@@ -304,27 +583,338 @@ public class FindObjects {
         List<PropertyFilterSpec> fSpecList = new ArrayList<PropertyFilterSpec>();
         fSpecList.add(fSpec);
 
-        // get the data from the server
-        RetrieveOptions retrieveOptions = new RetrieveOptions();
-        RetrieveResult props = vimPort.retrievePropertiesEx(propColl, fSpecList, retrieveOptions);
-
-        // go through the returned list and print out the data
-        if (props != null) {
-            for (ObjectContent oc : props.getObjects()) {
-                String value = null;
-                String path = null;
-                List<DynamicProperty> dps = oc.getPropSet();
-                if (dps != null) {
-                    for (DynamicProperty dp : dps) {
-                        path = dp.getName();
-                        if (path.equals("name")) {
-                            value = (String) dp.getVal();
-                            // Uncomment the next line if needed to help with troubleshooting
-                            // System.out.printf("found = [%s], looking for [%s]%n", value, name);
-                            if (value.equals(name)) {
-                                System.out.printf("found = %s", value);
-                                return oc;
-                            }
+        // get the data from the server a page at a time, and stop as soon as the name is found
+        final ObjectContent[] found = new ObjectContent[1];
+        try {
+            retrievePages(vimPort, propColl, fSpecList, DEFAULT_PAGE_SIZE,
+                    new ObjectContentHandler() {
+                        public boolean handlePage(List<ObjectContent> page) {
+                            found[0] = findByName(page, name);
+                            return found[0] == null;
+                        }
+                    });
+        } finally {
+            // The view lives on the server until destroyed, so do not leave it behind.
+            destroyViewQuietly(vimPort, cViewRef);
+        }
+        if (found[0] != null) {
+            System.out.printf("found = %s", name);
+        }
+        return found[0];
+    }
+
+    /**
+     * Returns an ObjectContent object for the object with the name passed in, including the
+     * properties specified in the propertySpec. The name is looked up in the index, so only the one
+     * object found is retrieved from the server, rather than the name of every object of the type.
+     *
+     * @param index
+     *            an index of the objects of the type in the propertySpec
+     * @param propertySpec
+     *            the property spec which describes the properties to return
+     * @param name
+     *            the name of the managed object to return.
+     * @return the managed object specified, or null if it is not in the index or no longer exists.
+     *         If more than one object has the name, the first one in the index is returned.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static ObjectContent findObject(VimPortType vimPort, ServiceContent serviceContent,
+            ObjectNameIndex index, PropertySpec propertySpec, String name) throws Exception {
+        ManagedObjectReference objectRef = index.findFirst(name);
+        if (objectRef == null) {
+            return null;
+        }
+
+        ObjectSpec oSpec = new ObjectSpec();
+        oSpec.setObj(objectRef);
+        oSpec.setSkip(false);
+
+        PropertyFilterSpec fSpec = new PropertyFilterSpec();
+        fSpec.getObjectSet().add(oSpec);
+        fSpec.getPropSet().add(propertySpec);
+        // Do not fail if the object was deleted after the index was built.
+        fSpec.setReportMissingObjectsInResults(true);
+
+        RetrieveResult props = vimPort.retrievePropertiesEx(serviceContent.getPropertyCollector(),
+                Arrays.asList(fSpec), new RetrieveOptions());
+        if (props != null && !props.getObjects().isEmpty()
+                && props.getObjects().get(0).getPropSet() != null
+                && !props.getObjects().get(0).getPropSet().isEmpty()) {
+            return props.getObjects().get(0);
+        }
+        return null;
+    }
+
+    /**
+     * Returns an ObjectContent object for the object with the type and name passed in, including
+     * the properties specified in the propertySpec, letting the server narrow the search instead of
+     * reading the name of every object of the type. How the object is found depends on the
+     * container:
+     * <UL>
+     * <LI>If the container is a Folder, ResourcePool or VirtualApp, the SearchIndex looks for the
+     * name among the container's children (FindChild).
+     * <LI>Otherwise, or if the object is not a child of the container, the names of the objects of
+     * the type in a ContainerView of the container are read a page at a time until the name is
+     * found. With no container the view is of the whole inventory, as in findObject.
+     * </UL>
+     * vSphere stores a "/" typed in the name of an object as "%2f", so no name contains "/". A
+     * name which contains "/" is therefore an inventory path, such as "Datacenter/vm/Folder/myvm",
+     * and is looked up as findObjectByInventoryPath does; the container is not used. An object
+     * whose type is not the type in the propertySpec is not returned.
+     * <P>
+     * Example of use:<br>
+     * <code>ObjectContent vm = FindObjects.findObjectInContainer(vimPort, serviceContent, clusterMOR, propertySpec, "myvm");</code>
+     *
+     * @param container
+     *            the Folder, Datacenter, ComputeResource, ResourcePool or HostSystem to look in, or
+     *            null to look in the whole inventory
+     * @param propertySpec
+     *            the property spec which describes the type of the object and the properties to
+     *            return
+     * @param name
+     *            the name of the managed object to return, or its inventory path
+     * @return the managed object specified or null if it is not found.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static ObjectContent findObjectInContainer(VimPortType vimPort,
+            ServiceContent serviceContent, ManagedObjectReference container,
+            PropertySpec propertySpec, final String name) throws Exception {
+        ManagedObjectReference searchIndex = serviceContent.getSearchIndex();
+        String objectType = propertySpec.getType();
+
+        // An inventory path names one object, so the server can find it directly.
+        if (name.contains("/")) {
+            return findObjectByInventoryPath(vimPort, serviceContent, propertySpec, name);
+        }
+
+        // The server can look the name up among the children of these containers. The object may
+        // also be further down, in a subfolder or child pool, so go on to the view if it is not.
+        if (container != null
+                && (container.getType().equals("Folder")
+                        || container.getType().equals("ResourcePool") || container.getType()
+                        .equals("VirtualApp"))) {
+            ManagedObjectReference objectRef = vimPort.findChild(searchIndex, container, name);
+            if (objectRef != null && objectType.equals(objectRef.getType())) {
+                return retrieveObject(vimPort, serviceContent, objectRef, propertySpec);
+            }
+        }
+
+        // Read the names of the objects in the container only, rather than in the whole
+        // inventory, and then the properties of the one found.
+        ManagedObjectReference cViewRef = vimPort.createContainerView(
+                serviceContent.getViewManager(), container != null ? container : serviceContent
+                        .getRootFolder(), Arrays.asList(objectType), true);
+        final ObjectContent[] found = new ObjectContent[1];
+        try {
+            PropertySpec nameSpec = ObjectUtils.createPropertySpec(objectType, "name");
+            retrievePages(vimPort, serviceContent.getPropertyCollector(),
+                    Arrays.asList(ObjectUtils.createContainerViewFilterSpec(cViewRef, nameSpec)),
+                    DEFAULT_PAGE_SIZE, new ObjectContentHandler() {
+                        public boolean handlePage(List<ObjectContent> page) {
+                            found[0] = findByName(page, name);
+                            return found[0] == null;
+                        }
+                    });
+        } finally {
+            // The view lives on the server until destroyed, so do not leave it behind.
+            destroyViewQuietly(vimPort, cViewRef);
+        }
+        if (found[0] == null) {
+            return null;
+        }
+        return retrieveObject(vimPort, serviceContent, found[0].getObj(), propertySpec);
+    }
+
+    /**
+     * Returns an ObjectContent object for the object at an inventory path, such as
+     * "Datacenter/vm/Folder/myvm", including the properties specified in the propertySpec. The
+     * SearchIndex resolves the path (FindByInventoryPath), so only the one object is read. A "/"
+     * in the name of an object is written as "%2f" in an inventory path.
+     *
+     * @param propertySpec
+     *            the property spec which describes the type of the object and the properties to
+     *            return
+     * @param inventoryPath
+     *            the names of the objects from the root folder down, separated by "/"
+     * @return the managed object specified, or null if there is nothing at the path or it is not
+     *         of the type in the propertySpec.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static ObjectContent findObjectByInventoryPath(VimPortType vimPort,
+            ServiceContent serviceContent, PropertySpec propertySpec, String inventoryPath)
+            throws Exception {
+        ManagedObjectReference objectRef = findByInventoryPath(vimPort, serviceContent,
+                inventoryPath);
+        if (objectRef == null || !propertySpec.getType().equals(objectRef.getType())) {
+            return null;
+        }
+        return retrieveObject(vimPort, serviceContent, objectRef, propertySpec);
+    }
+
+    /**
+     * Returns the object at an inventory path, such as "Datacenter/host/Cluster", using the
+     * server's SearchIndex.
+     *
+     * @param inventoryPath
+     *            the names of the objects from the root folder down, separated by "/"
+     * @return the object, or null if there is none at the path.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static ManagedObjectReference findByInventoryPath(VimPortType vimPort,
+            ServiceContent serviceContent, String inventoryPath) throws Exception {
+        return vimPort.findByInventoryPath(serviceContent.getSearchIndex(), inventoryPath);
+    }
+
+    // Retrieves the properties of one object, or returns null if it no longer exists.
+    private static ObjectContent retrieveObject(VimPortType vimPort,
+            ServiceContent serviceContent, ManagedObjectReference objectRef,
+            PropertySpec propertySpec) throws Exception {
+        ObjectSpec oSpec = new ObjectSpec();
+        oSpec.setObj(objectRef);
+        oSpec.setSkip(false);
+
+        PropertyFilterSpec fSpec = new PropertyFilterSpec();
+        fSpec.getObjectSet().add(oSpec);
+        fSpec.getPropSet().add(propertySpec);
+        fSpec.setReportMissingObjectsInResults(true);
+
+        RetrieveResult props = vimPort.retrievePropertiesEx(serviceContent.getPropertyCollector(),
+                Arrays.asList(fSpec), new RetrieveOptions());
+        if (props == null || props.getObjects().isEmpty()) {
+            return null;
+        }
+        // An object deleted meanwhile comes back with no properties, only a missingSet.
+        ObjectContent oc = props.getObjects().get(0);
+        if (oc.getPropSet().isEmpty() && !oc.getMissingSet().isEmpty()) {
+            return null;
+        }
+        return oc;
+    }
+
+    /**
+     * Returns the VirtualMachines with the UUID given, using the server's SearchIndex, so the
+     * server does the lookup and only the matching VMs are returned. If the server does not support
+     * the search (it reports NotSupported), this falls back to building a UuidIndex of all VMs.
+     * Other faults are thrown, so a transient server problem does not turn into a retrieval of
+     * every VM.
+     *
+     * @param uuid
+     *            the UUID to look for
+     * @param instanceUuid
+     *            true to look for an instance UUID (summary.config.instanceUuid), false to look for
+     *            a BIOS UUID (summary.config.uuid)
+     * @return the VMs with the UUID, or an empty list if there are none. An instance UUID matches at
+     *         most one VM, but cloned VMs may share a BIOS UUID.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static List<ManagedObjectReference> findVirtualMachinesByUuid(VimPortType vimPort,
+            ServiceContent serviceContent, String uuid, boolean instanceUuid) throws Exception {
+        try {
+            List<ManagedObjectReference> found = vimPort.findAllByUuid(
+                    serviceContent.getSearchIndex(), null, uuid, true, instanceUuid);
+            if (found == null) {
+                found = new ArrayList<ManagedObjectReference>();
+            }
+            return found;
+        } catch (com.vmware.vim25.RuntimeFaultFaultMsg rffm) {
+            if (!isNotSupported(rffm)) {
+                throw rffm;
+            }
+            return UuidIndex.build(vimPort, serviceContent).find(uuid, instanceUuid);
+        }
+    }
+
+    /**
+     * Returns the VirtualMachines with each of the UUIDs given. Small batches use one SearchIndex
+     * call per UUID. Batches larger than UUID_BATCH_SEARCH_LIMIT (or any batch, if the SearchIndex
+     * cannot be used) are answered from one UuidIndex retrieval instead, which costs the same
+     * however many UUIDs there are. As for a single UUID, only a NotSupported fault from the
+     * SearchIndex makes a small batch fall back to the UuidIndex; other faults are thrown.
+     *
+     * @param uuids
+     *            the UUIDs to look for
+     * @param instanceUuid
+     *            true to look for instance UUIDs, false to look for BIOS UUIDs
+     * @return the VMs with each UUID, in the order given. A UUID with no VM maps to an empty list.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static Map<String, List<ManagedObjectReference>> findVirtualMachinesByUuid(
+            VimPortType vimPort, ServiceContent serviceContent, Collection<String> uuids,
+            boolean instanceUuid) throws Exception {
+        Map<String, List<ManagedObjectReference>> found =
+                new LinkedHashMap<String, List<ManagedObjectReference>>();
+        if (uuids.size() <= UUID_BATCH_SEARCH_LIMIT) {
+            try {
+                for (String uuid : uuids) {
+                    List<ManagedObjectReference> vms = vimPort.findAllByUuid(
+                            serviceContent.getSearchIndex(), null, uuid, true, instanceUuid);
+                    if (vms == null) {
+                        vms = new ArrayList<ManagedObjectReference>();
+                    }
+                    found.put(uuid, vms);
+                }
+                return found;
+            } catch (com.vmware.vim25.RuntimeFaultFaultMsg rffm) {
+                if (!isNotSupported(rffm)) {
+                    throw rffm;
+                }
+                // fall through to the index
+                found.clear();
+            }
+        }
+
+        UuidIndex index = UuidIndex.build(vimPort, serviceContent);
+        for (String uuid : uuids) {
+            found.put(uuid, index.find(uuid, instanceUuid));
+        }
+        return found;
+    }
+
+    /**
+     * Destroys a view in a finally or catch block. An exception from destroyView is ignored, so it
+     * does not replace the exception which is already on its way out; the view goes away with the
+     * session anyway.
+     */
+    static void destroyViewQuietly(VimPortType vimPort, ManagedObjectReference view) {
+        try {
+            vimPort.destroyView(view);
+        } catch (Exception e) {
+            // ignored, see above
+        }
+    }
+
+    // Whether the fault says the server cannot do the search at all, rather than that this one
+    // call failed.
+    private static boolean isNotSupported(com.vmware.vim25.RuntimeFaultFaultMsg rffm) {
+        return rffm.getFaultInfo() instanceof com.vmware.vim25.NotSupported;
+    }
+
+    /**
+     * Returns the first ObjectContent in the list whose "name" property is the name given. The
+     * ObjectContents must have been retrieved with the "name" property.
+     *
+     * @param objects
+     *            the objects to look through
+     * @param name
+     *            the name to look for
+     * @return the first object with the name, or null if there is none.
+     */
+    public static ObjectContent findByName(List<ObjectContent> objects, String name) {
+        for (ObjectContent oc : objects) {
+            List<DynamicProperty> dps = oc.getPropSet();
+            if (dps != null) {
+                for (DynamicProperty dp : dps) {
+                    if (dp.getName().equals("name")) {
+                        // Uncomment the next line if needed to help with troubleshooting
+                        // System.out.printf("found = [%s], looking for [%s]%n", dp.getVal(), name);
+                        if (name.equals(dp.getVal())) {
+                            return oc;
                         }
                     }
                 }
@@ -0,0 +1,478 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.WaitOptions;
+
+/**
+ * Keeps an in-memory copy of some properties of all objects of one type, and keeps it up to date
+ * from the changes the server reports. After start() loads the initial state, the server only
+ * sends what changed (objects entering, leaving, or having a property modified), so lookups are
+ * memory reads and the load on vCenter is a trickle of changes rather than repeated full
+ * retrievals.
+ * <P>
+ * The mirror uses its own PropertyCollector, with one PropertyFilter over a ContainerView of the
+ * root folder (the same traversal FindObjects.findAllObjects uses), so it does not disturb other
+ * users of the session's PropertyCollector.
+ * <P>
+ * Every String-valued property is indexed, so findByProperty (and findByName) do not scan the
+ * mirror. Lookups may be called from any thread. The VimPortType is used by whichever thread calls
+ * update(), so give the mirror a connection of its own.
+ * <P>
+ * Example of use:<br><code>
+ *     InventoryMirror vms = new InventoryMirror(vimPort, serviceContent, "VirtualMachine", "name", "summary.config.instanceUuid");<br>
+ *     vms.start();<br>
+ *     vms.startBackgroundUpdates(60);<br>
+ *     List&lt;InventoryMirror.MirroredObject&gt; found = vms.findByName("web-01");<br>
+ *     ...<br>
+ *     vms.close();<br>
+ * </code>
+ */
+public class InventoryMirror {
+    private final VimPortType vimPort;
+    private final ServiceContent serviceContent;
+    private final String objectType;
+    private final String[] properties;
+
+    private ManagedObjectReference propertyCollector;
+    private ManagedObjectReference containerView;
+    private ManagedObjectReference filter;
+    private String version = "";
+
+    // The mirrored objects, by MoRef key (see ObjectUtils.getMoRefKey). A full load builds new
+    // maps and replaces these when it is done, so readers never see a partly loaded mirror.
+    private Map<String, MirroredObject> objects = new HashMap<String, MirroredObject>();
+    // For each property path, the keys of the objects which have each String value.
+    private Map<String, Map<String, Set<String>>> valueIndexes =
+            new HashMap<String, Map<String, Set<String>>>();
+
+    private volatile boolean running;
+    private Thread updateThread;
+    private volatile Exception lastUpdateException;
+
+    /**
+     * Creates a mirror. Nothing is read from the server until start() is called.
+     *
+     * @param objectType
+     *            the type of the managed objects to mirror, such as "VirtualMachine"
+     * @param properties
+     *            the property paths to mirror for each object
+     */
+    public InventoryMirror(VimPortType vimPort, ServiceContent serviceContent, String objectType,
+            String... properties) {
+        this.vimPort = vimPort;
+        this.serviceContent = serviceContent;
+        this.objectType = objectType;
+        this.properties = properties.clone();
+    }
+
+    /**
+     * Creates the PropertyCollector, ContainerView and PropertyFilter on the server, and loads the
+     * current state of all objects.
+     *
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public void start() throws Exception {
+        propertyCollector = vimPort.createPropertyCollector(serviceContent.getPropertyCollector());
+        containerView = vimPort.createContainerView(serviceContent.getViewManager(),
+                serviceContent.getRootFolder(), Arrays.asList(objectType), true);
+
+        PropertySpec pSpec = ObjectUtils.createPropertySpec(objectType, properties);
+        PropertyFilterSpec fSpec = ObjectUtils.createContainerViewFilterSpec(containerView, pSpec);
+        filter = vimPort.createFilter(propertyCollector, fSpec, true);
+
+        load();
+    }
+
+    /**
+     * Loads the full current state. The first call to waitForUpdatesEx with an empty version
+     * reports every object as entering; a waiting time of zero makes it return at once, and large
+     * inventories arrive in several truncated parts. The state is loaded into new maps, which
+     * replace the current ones only once every part has arrived, so lookups made meanwhile are
+     * answered from the previous state.
+     */
+    private void load() throws Exception {
+        WaitOptions waitOptions = new WaitOptions();
+        waitOptions.setMaxWaitSeconds(0);
+        waitOptions.setMaxObjectUpdates(FindObjects.DEFAULT_PAGE_SIZE);
+        Map<String, MirroredObject> newObjects = new HashMap<String, MirroredObject>();
+        Map<String, Map<String, Set<String>>> newValueIndexes =
+                new HashMap<String, Map<String, Set<String>>>();
+        String newVersion = "";
+        UpdateSet updateSet;
+        do {
+            updateSet = vimPort.waitForUpdatesEx(propertyCollector, newVersion, waitOptions);
+            if (updateSet != null) {
+                apply(updateSet, newObjects, newValueIndexes);
+                newVersion = updateSet.getVersion();
+            }
+        } while (updateSet != null && Boolean.TRUE.equals(updateSet.isTruncated()));
+        synchronized (this) {
+            objects = newObjects;
+            valueIndexes = newValueIndexes;
+            version = newVersion;
+        }
+    }
+
+    /**
+     * Waits for changes from the server and applies them to the mirror.
+     *
+     * @param maxWaitSeconds
+     *            the longest time to wait for a change
+     * @return true if there were changes, false if the time ran out first.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public boolean update(int maxWaitSeconds) throws Exception {
+        WaitOptions waitOptions = new WaitOptions();
+        waitOptions.setMaxWaitSeconds(maxWaitSeconds);
+        waitOptions.setMaxObjectUpdates(FindObjects.DEFAULT_PAGE_SIZE);
+        boolean changed = false;
+        UpdateSet updateSet;
+        do {
+            try {
+                updateSet = vimPort.waitForUpdatesEx(propertyCollector, version, waitOptions);
+            } catch (InvalidCollectorVersionFaultMsg icvfm) {
+                // The server no longer knows our version, so start again from the full state.
+                load();
+                return true;
+            }
+            if (updateSet != null) {
+                apply(updateSet);
+                changed = true;
+                // Collect the rest of a truncated update without waiting.
+                waitOptions.setMaxWaitSeconds(0);
+            }
+        } while (updateSet != null && Boolean.TRUE.equals(updateSet.isTruncated()));
+        return changed;
+    }
+
+    /**
+     * Starts a daemon thread which calls update() until close() is called. If an update fails,
+     * the exception is kept (see getLastUpdateException) and the thread tries again a second
+     * later.
+     *
+     * @param maxWaitSeconds
+     *            the longest time each update waits for a change
+     */
+    public synchronized void startBackgroundUpdates(final int maxWaitSeconds) {
+        if (updateThread != null) {
+            return;
+        }
+        running = true;
+        updateThread = new Thread(new Runnable() {
+            public void run() {
+                while (running) {
+                    try {
+                        update(maxWaitSeconds);
+                        lastUpdateException = null;
+                    } catch (Exception e) {
+                        if (!running) {
+                            break;
+                        }
+                        lastUpdateException = e;
+                        try {
+                            Thread.sleep(1000);
+                        } catch (InterruptedException ie) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }, "InventoryMirror-" + objectType);
+        updateThread.setDaemon(true);
+        updateThread.start();
+    }
+
+    /**
+     * Returns the exception thrown by the last background update, or null if it succeeded.
+     */
+    public Exception getLastUpdateException() {
+        return lastUpdateException;
+    }
+
+    /**
+     * Stops background updates and removes the PropertyFilter, ContainerView and
+     * PropertyCollector from the server.
+     *
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public void close() throws Exception {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = updateThread;
+            updateThread = null;
+        }
+        if (propertyCollector == null) {
+            return;
+        }
+        if (thread != null) {
+            // Wake the update thread out of waitForUpdatesEx.
+            try {
+                vimPort.cancelWaitForUpdates(propertyCollector);
+            } catch (Exception e) {
+                // ignored, it may not have been waiting
+            }
+            thread.join();
+        }
+        // Each object is destroyed even if destroying the one before it failed. If start() failed
+        // part of the way through, the later objects were never created.
+        try {
+            if (filter != null) {
+                vimPort.destroyPropertyFilter(filter);
+                filter = null;
+            }
+        } finally {
+            try {
+                if (containerView != null) {
+                    vimPort.destroyView(containerView);
+                    containerView = null;
+                }
+            } finally {
+                vimPort.destroyPropertyCollector(propertyCollector);
+                propertyCollector = null;
+            }
+        }
+    }
+
+    /**
+     * Applies one set of changes from the server.
+     */
+    private synchronized void apply(UpdateSet updateSet) {
+        apply(updateSet, objects, valueIndexes);
+        version = updateSet.getVersion();
+    }
+
+    /**
+     * Applies one set of changes to the maps given.
+     */
+    private static void apply(UpdateSet updateSet, Map<String, MirroredObject> objects,
+            Map<String, Map<String, Set<String>>> valueIndexes) {
+        if (updateSet.getFilterSet() != null) {
+            for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+                for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet()) {
+                    apply(objectUpdate, objects, valueIndexes);
+                }
+            }
+        }
+    }
+
+    private static void apply(ObjectUpdate objectUpdate, Map<String, MirroredObject> objects,
+            Map<String, Map<String, Set<String>>> valueIndexes) {
+        String key = ObjectUtils.getMoRefKey(objectUpdate.getObj());
+        MirroredObject old = objects.get(key);
+
+        if (objectUpdate.getKind() == ObjectUpdateKind.LEAVE) {
+            if (old != null) {
+                unindex(key, old.properties, valueIndexes);
+                objects.remove(key);
+            }
+            return;
+        }
+
+        // ENTER or MODIFY. Each change makes a new MirroredObject, so readers holding the old
+        // one see a consistent snapshot.
+        Map<String, Object> newProperties = new HashMap<String, Object>();
+        if (old != null && objectUpdate.getKind() == ObjectUpdateKind.MODIFY) {
+            newProperties.putAll(old.properties);
+        }
+        for (PropertyChange change : objectUpdate.getChangeSet()) {
+            if (change.getOp() == PropertyChangeOp.REMOVE
+                    || change.getOp() == PropertyChangeOp.INDIRECT_REMOVE) {
+                newProperties.remove(change.getName());
+            } else {
+                newProperties.put(change.getName(), change.getVal());
+            }
+        }
+        if (old != null) {
+            unindex(key, old.properties, valueIndexes);
+        }
+        objects.put(key, new MirroredObject(objectUpdate.getObj(), newProperties));
+        index(key, newProperties, valueIndexes);
+    }
+
+    private static void index(String key, Map<String, Object> objectProperties,
+            Map<String, Map<String, Set<String>>> valueIndexes) {
+        for (Map.Entry<String, Object> property : objectProperties.entrySet()) {
+            if (property.getValue() instanceof String) {
+                Map<String, Set<String>> valueIndex = valueIndexes.get(property.getKey());
+                if (valueIndex == null) {
+                    valueIndex = new HashMap<String, Set<String>>();
+                    valueIndexes.put(property.getKey(), valueIndex);
+                }
+                Set<String> keys = valueIndex.get(property.getValue());
+                if (keys == null) {
+                    keys = new LinkedHashSet<String>(2);
+                    valueIndex.put((String) property.getValue(), keys);
+                }
+                keys.add(key);
+            }
+        }
+    }
+
+    private static void unindex(String key, Map<String, Object> objectProperties,
+            Map<String, Map<String, Set<String>>> valueIndexes) {
+        for (Map.Entry<String, Object> property : objectProperties.entrySet()) {
+            if (property.getValue() instanceof String) {
+                Map<String, Set<String>> valueIndex = valueIndexes.get(property.getKey());
+                Set<String> keys = valueIndex == null ? null : valueIndex.get(property.getValue());
+                if (keys != null) {
+                    keys.remove(key);
+                    if (keys.isEmpty()) {
+                        valueIndex.remove(property.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the mirrored copy of the object given.
+     *
+     * @param objectRef
+     *            the object to return
+     * @return the object, or null if it is not in the mirror.
+     */
+    public synchronized MirroredObject get(ManagedObjectReference objectRef) {
+        return objects.get(ObjectUtils.getMoRefKey(objectRef));
+    }
+
+    /**
+     * Returns the objects whose String property has the value given. The property must be one of
+     * the properties the mirror was created with.
+     *
+     * @param propertyName
+     *            the property path, such as "summary.config.instanceUuid"
+     * @param value
+     *            the value to look for
+     * @return the objects, or an empty list if there are none.
+     */
+    public synchronized List<MirroredObject> findByProperty(String propertyName, String value) {
+        Map<String, Set<String>> valueIndex = valueIndexes.get(propertyName);
+        Set<String> keys = valueIndex == null ? null : valueIndex.get(value);
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        List<MirroredObject> found = new ArrayList<MirroredObject>(keys.size());
+        for (String key : keys) {
+            found.add(objects.get(key));
+        }
+        return found;
+    }
+
+    /**
+     * Returns the objects with the name given. The mirror must have been created with the "name"
+     * property.
+     *
+     * @param name
+     *            the name to look for
+     * @return the objects, or an empty list if there are none.
+     */
+    public List<MirroredObject> findByName(String name) {
+        return findByProperty("name", name);
+    }
+
+    /**
+     * Returns all mirrored objects.
+     */
+    public synchronized List<MirroredObject> getAll() {
+        return new ArrayList<MirroredObject>(objects.values());
+    }
+
+    /**
+     * Returns the number of mirrored objects.
+     */
+    public synchronized int size() {
+        return objects.size();
+    }
+
+    /**
+     * Returns the PropertyCollector version of the mirror; it changes with every update applied.
+     */
+    public synchronized String getVersion() {
+        return version;
+    }
+
+    /**
+     * A copy of one object and its mirrored properties, as of one version. It is never changed;
+     * later changes on the server produce a new MirroredObject.
+     */
+    public static class MirroredObject {
+        private final ManagedObjectReference obj;
+        private final Map<String, Object> properties;
+
+        MirroredObject(ManagedObjectReference obj, Map<String, Object> properties) {
+            this.obj = obj;
+            this.properties = properties;
+        }
+
+        /**
+         * Returns the Managed Object Reference of the object.
+         */
+        public ManagedObjectReference getObj() {
+            return obj;
+        }
+
+        /**
+         * Returns a property of the object, or null if it is not set.
+         */
+        public Object getPropertyObject(String propertyName) {
+            return properties.get(propertyName);
+        }
+
+        /**
+         * Returns a String property of the object, or null if it is not set.
+         */
+        public String getPropertyValue(String propertyName) {
+            return (String) properties.get(propertyName);
+        }
+
+        /**
+         * Returns all properties of the object, by path.
+         */
+        public Map<String, Object> getProperties() {
+            return Collections.unmodifiableMap(properties);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.List;
+
+import com.vmware.vim25.ObjectContent;
+
+/**
+ * Receives the ObjectContent objects of a paged PropertyCollector retrieval one page at a time,
+ * as each page arrives from the server. Only one page is held in memory at once, so the memory
+ * used depends on the page size and not on the size of the inventory.
+ * <P>
+ * Example of use:<br><code>
+ *     FindObjects.findAllObjects(vimPort, serviceContent, 500, new ObjectContentHandler() {<br>
+ *         public boolean handlePage(List&lt;ObjectContent&gt; page) {<br>
+ *             for (ObjectContent oc : page) { ... }<br>
+ *             return true;<br>
+ *         }<br>
+ *     }, "VirtualMachine", "name");<br>
+ * </code>
+ */
+public interface ObjectContentHandler {
+
+    /**
+     * Handles one page of results.
+     *
+     * @param page
+     *            the ObjectContent objects in this page; never null, but may be empty
+     * @return true to get the next page, or false to stop. If you stop early, the rest of the
+     *         result is cancelled on the server.
+     * @throws Exception
+     *             if an exception occurred; the rest of the result is cancelled on the server.
+     */
+    boolean handlePage(List<ObjectContent> page) throws Exception;
+}
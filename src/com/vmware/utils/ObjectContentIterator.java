@@ -0,0 +1,166 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * Iterates over the result of a paged PropertyCollector retrieval. The next page is fetched from
+ * the server (with continueRetrievePropertiesEx) only when the current page has been used up, so
+ * only one page is held in memory at a time.
+ * <P>
+ * If you stop before the end, call close() so the rest of the result is cancelled on the server,
+ * and the ContainerView it runs over is let go of. Calling close() after the end has been reached
+ * does nothing.
+ * <P>
+ * This object is not thread safe.
+ */
+public class ObjectContentIterator implements Iterator<ObjectContent>, Closeable {
+    private VimPortType vimPort;
+    private ManagedObjectReference propColl;
+    private List<ObjectContent> page;
+    private int index;
+    private String token;
+    private ManagedObjectReference containerView;
+    private ContainerViewCache viewCache;
+
+    /**
+     * Creates an iterator which starts at the first page of a retrieval. Use
+     * FindObjects.iterateAllObjects (or VMwareConnection.iterateAllObjects) to get one.
+     *
+     * @param vimPort
+     *            the port the retrieval was started on
+     * @param propColl
+     *            the PropertyCollector the retrieval was started on
+     * @param firstPage
+     *            the result of retrievePropertiesEx, which may be null if nothing was found
+     * @param containerView
+     *            the ContainerView the retrieval runs over, which is let go of when the iterator
+     *            reaches the end or is closed; or null if there is none
+     * @param viewCache
+     *            the cache the view came from, which it is released to; or null if the view is
+     *            to be destroyed
+     */
+    ObjectContentIterator(VimPortType vimPort, ManagedObjectReference propColl,
+            RetrieveResult firstPage, ManagedObjectReference containerView,
+            ContainerViewCache viewCache) {
+        this.vimPort = vimPort;
+        this.propColl = propColl;
+        this.containerView = containerView;
+        this.viewCache = viewCache;
+        setPage(firstPage);
+        if (token == null) {
+            releaseView();
+        }
+    }
+
+    private void setPage(RetrieveResult result) {
+        index = 0;
+        if (result == null) {
+            page = null;
+            token = null;
+        } else {
+            page = result.getObjects();
+            token = result.getToken();
+        }
+    }
+
+    private void releaseView() {
+        if (containerView != null) {
+            ManagedObjectReference view = containerView;
+            containerView = null;
+            try {
+                if (viewCache != null) {
+                    viewCache.release(view);
+                } else {
+                    vimPort.destroyView(view);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns true if there are more objects, fetching the next page from the server if needed.
+     *
+     * @throws RuntimeException
+     *             this method converts all exceptions it gets into a RuntimeException.
+     */
+    public boolean hasNext() {
+        while (page == null || index >= page.size()) {
+            if (token == null) {
+                return false;
+            }
+            try {
+                setPage(vimPort.continueRetrievePropertiesEx(propColl, token));
+            } catch (Exception e) {
+                token = null;
+                releaseView();
+                throw new RuntimeException(e);
+            }
+            if (token == null) {
+                // That was the last page, so the view is no longer needed.
+                releaseView();
+            }
+        }
+        return true;
+    }
+
+    public ObjectContent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(index++);
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * Cancels the rest of the retrieval on the server, if there is any left, and lets go of the
+     * ContainerView it was running over.
+     */
+    public void close() {
+        page = null;
+        try {
+            if (token != null) {
+                String cancelToken = token;
+                token = null;
+                try {
+                    vimPort.cancelRetrievePropertiesEx(propColl, cancelToken);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        } finally {
+            releaseView();
+        }
+    }
+}
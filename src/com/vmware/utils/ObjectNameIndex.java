@@ -0,0 +1,235 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * An in-memory index from name to Managed Object Reference, for all objects of one type. The index
+ * is built with one paged retrieval of the "name" property, and after that every lookup is a hash
+ * map lookup with no call to the server.
+ * <P>
+ * vSphere allows two objects of the same type to have the same name if they are in different
+ * folders. Such names are kept separately: find() throws an exception for them, findFirst()
+ * returns the first object retrieved with the name, and findAll() returns every object with it.
+ * <P>
+ * The index is a snapshot. Objects created, renamed or deleted after it was built are not seen
+ * until it is built again. Once built, the index is never changed, so it can be shared between
+ * threads.
+ * <P>
+ * Example of use:<br><code>
+ *     ObjectNameIndex vms = ObjectNameIndex.build(vimPort, serviceContent, "VirtualMachine");<br>
+ *     ManagedObjectReference vmMOR = vms.find("web-01");<br>
+ * </code>
+ */
+public class ObjectNameIndex {
+    private final String objectType;
+    private final long buildTime;
+    // Names used by exactly one object, which is almost all of them.
+    private final Map<String, ManagedObjectReference> uniqueNames;
+    // Names used by more than one object.
+    private final Map<String, List<ManagedObjectReference>> duplicateNames;
+
+    private ObjectNameIndex(String objectType, Map<String, ManagedObjectReference> uniqueNames,
+            Map<String, List<ManagedObjectReference>> duplicateNames) {
+        this.objectType = objectType;
+        this.buildTime = System.currentTimeMillis();
+        this.uniqueNames = uniqueNames;
+        this.duplicateNames = duplicateNames;
+    }
+
+    /**
+     * Builds an index of all objects of the type given.
+     *
+     * @param objectType
+     *            the type of the managed objects to index, such as "VirtualMachine"
+     * @return the new index.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static ObjectNameIndex build(VimPortType vimPort, ServiceContent serviceContent,
+            String objectType) throws Exception {
+        ManagedObjectReference cViewRef = vimPort.createContainerView(
+                serviceContent.getViewManager(), serviceContent.getRootFolder(),
+                Arrays.asList(objectType), true);
+        try {
+            return build(vimPort, serviceContent.getPropertyCollector(), cViewRef, objectType);
+        } finally {
+            FindObjects.destroyViewQuietly(vimPort, cViewRef);
+        }
+    }
+
+    /**
+     * Builds an index of all objects of the type given in a ContainerView which the caller
+     * already has. The view is not destroyed.
+     *
+     * @param propColl
+     *            the PropertyCollector to use
+     * @param containerView
+     *            the ContainerView to index the objects of
+     * @param objectType
+     *            the type of the managed objects to index, such as "VirtualMachine"
+     * @return the new index.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static ObjectNameIndex build(VimPortType vimPort, ManagedObjectReference propColl,
+            ManagedObjectReference containerView, String objectType) throws Exception {
+        final Map<String, ManagedObjectReference> uniqueNames =
+                new HashMap<String, ManagedObjectReference>();
+        final Map<String, List<ManagedObjectReference>> duplicateNames =
+                new HashMap<String, List<ManagedObjectReference>>();
+
+        FindObjects.findAllObjectsInView(vimPort, propColl, containerView,
+                FindObjects.DEFAULT_PAGE_SIZE, new ObjectContentHandler() {
+                    public boolean handlePage(List<ObjectContent> page) {
+                        for (ObjectContent oc : page) {
+                            String name = ObjectUtils.getPropertyValue(oc, "name");
+                            if (name == null) {
+                                continue;
+                            }
+                            List<ManagedObjectReference> sameName = duplicateNames.get(name);
+                            if (sameName != null) {
+                                sameName.add(oc.getObj());
+                                continue;
+                            }
+                            ManagedObjectReference first = uniqueNames.put(name, oc.getObj());
+                            if (first != null) {
+                                // Second object with this name: move the name over.
+                                uniqueNames.remove(name);
+                                sameName = new ArrayList<ManagedObjectReference>(2);
+                                sameName.add(first);
+                                sameName.add(oc.getObj());
+                                duplicateNames.put(name, sameName);
+                            }
+                        }
+                        return true;
+                    }
+                }, objectType, "name");
+
+        return new ObjectNameIndex(objectType, uniqueNames, duplicateNames);
+    }
+
+    /**
+     * Returns the type of the objects in this index.
+     */
+    public String getObjectType() {
+        return objectType;
+    }
+
+    /**
+     * Returns the time this index was built, in milliseconds, as from System.currentTimeMillis().
+     */
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * Returns the number of objects in this index.
+     */
+    public int size() {
+        int size = uniqueNames.size();
+        for (List<ManagedObjectReference> sameName : duplicateNames.values()) {
+            size += sameName.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the object with the name given.
+     *
+     * @param name
+     *            the name of the object
+     * @return the object, or null if there is no object with that name.
+     * @throws RuntimeException
+     *             if more than one object has that name. Use findAll() for such names.
+     */
+    public ManagedObjectReference find(String name) {
+        ManagedObjectReference found = uniqueNames.get(name);
+        if (found == null && duplicateNames.containsKey(name)) {
+            throw new RuntimeException("There are " + duplicateNames.get(name).size() + " "
+                    + objectType + " objects named " + name + ", so the name does not identify one.");
+        }
+        return found;
+    }
+
+    /**
+     * Returns the object with the name given, or the first one retrieved if more than one object
+     * has that name.
+     *
+     * @param name
+     *            the name of the object
+     * @return the object, or null if there is no object with that name.
+     */
+    public ManagedObjectReference findFirst(String name) {
+        ManagedObjectReference found = uniqueNames.get(name);
+        if (found == null) {
+            List<ManagedObjectReference> sameName = duplicateNames.get(name);
+            if (sameName != null) {
+                found = sameName.get(0);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns all objects with the name given.
+     *
+     * @param name
+     *            the name of the objects
+     * @return the objects, or an empty list if there is no object with that name.
+     */
+    public List<ManagedObjectReference> findAll(String name) {
+        ManagedObjectReference found = uniqueNames.get(name);
+        if (found != null) {
+            return Collections.singletonList(found);
+        }
+        List<ManagedObjectReference> sameName = duplicateNames.get(name);
+        if (sameName != null) {
+            return Collections.unmodifiableList(sameName);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns true if more than one object has the name given.
+     */
+    public boolean isDuplicate(String name) {
+        return duplicateNames.containsKey(name);
+    }
+
+    /**
+     * Returns the names which are used by more than one object.
+     */
+    public Set<String> getDuplicateNames() {
+        return Collections.unmodifiableSet(duplicateNames.keySet());
+    }
+}
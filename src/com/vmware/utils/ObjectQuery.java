@@ -0,0 +1,435 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vmware.vim25.ArrayOfManagedObjectReference;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.SelectionSpec;
+import com.vmware.vim25.TraversalSpec;
+
+/**
+ * Retrieves objects of one type together with the objects they refer to, such as each VM with its
+ * host, the host's cluster and the VM's datastores, in a few retrievals per page instead of one
+ * retrieval per relationship per object. Create one with VMwareConnection.createQuery.
+ * <P>
+ * Each page of the objects asked for is retrieved with the properties asked for plus the
+ * properties the relationships need. Then the objects they refer to which have not been seen yet
+ * in this run are retrieved all together in one more retrieval. Relationships whose property is
+ * a top-level property (such as "parent" or "datastore") are followed on the server in that same
+ * retrieval with TraversalSpecs, so a chain such as VM to host to cluster costs one retrieval.
+ * The PropertyCollector can not traverse a nested property (such as "runtime.host"), so objects
+ * reached only through one are retrieved in a further round. Objects referred to by many others,
+ * such as hosts and datastores, are retrieved only once in a run. So a page of VMs typically costs
+ * two retrievals, and later pages one.
+ * <P>
+ * The objects are then joined on the client: getRelated on a JoinedObject returns the object a
+ * property refers to. The UUID of the vCenter needs no retrieval at all: it is in
+ * getServiceContent().getAbout().
+ * <P>
+ * Example of use:<br><code>
+ *     List&lt;ObjectQuery.JoinedObject&gt; vms = conn.createQuery("VirtualMachine", "name")<br>
+ *             .follow("runtime.host", "HostSystem", "name")<br>
+ *             .follow("HostSystem", "parent", "ComputeResource", "name")<br>
+ *             .follow("datastore", "Datastore", "name")<br>
+ *             .run();<br>
+ *     for (ObjectQuery.JoinedObject vm : vms) {<br>
+ *         ObjectQuery.JoinedObject host = vm.getRelated("runtime.host");<br>
+ *         String cluster = host.getRelated("parent").getPropertyValue("name");<br>
+ *         ...<br>
+ *     }<br>
+ * </code>
+ * <P>
+ * A query is not thread safe, but can be run many times.
+ */
+public class ObjectQuery {
+
+    private final VMwareConnection conn;
+    private final String objectType;
+    private ManagedObjectReference container;
+    private boolean recursive = true;
+    // The properties to retrieve for each type, including the ones relationships need.
+    private final Map<String, Set<String>> properties = new LinkedHashMap<String, Set<String>>();
+    private final List<Relationship> relationships = new ArrayList<Relationship>();
+
+    // The related objects retrieved during a run, by MoRef key. An object which no longer exists
+    // maps to null.
+    private Map<String, ObjectContent> related;
+
+    private static class Relationship {
+        String fromType;
+        String path;
+    }
+
+    /**
+     * Receives the results of a query a page at a time.
+     */
+    public interface PageHandler {
+        /**
+         * Handles one page of results.
+         *
+         * @param page
+         *            the objects of the page, joined with the objects they refer to
+         * @return true to go on to the next page, false to stop.
+         * @throws Exception
+         *             to stop the query with an exception
+         */
+        boolean handlePage(List<JoinedObject> page) throws Exception;
+    }
+
+    ObjectQuery(VMwareConnection conn, String objectType, String... properties) {
+        this.conn = conn;
+        this.objectType = objectType;
+        addProperties(objectType, properties);
+    }
+
+    /**
+     * Only returns the objects inside a container, rather than in the whole inventory.
+     *
+     * @param container
+     *            the Folder, Datacenter, ComputeResource, ResourcePool or HostSystem to look in
+     * @param recursive
+     *            true to include objects in the container's descendants, not just its children
+     * @return this query.
+     */
+    public ObjectQuery in(ManagedObjectReference container, boolean recursive) {
+        this.container = container;
+        this.recursive = recursive;
+        return this;
+    }
+
+    /**
+     * Also retrieves the objects a property of the objects of the query refers to.
+     *
+     * @param path
+     *            the property, whose value is a ManagedObjectReference or an array of them, such
+     *            as "runtime.host" or "datastore"
+     * @param relatedType
+     *            the type of the objects it refers to
+     * @param relatedProperties
+     *            the properties to retrieve for them
+     * @return this query.
+     */
+    public ObjectQuery follow(String path, String relatedType, String... relatedProperties) {
+        return follow(objectType, path, relatedType, relatedProperties);
+    }
+
+    /**
+     * Also retrieves the objects a property of objects of another type refers to, where objects of
+     * that type are themselves retrieved by another relationship; for example the cluster of the
+     * host of a VM.
+     *
+     * @param fromType
+     *            the type which has the property; a relationship from "ComputeResource" also
+     *            applies to ClusterComputeResources, and one from "ManagedEntity" to all entities
+     * @param path
+     *            the property, whose value is a ManagedObjectReference or an array of them
+     * @param relatedType
+     *            the type of the objects it refers to
+     * @param relatedProperties
+     *            the properties to retrieve for them
+     * @return this query.
+     */
+    public ObjectQuery follow(String fromType, String path, String relatedType,
+            String... relatedProperties) {
+        Relationship relationship = new Relationship();
+        relationship.fromType = fromType;
+        relationship.path = path;
+        relationships.add(relationship);
+        addProperties(fromType, path);
+        addProperties(relatedType, relatedProperties);
+        return this;
+    }
+
+    private void addProperties(String type, String... paths) {
+        Set<String> typeProperties = properties.get(type);
+        if (typeProperties == null) {
+            typeProperties = new LinkedHashSet<String>();
+            properties.put(type, typeProperties);
+        }
+        Collections.addAll(typeProperties, paths);
+    }
+
+    /**
+     * Runs the query and returns all the results.
+     *
+     * @return the objects, each joined with the objects it refers to.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public List<JoinedObject> run() throws Exception {
+        final List<JoinedObject> results = new ArrayList<JoinedObject>();
+        run(FindObjects.DEFAULT_PAGE_SIZE, new PageHandler() {
+            public boolean handlePage(List<JoinedObject> page) {
+                results.addAll(page);
+                return true;
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Runs the query, and hands the results to the handler a page at a time. Each page is joined
+     * with the objects it refers to before it is handed over.
+     *
+     * @param pageSize
+     *            the largest number of objects of the query in one page
+     * @param handler
+     *            receives each page; it can return false to stop early
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public void run(int pageSize, final PageHandler handler) throws Exception {
+        related = new HashMap<String, ObjectContent>();
+        ManagedObjectReference root = container != null ? container : conn.getServiceContent()
+                .getRootFolder();
+        conn.findAllObjects(root, recursive, pageSize, new ObjectContentHandler() {
+            public boolean handlePage(List<ObjectContent> page) throws Exception {
+                retrieveRelated(page);
+                List<JoinedObject> joined = new ArrayList<JoinedObject>(page.size());
+                for (ObjectContent oc : page) {
+                    joined.add(new JoinedObject(oc, related));
+                }
+                return handler.handlePage(joined);
+            }
+        }, createPropertySpec(objectType));
+    }
+
+    private PropertySpec createPropertySpec(String type) {
+        Set<String> paths = properties.get(type);
+        return ObjectUtils.createPropertySpec(type, paths.toArray(new String[paths.size()]));
+    }
+
+    /**
+     * Retrieves the objects which the objects given refer to, and the ones those refer to, and so
+     * on, unless they were retrieved before.
+     */
+    private void retrieveRelated(List<ObjectContent> objects) throws Exception {
+        List<ObjectContent> pending = objects;
+        while (!pending.isEmpty()) {
+            List<ManagedObjectReference> needed = new ArrayList<ManagedObjectReference>();
+            Set<String> neededKeys = new HashSet<String>();
+            for (ObjectContent oc : pending) {
+                for (Relationship relationship : relationships) {
+                    if (!isA(oc.getObj().getType(), relationship.fromType)) {
+                        continue;
+                    }
+                    for (ManagedObjectReference ref : getRefs(oc, relationship.path)) {
+                        String key = ObjectUtils.getMoRefKey(ref);
+                        if (!related.containsKey(key) && neededKeys.add(key)) {
+                            needed.add(ref);
+                        }
+                    }
+                }
+            }
+            if (needed.isEmpty()) {
+                return;
+            }
+
+            final List<ObjectContent> retrieved = new ArrayList<ObjectContent>();
+            FindObjects.retrievePages(conn.getVimPort(), conn.getPropertyCollector(),
+                    createRelatedFilterSpecs(needed), FindObjects.DEFAULT_PAGE_SIZE,
+                    new ObjectContentHandler() {
+                        public boolean handlePage(List<ObjectContent> page) {
+                            retrieved.addAll(page);
+                            return true;
+                        }
+                    });
+            pending = new ArrayList<ObjectContent>();
+            for (ObjectContent oc : retrieved) {
+                String key = ObjectUtils.getMoRefKey(oc.getObj());
+                // An object deleted meanwhile comes back with no properties, only a missingSet.
+                if (oc.getPropSet().isEmpty() && !oc.getMissingSet().isEmpty()) {
+                    related.put(key, null);
+                } else if (!related.containsKey(key)) {
+                    related.put(key, oc);
+                    pending.add(oc);
+                }
+            }
+            for (String key : neededKeys) {
+                if (!related.containsKey(key)) {
+                    related.put(key, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the filter spec which retrieves the objects given, and follows the relationships
+     * along top-level properties from them on the server.
+     */
+    private List<PropertyFilterSpec> createRelatedFilterSpecs(List<ManagedObjectReference> objects) {
+        List<TraversalSpec> traversals = new ArrayList<TraversalSpec>();
+        for (Relationship relationship : relationships) {
+            if (relationship.path.contains(".")) {
+                continue;
+            }
+            TraversalSpec tSpec = new TraversalSpec();
+            tSpec.setName("follow" + traversals.size());
+            tSpec.setType(relationship.fromType);
+            tSpec.setPath(relationship.path);
+            tSpec.setSkip(false);
+            traversals.add(tSpec);
+        }
+        // From each object reached, follow every relationship again.
+        for (TraversalSpec tSpec : traversals) {
+            for (TraversalSpec next : traversals) {
+                SelectionSpec sSpec = new SelectionSpec();
+                sSpec.setName(next.getName());
+                tSpec.getSelectSet().add(sSpec);
+            }
+        }
+
+        PropertyFilterSpec fSpec = new PropertyFilterSpec();
+        for (ManagedObjectReference object : objects) {
+            ObjectSpec oSpec = new ObjectSpec();
+            oSpec.setObj(object);
+            oSpec.setSkip(false);
+            oSpec.getSelectSet().addAll(traversals);
+            fSpec.getObjectSet().add(oSpec);
+        }
+        for (String type : properties.keySet()) {
+            if (!type.equals(objectType)) {
+                fSpec.getPropSet().add(createPropertySpec(type));
+            }
+        }
+        // Do not fail if an object was deleted after the object referring to it was retrieved.
+        fSpec.setReportMissingObjectsInResults(true);
+
+        List<PropertyFilterSpec> fSpecList = new ArrayList<PropertyFilterSpec>();
+        fSpecList.add(fSpec);
+        return fSpecList;
+    }
+
+    /**
+     * Returns the ManagedObjectReferences in a property whose value is one, or an array of them.
+     */
+    static List<ManagedObjectReference> getRefs(ObjectContent oc, String path) {
+        Object value = ObjectUtils.getPropertyObject(oc, path);
+        if (value instanceof ManagedObjectReference) {
+            return Collections.singletonList((ManagedObjectReference) value);
+        } else if (value instanceof ArrayOfManagedObjectReference) {
+            return ((ArrayOfManagedObjectReference) value).getManagedObjectReference();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns true if objects of the type are of the wanted type, including the subtypes which
+     * relationships are usually followed from.
+     */
+    static boolean isA(String type, String wanted) {
+        if (type.equals(wanted) || wanted.equals("ManagedEntity")) {
+            return true;
+        }
+        return (wanted.equals("ComputeResource") && type.equals("ClusterComputeResource"))
+                || (wanted.equals("ResourcePool") && type.equals("VirtualApp"))
+                || (wanted.equals("Folder") && type.equals("StoragePod"))
+                || (wanted.equals("Network") && (type.equals("DistributedVirtualPortgroup") || type
+                        .equals("OpaqueNetwork")));
+    }
+
+    /**
+     * An object returned by a query, with the objects it refers to.
+     */
+    public static class JoinedObject {
+        private final ObjectContent content;
+        private final Map<String, ObjectContent> related;
+
+        JoinedObject(ObjectContent content, Map<String, ObjectContent> related) {
+            this.content = content;
+            this.related = related;
+        }
+
+        /**
+         * Returns the ObjectContent of the object, as it was retrieved.
+         */
+        public ObjectContent getContent() {
+            return content;
+        }
+
+        /**
+         * Returns the Managed Object Reference of the object.
+         */
+        public ManagedObjectReference getObj() {
+            return content.getObj();
+        }
+
+        /**
+         * Returns the value of a property of the object, as a string; see
+         * ObjectUtils.getPropertyValue.
+         */
+        public String getPropertyValue(String path) {
+            return ObjectUtils.getPropertyValue(content, path);
+        }
+
+        /**
+         * Returns the value of a property of the object; see ObjectUtils.getPropertyObject.
+         */
+        public Object getPropertyObject(String path) {
+            return ObjectUtils.getPropertyObject(content, path);
+        }
+
+        /**
+         * Returns the object a property of this object refers to, such as the host of a VM from
+         * "runtime.host". For a property which is an array, returns the first object.
+         *
+         * @param path
+         *            a property the query follows
+         * @return the object, or null if the property is not set or the object no longer exists.
+         */
+        public JoinedObject getRelated(String path) {
+            List<JoinedObject> all = getAllRelated(path);
+            return all.isEmpty() ? null : all.get(0);
+        }
+
+        /**
+         * Returns the objects a property of this object refers to, such as the datastores of a VM
+         * from "datastore".
+         *
+         * @param path
+         *            a property the query follows
+         * @return the objects which still exist, in the order of the property's value.
+         */
+        public List<JoinedObject> getAllRelated(String path) {
+            List<JoinedObject> all = new ArrayList<JoinedObject>();
+            for (ManagedObjectReference ref : getRefs(content, path)) {
+                ObjectContent oc = related.get(ObjectUtils.getMoRefKey(ref));
+                if (oc != null) {
+                    all.add(new JoinedObject(oc, related));
+                }
+            }
+            return all;
+        }
+    }
+}
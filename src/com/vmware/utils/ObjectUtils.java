@@ -19,6 +19,7 @@
 
 package com.vmware.utils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -79,6 +80,55 @@ public class ObjectUtils {
         return spec;
     }
 
+    /**
+     * Creates a PropertyFilterSpec which selects every object in a ContainerView (but not the view
+     * itself), and returns the properties in the PropertySpecs for each of them. Give one
+     * PropertySpec for each type of object in the view; objects of a type with no PropertySpec are
+     * not returned.
+     *
+     * @param containerView
+     *            the ContainerView to start the traversal from
+     * @param pSpecs
+     *            the properties to return for the objects in the view
+     * @return The newly created PropertyFilterSpec.
+     */
+    public static PropertyFilterSpec createContainerViewFilterSpec(
+            ManagedObjectReference containerView, PropertySpec... pSpecs) {
+        // The container view is the root object for this traversal, but is not itself returned.
+        com.vmware.vim25.ObjectSpec oSpec = new com.vmware.vim25.ObjectSpec();
+        oSpec.setObj(containerView);
+        oSpec.setSkip(true);
+
+        // Select all objects in the view.
+        com.vmware.vim25.TraversalSpec tSpec = new com.vmware.vim25.TraversalSpec();
+        tSpec.setName("traverseEntities");
+        tSpec.setPath("view");
+        tSpec.setSkip(false);
+        tSpec.setType("ContainerView");
+        oSpec.getSelectSet().add(tSpec);
+
+        PropertyFilterSpec fSpec = new PropertyFilterSpec();
+        fSpec.getObjectSet().add(oSpec);
+        for (PropertySpec pSpec : pSpecs) {
+            fSpec.getPropSet().add(pSpec);
+        }
+        return fSpec;
+    }
+
+    /**
+     * Returns the types of the PropertySpecs, each once, in the order of the PropertySpecs; for
+     * example the types to create a ContainerView with.
+     */
+    public static List<String> getPropertySpecTypes(PropertySpec... pSpecs) {
+        List<String> types = new ArrayList<String>();
+        for (PropertySpec pSpec : pSpecs) {
+            if (!types.contains(pSpec.getType())) {
+                types.add(pSpec.getType());
+            }
+        }
+        return types;
+    }
+
     /**
      * Prints out a Managed Object Reference. Prints out the MOR in this format: text: [type:value]
      * where text is the first argument and type and name come from the MOR. This function is
@@ -127,6 +177,19 @@ public class ObjectUtils {
         return moref;
     }
 
+    /**
+     * Returns a string which identifies a Managed Object Reference, in the form "type:value", for
+     * use as a key in maps. ManagedObjectReference itself can not be used as a key, because it
+     * does not define equals() or hashCode().
+     *
+     * @param MOR
+     *            the Managed Object Reference
+     * @return the key for the MOR.
+     */
+    public static String getMoRefKey(ManagedObjectReference MOR) {
+        return MOR.getType() + ":" + MOR.getValue();
+    }
+
     /**
      * Returns a specific property from an ObjectContent object, if that property is a
      * String. This method can only return properties that were fetched from the server when the OC
@@ -134,7 +197,8 @@ public class ObjectUtils {
      * thrown if the property is not a String. <i>Note: if you are writing a lot of Java code to
      * work with ObjectContents, you may want to create a child class called "MyObjectContent" (or
      * similar) and have this method be a class method on your new class. That's a more object
-     * oriented design than used here.</i>
+     * oriented design than used here.</i> The properties are searched one by one, unless the
+     * ObjectContent is an IndexedObjectContent.
      *
      * @param objectContent
      *            the object to get the property from
@@ -143,6 +207,9 @@ public class ObjectUtils {
      * @return the object named in the parameter, if the object has it, or null if not.
      */
     public static String getPropertyValue(ObjectContent objectContent, String propertyName) {
+        if (objectContent instanceof IndexedObjectContent) {
+            return ((IndexedObjectContent) objectContent).getPropertyValue(propertyName);
+        }
         List<com.vmware.vim25.DynamicProperty> dps = objectContent.getPropSet();
         if (dps != null) {
             for (DynamicProperty dp : dps) {
@@ -165,7 +232,9 @@ public class ObjectUtils {
      * ObjectContent cluster;<br>
      * ...<br>
      * String clusterName = (String) ObjectUtils.getPropertyObject(cluster, "name");
-     * </code>
+     * </code><p>
+     * The properties are searched one by one, unless the ObjectContent is an
+     * IndexedObjectContent.
      *
      * @param objectContent
      *            the object to get the property from
@@ -174,6 +243,9 @@ public class ObjectUtils {
      * @return the object named in the parameter, if the object has it, or null if not.
      */
     public static Object getPropertyObject(ObjectContent objectContent, String propertyName) {
+        if (objectContent instanceof IndexedObjectContent) {
+            return ((IndexedObjectContent) objectContent).getPropertyObject(propertyName);
+        }
         List<DynamicProperty> dps = objectContent.getPropSet();
         if (dps != null) {
             for (DynamicProperty dp : dps) {
@@ -0,0 +1,338 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.MessageContext;
+
+import com.vmware.vim25.ServiceContent;
+
+/**
+ * A vCenter session saved to a file, so that the next program to connect as the same user can
+ * use it again instead of logging in. Logging in goes through SSO and can take most of a second,
+ * while checking that a saved session is still logged in is one cheap call.
+ * <P>
+ * The file holds the URL of the server, the user's name, the session cookie
+ * (vmware_soap_session) and the ServiceContent, so neither the login nor RetrieveServiceContent
+ * is needed. The session cookie lets anyone who has it act as the user until the session
+ * expires, so the file is only readable by its owner; keep it somewhere private.
+ * <P>
+ * Example of use:<br><code>
+ *     SavedSession saved = SavedSession.load(file);<br>
+ *     if (saved != null &amp;&amp; saved.isFor(url, userName)) {<br>
+ *         SavedSession.setSessionCookie(vimPort, saved.getCookie());<br>
+ *         ...<br>
+ *     }<br>
+ * </code>
+ */
+public class SavedSession {
+
+    /**
+     * The name of the cookie vCenter keeps the session in.
+     */
+    public static final String SESSION_COOKIE_NAME = "vmware_soap_session";
+
+    private static final QName SERVICE_CONTENT_NAME = new QName("urn:vim25", "ServiceContent");
+
+    // Built on first use; JAXBContexts are thread safe.
+    private static JAXBContext jaxbContext;
+
+    private final String url;
+    private final String userName;
+    private final String cookie;
+    private final ServiceContent serviceContent;
+
+    /**
+     * Creates a saved session.
+     *
+     * @param url
+     *            the URL of the web services endpoint of the server
+     * @param userName
+     *            the name of the user logged in
+     * @param cookie
+     *            the session cookie, as from getSessionCookie
+     * @param serviceContent
+     *            the ServiceContent of the server
+     */
+    public SavedSession(String url, String userName, String cookie, ServiceContent serviceContent) {
+        this.url = url;
+        this.userName = userName;
+        this.cookie = cookie;
+        this.serviceContent = serviceContent;
+    }
+
+    /**
+     * Returns the URL of the web services endpoint of the server.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the name of the user logged in.
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Returns the session cookie, such as <code>vmware_soap_session="52a3..."</code>.
+     */
+    public String getCookie() {
+        return cookie;
+    }
+
+    /**
+     * Returns the ServiceContent of the server.
+     */
+    public ServiceContent getServiceContent() {
+        return serviceContent;
+    }
+
+    /**
+     * Returns true if this session was saved for the server URL and user given.
+     */
+    public boolean isFor(String url, String userName) {
+        return this.url.equals(url) && this.userName.equals(userName);
+    }
+
+    /**
+     * Reads a saved session from a file.
+     *
+     * @param file
+     *            the file written by save()
+     * @return the session, or null if the file does not exist or can not be read.
+     */
+    public static SavedSession load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            String url = properties.getProperty("url");
+            String userName = properties.getProperty("userName");
+            String cookie = properties.getProperty("cookie");
+            String serviceContentXml = properties.getProperty("serviceContent");
+            if (url == null || userName == null || cookie == null || serviceContentXml == null) {
+                return null;
+            }
+            ServiceContent serviceContent = getJaxbContext().createUnmarshaller().unmarshal(
+                    new StreamSource(new StringReader(serviceContentXml)), ServiceContent.class)
+                    .getValue();
+            return new SavedSession(url, userName, cookie, serviceContent);
+        } catch (IOException e) {
+            return null;
+        } catch (JAXBException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            // A malformed Unicode escape in the file.
+            return null;
+        }
+    }
+
+    /**
+     * Writes this session to a file, replacing what was in it. The file is made readable and
+     * writable by its owner only. It is written as a new file with a random name in the same
+     * directory, which is created with those permissions before anything is written to it, and
+     * then moved over the file given.
+     *
+     * @param file
+     *            the file to write
+     * @throws IOException
+     *             if the file could not be written, or could not be made private to its owner
+     */
+    public void save(File file) throws IOException {
+        StringWriter serviceContentXml = new StringWriter();
+        try {
+            getJaxbContext().createMarshaller().marshal(
+                    new JAXBElement<ServiceContent>(SERVICE_CONTENT_NAME, ServiceContent.class,
+                            serviceContent), serviceContentXml);
+        } catch (JAXBException e) {
+            throw new IOException("Could not write the ServiceContent.", e);
+        }
+        Properties properties = new Properties();
+        properties.setProperty("url", url);
+        properties.setProperty("userName", userName);
+        properties.setProperty("cookie", cookie);
+        properties.setProperty("serviceContent", serviceContentXml.toString());
+
+        // The new file must be private before the cookie is written to it. createTempFile never
+        // opens an existing file or follows a link, so nothing planted in the directory is used.
+        Path target = file.getAbsoluteFile().toPath();
+        Path temporary = createPrivateFile(target);
+        boolean moved = false;
+        try {
+            OutputStream out = Files.newOutputStream(temporary);
+            try {
+                properties.store(out, "vCenter session of " + userName + " on " + url);
+            } finally {
+                out.close();
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Creates an empty file next to the file given which only its owner can read or write: with
+     * mode rw------- where there are POSIX permissions, or else with an ACL which allows only the
+     * owner.
+     */
+    private static Path createPrivateFile(Path target) throws IOException {
+        Path directory = target.getParent();
+        String prefix = target.getFileName() + ".";
+        if (target.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return Files.createTempFile(directory, prefix, ".tmp", PosixFilePermissions
+                    .asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        Path temporary = Files.createTempFile(directory, prefix, ".tmp");
+        try {
+            AclFileAttributeView aclView = Files.getFileAttributeView(temporary,
+                    AclFileAttributeView.class);
+            if (aclView == null) {
+                throw new IOException("Could not make " + temporary
+                        + " private: the file system has neither POSIX permissions nor ACLs.");
+            }
+            AclEntry ownerOnly = AclEntry.newBuilder().setType(AclEntryType.ALLOW)
+                    .setPrincipal(Files.getOwner(temporary))
+                    .setPermissions(EnumSet.allOf(AclEntryPermission.class)).build();
+            aclView.setAcl(Collections.singletonList(ownerOnly));
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        return temporary;
+    }
+
+    /**
+     * Returns the session cookie the server set in its response to the last call made with a
+     * port, normally the Login.
+     *
+     * @param vimPort
+     *            the port the call was made with
+     * @return the cookie, such as <code>vmware_soap_session="52a3..."</code>, or null if the
+     *         server did not set one.
+     */
+    @SuppressWarnings("unchecked")
+    public static String getSessionCookie(Object vimPort) {
+        Map<String, List<String>> headers = (Map<String, List<String>>) ((BindingProvider) vimPort)
+                .getResponseContext().get(MessageContext.HTTP_RESPONSE_HEADERS);
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if ("Set-Cookie".equalsIgnoreCase(header.getKey())) {
+                String cookie = findSessionCookie(header.getValue());
+                if (cookie != null) {
+                    return cookie;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the session cookie in the values of Set-Cookie headers, or null if there is none.
+     */
+    static String findSessionCookie(List<String> setCookieValues) {
+        for (String value : setCookieValues) {
+            // Such as: vmware_soap_session="52a3..."; Path=/; HttpOnly; Secure;
+            int start = value.indexOf(SESSION_COOKIE_NAME + "=");
+            if (start >= 0) {
+                int end = value.indexOf(';', start);
+                return value.substring(start, end >= 0 ? end : value.length()).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Makes a port send a session cookie with every call, so the calls are made in that session
+     * instead of the port's own. Call with null to stop sending it.
+     *
+     * @param vimPort
+     *            the port to make the calls with
+     * @param cookie
+     *            the cookie, as from getSessionCookie, or null
+     */
+    @SuppressWarnings("unchecked")
+    public static void setSessionCookie(Object vimPort, String cookie) {
+        Map<String, Object> ctxt = ((BindingProvider) vimPort).getRequestContext();
+        // Keep the other headers, such as those of ConnectionOptions.
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        Map<String, List<String>> oldHeaders = (Map<String, List<String>>) ctxt
+                .get(MessageContext.HTTP_REQUEST_HEADERS);
+        if (oldHeaders != null) {
+            headers.putAll(oldHeaders);
+        }
+        if (cookie == null) {
+            headers.remove("Cookie");
+        } else {
+            headers.put("Cookie", Collections.singletonList(cookie));
+        }
+        ctxt.put(MessageContext.HTTP_REQUEST_HEADERS, headers);
+    }
+
+    private static synchronized JAXBContext getJaxbContext() throws JAXBException {
+        if (jaxbContext == null) {
+            // Only the classes ServiceContent refers to, which is much quicker than all of vim25.
+            jaxbContext = JAXBContext.newInstance(ServiceContent.class);
+        }
+        return jaxbContext;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.vmware.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes concurrent calls with the same key share one call. The first thread to ask for a key
+ * makes the call; threads which ask for the same key while it is running wait for it and get the
+ * same result, or the same exception. Once the call has finished the next request for the key
+ * makes a new call, so nothing is cached.
+ * <P>
+ * The waiting threads all get the same result object, so it must not be changed by any of them.
+ * <P>
+ * Example of use:<br><code>
+ *     SingleFlight&lt;String, ObjectContent&gt; flights = new SingleFlight&lt;String, ObjectContent&gt;();<br>
+ *     ObjectContent vm = flights.execute(vmName, new Callable&lt;ObjectContent&gt;() {<br>
+ *         public ObjectContent call() throws Exception {<br>
+ *             return conn.findObject("VirtualMachine", vmName, "runtime.host");<br>
+ *         }<br>
+ *     });<br>
+ * </code>
+ *
+ * @param <K>
+ *            the type of the keys, which must have equals and hashCode
+ * @param <V>
+ *            the type of the results
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight =
+            new ConcurrentHashMap<K, CompletableFuture<V>>();
+    private final AtomicLong issuedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Returns the result of the call for the key, making the call unless one for the same key is
+     * already running, in which case this waits for that call instead.
+     *
+     * @param key
+     *            identifies calls which would return the same result
+     * @param call
+     *            the call to make if none is running for the key
+     * @return the result of the call.
+     * @throws Exception
+     *             if the call threw an exception, or if the thread was interrupted while waiting
+     */
+    public V execute(K key, Callable<V> call) throws Exception {
+        CompletableFuture<V> flight = new CompletableFuture<V>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            coalescedCount.incrementAndGet();
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        issuedCount.incrementAndGet();
+        // The call is taken out of inFlight before the waiting threads are woken, so a request
+        // which arrives once the call has finished makes a new call rather than getting this
+        // result.
+        V result;
+        try {
+            result = call.call();
+        } catch (Exception e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        inFlight.remove(key, flight);
+        flight.complete(result);
+        return result;
+    }
+
+    /**
+     * Returns the number of calls made.
+     */
+    public long getIssuedCount() {
+        return issuedCount.get();
+    }
+
+    /**
+     * Returns the number of requests which waited for a call already running instead of making
+     * one.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Returns the number of calls running now.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.MissingProperty;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.SelectionSpec;
+import com.vmware.vim25.TraversalSpec;
+
+/**
+ * Writes vim25 SOAP requests and reads their responses with StAX, for the classes which call the
+ * server without JAX-WS (StreamingRetriever and AsyncVimClient). Only what those classes need is
+ * here: the PropertyCollector data objects are written by hand, and values in responses are
+ * decoded by hand where that is simple and with JAXB otherwise.
+ * <P>
+ * The read methods are called with the reader on the start element of what they read, and leave
+ * it after the matching end element.
+ */
+class SoapMessages {
+    static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+    static final String XSI_NS = "http://www.w3.org/2001/XMLSchema-instance";
+    static final String XSD_NS = "http://www.w3.org/2001/XMLSchema";
+    static final String VIM_NS = "urn:vim25";
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    static {
+        // The response is SOAP; it has no business with DTDs or external entities.
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    // One JAXBContext for each class met, since a context for all of vim25 is slow to build.
+    private static final Map<Class<?>, JAXBContext> jaxbContexts =
+            new ConcurrentHashMap<Class<?>, JAXBContext>();
+    private static DatatypeFactory datatypeFactory;
+
+    /**
+     * Returns a reader of an XML response.
+     */
+    static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        return INPUT_FACTORY.createXMLStreamReader(in, "UTF-8");
+    }
+
+    /**
+     * Reads an ObjectContent. The reader is on its start element, and is left after its end.
+     */
+    static ObjectContent readObject(XMLStreamReader reader, Set<String> paths)
+            throws Exception {
+        ObjectContent oc = new ObjectContent();
+        reader.next();
+        while (toTag(reader)) {
+            String element = reader.getLocalName();
+            if ("obj".equals(element)) {
+                oc.setObj(readMoRef(reader));
+            } else if ("propSet".equals(element)) {
+                DynamicProperty property = readProperty(reader, paths);
+                if (property != null) {
+                    oc.getPropSet().add(property);
+                }
+            } else if ("missingSet".equals(element)) {
+                oc.getMissingSet().add(unmarshal(reader, MissingProperty.class));
+            } else {
+                skip(reader);
+            }
+        }
+        return oc;
+    }
+
+    /**
+     * Reads a DynamicProperty, or skips it and returns null if its path is not to be decoded.
+     * The name comes before the value, so the value need never be parsed.
+     */
+    static DynamicProperty readProperty(XMLStreamReader reader, Set<String> paths)
+            throws Exception {
+        DynamicProperty property = new DynamicProperty();
+        boolean wanted = true;
+        reader.next();
+        while (toTag(reader)) {
+            String element = reader.getLocalName();
+            if ("name".equals(element)) {
+                property.setName(readText(reader));
+                wanted = paths == null || paths.contains(property.getName());
+            } else if ("val".equals(element) && wanted) {
+                property.setVal(readValue(reader));
+            } else {
+                skip(reader);
+            }
+        }
+        return wanted ? property : null;
+    }
+
+    /**
+     * Reads a value of the type its xsi:type names, as JAXB would.
+     */
+    static Object readValue(XMLStreamReader reader) throws Exception {
+        String xsiType = reader.getAttributeValue(XSI_NS, "type");
+        if (xsiType == null) {
+            return readText(reader);
+        }
+        int colon = xsiType.indexOf(':');
+        String prefix = colon < 0 ? "" : xsiType.substring(0, colon);
+        String type = xsiType.substring(colon + 1);
+        if (XSD_NS.equals(reader.getNamespaceURI(prefix))) {
+            String text = readText(reader);
+            if ("string".equals(type)) {
+                return text;
+            } else if ("boolean".equals(type)) {
+                return Boolean.valueOf(text.trim());
+            } else if ("int".equals(type)) {
+                return Integer.valueOf(text.trim());
+            } else if ("long".equals(type)) {
+                return Long.valueOf(text.trim());
+            } else if ("short".equals(type)) {
+                return Short.valueOf(text.trim());
+            } else if ("byte".equals(type)) {
+                return Byte.valueOf(text.trim());
+            } else if ("float".equals(type)) {
+                return Float.valueOf(text.trim());
+            } else if ("double".equals(type)) {
+                return Double.valueOf(text.trim());
+            } else if ("dateTime".equals(type)) {
+                return getDatatypeFactory().newXMLGregorianCalendar(text.trim());
+            } else if ("base64Binary".equals(type)) {
+                return javax.xml.bind.DatatypeConverter.parseBase64Binary(text.trim());
+            }
+            return text;
+        }
+        if ("ManagedObjectReference".equals(type)) {
+            return readMoRef(reader);
+        }
+        // A data object or an array: one of the vim25 classes, named by its type.
+        return unmarshal(reader, Class.forName("com.vmware.vim25." + type));
+    }
+
+    static <T> T unmarshal(XMLStreamReader reader, Class<T> type) throws Exception {
+        JAXBContext context = jaxbContexts.get(type);
+        if (context == null) {
+            context = JAXBContext.newInstance(type);
+            jaxbContexts.put(type, context);
+        }
+        // JAXB leaves the reader after the end element, as the other read methods do.
+        return context.createUnmarshaller().unmarshal(reader, type).getValue();
+    }
+
+    static ManagedObjectReference readMoRef(XMLStreamReader reader)
+            throws XMLStreamException {
+        String type = reader.getAttributeValue(null, "type");
+        return ObjectUtils.createMoRef(type, readText(reader));
+    }
+
+    static VimFaultException readFault(XMLStreamReader reader) throws XMLStreamException {
+        String faultString = null;
+        String faultType = null;
+        int depth = 0;
+        do {
+            if (reader.isStartElement()) {
+                depth++;
+                if ("faultstring".equals(reader.getLocalName())) {
+                    faultString = reader.getElementText();
+                    depth--;
+                } else if (depth == 3 && faultType == null) {
+                    // The first element in the detail.
+                    faultType = reader.getLocalName();
+                }
+            } else if (reader.isEndElement()) {
+                depth--;
+            }
+            reader.next();
+        } while (depth > 0);
+        // The detail element is named for the fault, such as NotAuthenticatedFault.
+        if (faultType != null && faultType.endsWith("Fault")) {
+            faultType = faultType.substring(0, faultType.length() - "Fault".length());
+        }
+        return new VimFaultException(faultType, faultString);
+    }
+
+    /**
+     * Moves the reader to the next start element, or past the end element of the element it is
+     * in.
+     *
+     * @return true if the reader is on a start element, false if it has left its parent.
+     */
+    static boolean toTag(XMLStreamReader reader) throws XMLStreamException {
+        while (!reader.isStartElement()) {
+            if (reader.isEndElement()) {
+                reader.next();
+                return false;
+            }
+            reader.next();
+        }
+        return true;
+    }
+
+    static String readText(XMLStreamReader reader) throws XMLStreamException {
+        String text = reader.getElementText();
+        reader.next();
+        return text;
+    }
+
+    static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 0;
+        do {
+            if (reader.isStartElement()) {
+                depth++;
+            } else if (reader.isEndElement()) {
+                depth--;
+            }
+            reader.next();
+        } while (depth > 0);
+    }
+
+    private static synchronized DatatypeFactory getDatatypeFactory() throws Exception {
+        if (datatypeFactory == null) {
+            datatypeFactory = DatatypeFactory.newInstance();
+        }
+        return datatypeFactory;
+    }
+
+    static byte[] createRetrieveRequest(ManagedObjectReference propColl,
+            List<PropertyFilterSpec> specSet, Integer maxObjects) throws XMLStreamException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        XMLStreamWriter writer = startRequest(request, "RetrievePropertiesEx", propColl);
+        for (PropertyFilterSpec fSpec : specSet) {
+            writer.writeStartElement("specSet");
+            writeFilterSpec(writer, fSpec);
+            writer.writeEndElement();
+        }
+        writer.writeStartElement("options");
+        writeElement(writer, "maxObjects", maxObjects);
+        writer.writeEndElement();
+        return endRequest(writer, request);
+    }
+
+    /**
+     * Writes the contents of a PropertyFilterSpec, inside an element the caller has started.
+     */
+    static void writeFilterSpec(XMLStreamWriter writer, PropertyFilterSpec fSpec)
+            throws XMLStreamException {
+        for (PropertySpec pSpec : fSpec.getPropSet()) {
+            writer.writeStartElement("propSet");
+            writeElement(writer, "type", pSpec.getType());
+            writeElement(writer, "all", pSpec.isAll());
+            for (String path : pSpec.getPathSet()) {
+                writeElement(writer, "pathSet", path);
+            }
+            writer.writeEndElement();
+        }
+        for (ObjectSpec oSpec : fSpec.getObjectSet()) {
+            writer.writeStartElement("objectSet");
+            writeMoRef(writer, "obj", oSpec.getObj());
+            writeElement(writer, "skip", oSpec.isSkip());
+            for (SelectionSpec sSpec : oSpec.getSelectSet()) {
+                writeSelectionSpec(writer, sSpec);
+            }
+            writer.writeEndElement();
+        }
+        writeElement(writer, "reportMissingObjectsInResults",
+                fSpec.isReportMissingObjectsInResults());
+    }
+
+    static void writeSelectionSpec(XMLStreamWriter writer, SelectionSpec sSpec)
+            throws XMLStreamException {
+        writer.writeStartElement("selectSet");
+        if (sSpec instanceof TraversalSpec) {
+            TraversalSpec tSpec = (TraversalSpec) sSpec;
+            writer.writeAttribute("xsi", XSI_NS, "type", "TraversalSpec");
+            writeElement(writer, "name", tSpec.getName());
+            writeElement(writer, "type", tSpec.getType());
+            writeElement(writer, "path", tSpec.getPath());
+            writeElement(writer, "skip", tSpec.isSkip());
+            for (SelectionSpec nested : tSpec.getSelectSet()) {
+                writeSelectionSpec(writer, nested);
+            }
+        } else {
+            writeElement(writer, "name", sSpec.getName());
+        }
+        writer.writeEndElement();
+    }
+
+    static byte[] createTokenRequest(String method, ManagedObjectReference propColl,
+            String token) throws XMLStreamException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        XMLStreamWriter writer = startRequest(request, method, propColl);
+        writeElement(writer, "token", token);
+        return endRequest(writer, request);
+    }
+
+    static XMLStreamWriter startRequest(ByteArrayOutputStream request, String method,
+            ManagedObjectReference propColl) throws XMLStreamException {
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(request, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement("soapenv", "Envelope", SOAP_NS);
+        writer.writeNamespace("soapenv", SOAP_NS);
+        writer.writeNamespace("xsi", XSI_NS);
+        writer.writeStartElement("soapenv", "Body", SOAP_NS);
+        writer.writeStartElement(method);
+        writer.writeDefaultNamespace(VIM_NS);
+        writeMoRef(writer, "_this", propColl);
+        return writer;
+    }
+
+    static byte[] endRequest(XMLStreamWriter writer, ByteArrayOutputStream request)
+            throws XMLStreamException {
+        writer.writeEndDocument();
+        writer.close();
+        return request.toByteArray();
+    }
+
+    static void writeMoRef(XMLStreamWriter writer, String element,
+            ManagedObjectReference mor) throws XMLStreamException {
+        writer.writeStartElement(element);
+        writer.writeAttribute("type", mor.getType());
+        writer.writeCharacters(mor.getValue());
+        writer.writeEndElement();
+    }
+
+    static void writeElement(XMLStreamWriter writer, String element, Object value)
+            throws XMLStreamException {
+        // Optional elements which are not set are left out, as JAXB does.
+        if (value != null) {
+            writer.writeStartElement(element);
+            writer.writeCharacters(value.toString());
+            writer.writeEndElement();
+        }
+    }
+}
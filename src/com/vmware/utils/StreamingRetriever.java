@@ -0,0 +1,260 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamReader;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.PropertyFilterSpec;
+
+/**
+ * Retrieves properties with RetrievePropertiesEx, but reads the response with a StAX parser as it
+ * arrives instead of through JAX-WS. JAX-WS builds the whole RetrieveResult of a page, every
+ * ObjectContent and DynamicProperty in it, before returning any of it; for a page of many
+ * thousand objects that takes hundreds of megabytes and a long wait. Here each ObjectContent is
+ * handed to the Handler as soon as it has been parsed, and dropped after, so only one object is
+ * in memory at a time and the first arrives before the rest of the response has been downloaded.
+ * <P>
+ * The calls are made over HttpURLConnection in the session of a VMwareConnection, by sending its
+ * session cookie. Property values of the XML Schema types and ManagedObjectReferences are decoded
+ * directly; values of other types (data objects and arrays) are unmarshalled with JAXB, as
+ * JAX-WS would. Properties whose paths are not among those to decode are skipped without being
+ * decoded at all.
+ * <P>
+ * Example of use:<br><code>
+ *     conn.streamAllObjects(1000, new StreamingRetriever.Handler() {<br>
+ *         public boolean handleObject(ObjectContent oc) {<br>
+ *             ...<br>
+ *             return true;<br>
+ *         }<br>
+ *     }, "VirtualMachine", "name", "summary.config.instanceUuid");<br>
+ * </code>
+ */
+public class StreamingRetriever {
+
+    /**
+     * Receives the ObjectContent objects of a retrieval one at a time, as each is parsed.
+     */
+    public interface Handler {
+
+        /**
+         * Handles one object.
+         *
+         * @param oc
+         *            the object and its properties
+         * @return true to get the next object, or false to stop. If you stop early, the rest of
+         *         the result is cancelled on the server.
+         * @throws Exception
+         *             if an exception occurred; the rest of the result is cancelled on the server.
+         */
+        boolean handleObject(ObjectContent oc) throws Exception;
+    }
+
+    private final URL url;
+    private final String sessionCookie;
+    private final String soapAction;
+    private ConnectionOptions options = new ConnectionOptions();
+
+    /**
+     * Creates a retriever which makes its calls in an existing session.
+     *
+     * @param url
+     *            the URL of the web services endpoint of the server
+     * @param sessionCookie
+     *            the session cookie, as from VMwareConnection.getSessionCookie()
+     * @param apiVersion
+     *            the API version to call, such as "5.5", normally from the AboutInfo of the
+     *            ServiceContent
+     * @throws IOException
+     *             if the URL is not valid
+     */
+    public StreamingRetriever(String url, String sessionCookie, String apiVersion)
+            throws IOException {
+        this.url = new URL(url);
+        this.sessionCookie = sessionCookie;
+        this.soapAction = "urn:vim25/" + apiVersion;
+    }
+
+    /**
+     * Sets the compression, persistent connection and timeout settings of the calls. By default
+     * they are those of a new ConnectionOptions.
+     */
+    public void setConnectionOptions(ConnectionOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Retrieves the objects and properties a PropertyFilterSpec selects, with
+     * RetrievePropertiesEx and ContinueRetrievePropertiesEx, and hands each object to the handler
+     * as it is parsed. All properties are decoded.
+     *
+     * @param propColl
+     *            the PropertyCollector to use
+     * @param fSpec
+     *            the objects and properties to retrieve
+     * @param pageSize
+     *            the largest number of objects in one response
+     * @param handler
+     *            receives each object; it can return false to stop early
+     * @throws Exception
+     *             if an exception occurred, or the server returned a fault
+     */
+    public void retrieve(ManagedObjectReference propColl, PropertyFilterSpec fSpec, int pageSize,
+            Handler handler) throws Exception {
+        retrieve(propColl, fSpec, pageSize, handler, null);
+    }
+
+    /**
+     * Retrieves the objects and properties a PropertyFilterSpec selects, with
+     * RetrievePropertiesEx and ContinueRetrievePropertiesEx, and hands each object to the handler
+     * as it is parsed. Properties whose paths are not among those given are left out.
+     *
+     * @param propColl
+     *            the PropertyCollector to use
+     * @param fSpec
+     *            the objects and properties to retrieve
+     * @param pageSize
+     *            the largest number of objects in one response
+     * @param handler
+     *            receives each object; it can return false to stop early
+     * @param decodedPaths
+     *            the property paths to decode, or null to decode all of them
+     * @throws Exception
+     *             if an exception occurred, or the server returned a fault
+     */
+    public void retrieve(ManagedObjectReference propColl, PropertyFilterSpec fSpec, int pageSize,
+            Handler handler, Collection<String> decodedPaths) throws Exception {
+        Set<String> paths = decodedPaths == null ? null : new HashSet<String>(decodedPaths);
+        String token = call(propColl, SoapMessages.createRetrieveRequest(propColl, Collections
+                .singletonList(fSpec), pageSize), handler, paths);
+        while (token != null) {
+            token = call(propColl, SoapMessages.createTokenRequest(
+                    "ContinueRetrievePropertiesEx", propColl, token), handler, paths);
+        }
+    }
+
+    /**
+     * Makes one call, and hands each object in the response to the handler.
+     *
+     * @return the token of the next page, or null if there are no more pages or the handler
+     *         stopped.
+     */
+    private String call(ManagedObjectReference propColl, byte[] request, Handler handler,
+            Set<String> paths) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        String token = null;
+        boolean finished = false;
+        try {
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+            connection.setRequestProperty("SOAPAction", soapAction);
+            connection.setRequestProperty("Cookie", sessionCookie);
+            options.apply(connection);
+            connection.setFixedLengthStreamingMode(request.length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(request);
+            } finally {
+                out.close();
+            }
+
+            // A fault comes with status 500, and its body is the error stream.
+            int status = connection.getResponseCode();
+            InputStream in = status == HttpURLConnection.HTTP_OK ? connection.getInputStream()
+                    : status == HttpURLConnection.HTTP_INTERNAL_ERROR ? connection
+                            .getErrorStream() : null;
+            if (in == null) {
+                throw new IOException("HTTP " + connection.getResponseCode() + " "
+                        + connection.getResponseMessage() + " from " + url);
+            }
+            try {
+                XMLStreamReader reader = SoapMessages.createReader(ConnectionOptions
+                        .getInputStream(connection, in));
+                try {
+                    while (reader.hasNext()) {
+                        if (!reader.isStartElement()) {
+                            reader.next();
+                        } else if ("token".equals(reader.getLocalName())) {
+                            // The token comes before the objects of its page.
+                            token = SoapMessages.readText(reader);
+                        } else if ("objects".equals(reader.getLocalName())) {
+                            if (!handler.handleObject(SoapMessages.readObject(reader, paths))) {
+                                break;
+                            }
+                        } else if ("Fault".equals(reader.getLocalName())
+                                && SoapMessages.SOAP_NS.equals(reader.getNamespaceURI())) {
+                            throw SoapMessages.readFault(reader);
+                        } else {
+                            // The Envelope, Body, response and returnval elements.
+                            reader.next();
+                        }
+                    }
+                    if (status != HttpURLConnection.HTTP_OK) {
+                        // A 500 with no SOAP fault in it, such as an error page from a proxy,
+                        // must not look like an empty result.
+                        throw new IOException("HTTP " + status + " "
+                                + connection.getResponseMessage() + " with no SOAP fault from "
+                                + url);
+                    }
+                    finished = !reader.hasNext();
+                } finally {
+                    reader.close();
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            if (!finished) {
+                // The handler stopped or failed: drop the rest of the response, and the rest of
+                // the result on the server.
+                connection.disconnect();
+                if (token != null) {
+                    cancel(propColl, token);
+                }
+            }
+        }
+        return finished ? token : null;
+    }
+
+    private void cancel(ManagedObjectReference propColl, String token) {
+        try {
+            call(propColl, SoapMessages.createTokenRequest("CancelRetrievePropertiesEx", propColl,
+                    token), new Handler() {
+                        public boolean handleObject(ObjectContent oc) {
+                            return true;
+                        }
+                    }, null);
+        } catch (Exception e) {
+            // The result expires with the session anyway.
+        }
+    }
+}
@@ -20,6 +20,8 @@
 package com.vmware.utils;
 
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
 
 import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
 import com.vmware.vim25.InvalidPropertyFaultMsg;
@@ -31,6 +33,7 @@ import com.vmware.vim25.PropertyChange;
 import com.vmware.vim25.PropertyChangeOp;
 import com.vmware.vim25.PropertyFilterSpec;
 import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.RequestCanceled;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.ServiceContent;
 import com.vmware.vim25.TaskInfoState;
@@ -45,6 +48,13 @@ import com.vmware.vim25.WaitOptions;
 
 public class TaskUtils {
 
+    /**
+     * The longest time, in seconds, that each waitForUpdatesEx call waits, unless the caller
+     * gives a time of its own. A wait in progress notices an interrupt or a deadline only between
+     * calls, so this bounds how late it notices.
+     */
+    public static final int DEFAULT_MAX_WAIT_SECONDS = 10;
+
     /**
      * Waits for a specific task until it finishes
      */
@@ -56,6 +66,49 @@ public class TaskUtils {
         serviceInstance.setValue("ServiceInstance");
         ServiceContent serviceContent = vimPort.retrieveServiceContent(serviceInstance);
 
+        try {
+            return wait(vimPort, serviceContent.getPropertyCollector(), objmor, filterProps,
+                    endWaitProps, expectedVals, 0, DEFAULT_MAX_WAIT_SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for " + objmor.getValue(), ie);
+        } catch (TimeoutException te) {
+            // Can not happen, there is no deadline.
+            throw new RuntimeException(te);
+        }
+    }
+
+    /**
+     * Waits for a specific task until it finishes, but no longer than the time given. Each call
+     * to waitForUpdatesEx waits at most maxWaitSeconds, and between calls the wait checks whether
+     * the thread was interrupted or the deadline has passed.
+     * <P>
+     * To be able to cancel the wait from another thread, pass a PropertyCollector from
+     * createWaitCollector and call cancelWait with it; the waiting thread then gets a
+     * CancellationException. Passing the session's own PropertyCollector also works, but then
+     * cancelWait would also cancel everybody else's waits on it.
+     *
+     * @param propertyCollector
+     *            the PropertyCollector to wait on
+     * @param timeoutMillis
+     *            the longest time to wait, in milliseconds, or 0 to wait as long as it takes
+     * @param maxWaitSeconds
+     *            the longest time each waitForUpdatesEx call waits, in seconds
+     * @return the values of the filterProps when the task finished
+     * @throws InterruptedException
+     *             if the thread was interrupted while waiting
+     * @throws TimeoutException
+     *             if the task did not finish in time
+     * @throws java.util.concurrent.CancellationException
+     *             if the wait was cancelled with cancelWait
+     */
+    public static Object[] wait(VimPortType vimPort, ManagedObjectReference propertyCollector,
+            ManagedObjectReference objmor, String[] filterProps, String[] endWaitProps,
+            Object[][] expectedVals, long timeoutMillis, int maxWaitSeconds)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg, InvalidCollectorVersionFaultMsg,
+            InterruptedException, TimeoutException {
+        long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+
         // version string is initially null
         String version = "";
         Object[] endVals = new Object[endWaitProps.length];
@@ -64,8 +117,7 @@ public class TaskUtils {
         PropertyFilterSpec spec = com.vmware.utils.ObjectUtils.createPropertyFilterSpec(
                 objmor, filterProps);
 
-        ManagedObjectReference filterSpecRef = vimPort.createFilter(
-                serviceContent.getPropertyCollector(), spec, true);
+        ManagedObjectReference filterSpecRef = vimPort.createFilter(propertyCollector, spec, true);
 
         boolean reached = false;
 
@@ -73,52 +125,106 @@ public class TaskUtils {
         List<PropertyFilterUpdate> filtupary = null;
         List<ObjectUpdate> objupary = null;
         List<PropertyChange> propchgary = null;
-        while (!reached) {
-            updateset = vimPort.waitForUpdatesEx(serviceContent.getPropertyCollector(), version,
-                    new WaitOptions());
-            if (updateset == null || updateset.getFilterSet() == null) {
-                continue;
-            }
-            version = updateset.getVersion();
-
-            // Make this code more general purpose when PropCol changes later.
-            filtupary = updateset.getFilterSet();
-
-            for (PropertyFilterUpdate filtup : filtupary) {
-                objupary = filtup.getObjectSet();
-                for (ObjectUpdate objup : objupary) {
-                    // TODO: Handle all kinds of updates.
-                    if (objup.getKind() == ObjectUpdateKind.MODIFY
-                            || objup.getKind() == ObjectUpdateKind.ENTER
-                            || objup.getKind() == ObjectUpdateKind.LEAVE) {
-                        propchgary = objup.getChangeSet();
-                        for (PropertyChange propchg : propchgary) {
-                            updateValues(endWaitProps, endVals, propchg);
-                            updateValues(filterProps, filterVals, propchg);
+        try {
+            while (!reached) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                // Never wait past the deadline, and never ask for zero seconds, which would
+                // make the loop spin when nothing changes.
+                int waitSeconds = Math.max(1, maxWaitSeconds);
+                if (deadline != 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new TimeoutException("The task " + objmor.getValue()
+                                + " did not finish within " + timeoutMillis + " ms.");
+                    }
+                    waitSeconds = (int) Math.min(waitSeconds, (remaining + 999) / 1000);
+                }
+                WaitOptions waitOptions = new WaitOptions();
+                waitOptions.setMaxWaitSeconds(waitSeconds);
+
+                try {
+                    updateset = vimPort.waitForUpdatesEx(propertyCollector, version, waitOptions);
+                } catch (RuntimeFaultFaultMsg rffm) {
+                    if (rffm.getFaultInfo() instanceof RequestCanceled) {
+                        throw new CancellationException("The wait for " + objmor.getValue()
+                                + " was cancelled.");
+                    }
+                    throw rffm;
+                }
+                // Nothing changed before the time ran out.
+                if (updateset == null || updateset.getFilterSet() == null) {
+                    continue;
+                }
+                version = updateset.getVersion();
+
+                // Make this code more general purpose when PropCol changes later.
+                filtupary = updateset.getFilterSet();
+
+                for (PropertyFilterUpdate filtup : filtupary) {
+                    objupary = filtup.getObjectSet();
+                    for (ObjectUpdate objup : objupary) {
+                        // TODO: Handle all kinds of updates.
+                        if (objup.getKind() == ObjectUpdateKind.MODIFY
+                                || objup.getKind() == ObjectUpdateKind.ENTER
+                                || objup.getKind() == ObjectUpdateKind.LEAVE) {
+                            propchgary = objup.getChangeSet();
+                            for (PropertyChange propchg : propchgary) {
+                                updateValues(endWaitProps, endVals, propchg);
+                                updateValues(filterProps, filterVals, propchg);
+                            }
                         }
                     }
                 }
-            }
 
-            Object expctdval = null;
-            // Check if the expected values have been reached and exit the loop
-            // if done.
-            // Also exit the WaitForUpdates loop if this is the case.
-            for (int chgi = 0; chgi < endVals.length && !reached; chgi++) {
-                for (int vali = 0; vali < expectedVals[chgi].length && !reached; vali++) {
-                    expctdval = expectedVals[chgi][vali];
+                Object expctdval = null;
+                // Check if the expected values have been reached and exit the loop
+                // if done.
+                // Also exit the WaitForUpdates loop if this is the case.
+                for (int chgi = 0; chgi < endVals.length && !reached; chgi++) {
+                    for (int vali = 0; vali < expectedVals[chgi].length && !reached; vali++) {
+                        expctdval = expectedVals[chgi][vali];
 
-                    reached = expctdval.equals(endVals[chgi]) || reached;
+                        reached = expctdval.equals(endVals[chgi]) || reached;
+                    }
                 }
             }
+        } finally {
+            // Destroy the filter when we are done, however we got here.
+            vimPort.destroyPropertyFilter(filterSpecRef);
         }
-
-        // Destroy the filter when we are done.
-        vimPort.destroyPropertyFilter(filterSpecRef);
         return filterVals;
     }
 
-    private static void updateValues(String[] props, Object[] vals, PropertyChange propchg) {
+    /**
+     * Creates a PropertyCollector of its own for one wait, so that the wait can be cancelled
+     * with cancelWait without disturbing any other waits. Destroy it with
+     * vimPort.destroyPropertyCollector when the wait is over.
+     *
+     * @return the new PropertyCollector.
+     */
+    public static ManagedObjectReference createWaitCollector(VimPortType vimPort,
+            ServiceContent serviceContent) throws RuntimeFaultFaultMsg {
+        return vimPort.createPropertyCollector(serviceContent.getPropertyCollector());
+    }
+
+    /**
+     * Cancels a wait in progress on the PropertyCollector given. The waiting thread's call to
+     * waitForUpdatesEx returns at once, and its wait throws a CancellationException. Call this
+     * from a thread other than the one waiting.
+     *
+     * @param propertyCollector
+     *            the PropertyCollector the wait is using
+     */
+    public static void cancelWait(VimPortType vimPort, ManagedObjectReference propertyCollector)
+            throws RuntimeFaultFaultMsg {
+        vimPort.cancelWaitForUpdates(propertyCollector);
+    }
+
+    // Not private, so the benchmarks in the same package can measure it.
+    static void updateValues(String[] props, Object[] vals, PropertyChange propchg) {
         for (int findi = 0; findi < props.length; findi++) {
             if (propchg.getName().lastIndexOf(props[findi]) >= 0) {
                 if (propchg.getOp() == PropertyChangeOp.REMOVE) {
@@ -159,4 +265,57 @@ public class TaskUtils {
         }
         return retVal;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns a boolean value specifying whether the Task is succeeded or failed, waiting no longer
+     * than the time given.
+     *
+     * @param task
+     *            the ManagedObjectReference representing the Task.
+     * @param timeoutMillis
+     *            the longest time to wait, in milliseconds
+     * @return the value representing the Task result.
+     * @throws InterruptedException
+     *             if the thread was interrupted while waiting
+     * @throws TimeoutException
+     *             if the task did not finish in time
+     */
+    public static boolean getTaskResultAfterDone(VimPortType vimPort,
+            ServiceContent serviceContent, ManagedObjectReference task, long timeoutMillis)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg, InvalidCollectorVersionFaultMsg,
+            InterruptedException, TimeoutException {
+
+        // info has a property - state for state of the task
+        Object[] result = wait(vimPort, serviceContent.getPropertyCollector(), task,
+                new String[] { "info.state", "info.error" }, new String[] { "state" },
+                new Object[][] { new Object[] { TaskInfoState.SUCCESS, TaskInfoState.ERROR } },
+                timeoutMillis, DEFAULT_MAX_WAIT_SECONDS);
+
+        if (result[1] instanceof LocalizedMethodFault) {
+            throw new RuntimeException(((LocalizedMethodFault) result[1]).getLocalizedMessage());
+        }
+        return result[0].equals(TaskInfoState.SUCCESS);
+    }
+
+    /**
+     * Returns a boolean value specifying whether the Task is succeeded or failed, waiting for it
+     * with a TaskWatcher rather than a filter and a thread of its own. Use this when many tasks
+     * are being waited for at the same time.
+     *
+     * @param watcher
+     *            a started TaskWatcher
+     * @param task
+     *            the ManagedObjectReference representing the Task.
+     * @return the value representing the Task result.
+     * @throws Exception
+     *             if an exception occurred while waiting
+     */
+    public static boolean getTaskResultAfterDone(TaskWatcher watcher, ManagedObjectReference task)
+            throws Exception {
+        com.vmware.vim25.TaskInfo info = watcher.watch(task).get();
+        if (info.getError() != null) {
+            throw new RuntimeException(info.getError().getLocalizedMessage());
+        }
+        return info.getState() == TaskInfoState.SUCCESS;
+    }
+}
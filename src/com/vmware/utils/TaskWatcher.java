@@ -0,0 +1,338 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.TraversalSpec;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.WaitOptions;
+
+/**
+ * Waits for many tasks at once with one thread and one PropertyFilter. TaskUtils.wait creates a
+ * filter for each task and blocks a thread until that task finishes; the watcher instead keeps
+ * every task it is watching in one ListView, with one filter on the view's "info" property, and
+ * one thread which long-polls waitForUpdatesEx for all of them.
+ * <P>
+ * watch() returns a CompletableFuture which is completed with the task's TaskInfo when its state
+ * becomes SUCCESS or ERROR. Check getState() (and getError()) of the TaskInfo to see which. The
+ * future fails if the task disappears from the server before finishing, or if the watcher is
+ * closed first.
+ * <P>
+ * The watcher's thread is the only thread which uses the connection, so give the watcher a
+ * connection of its own (for example, one borrowed from a VMwareConnectionPool). watch() may be
+ * called from any thread; tasks are added to the view the next time the watcher's thread comes
+ * back from waiting, so within one poll interval.
+ * <P>
+ * Example of use:<br><code>
+ *     TaskWatcher watcher = new TaskWatcher(conn);<br>
+ *     watcher.start();<br>
+ *     CompletableFuture&lt;TaskInfo&gt; done = watcher.watch(cloneTaskMOR);<br>
+ *     TaskInfo info = done.get();<br>
+ *     ...<br>
+ *     watcher.close();<br>
+ * </code>
+ */
+public class TaskWatcher {
+
+    /**
+     * The longest time, in seconds, each waitForUpdatesEx waits before the watcher's thread comes
+     * back to add newly watched tasks, unless setPollSeconds is called.
+     */
+    public static final int DEFAULT_POLL_SECONDS = 1;
+
+    private final VMwareConnection connection;
+    private volatile int pollSeconds = DEFAULT_POLL_SECONDS;
+
+    private ManagedObjectReference propertyCollector;
+    private ManagedObjectReference listView;
+    private ManagedObjectReference filter;
+    private String version = "";
+
+    // The future of each task being watched, by MoRef key.
+    private final ConcurrentHashMap<String, CompletableFuture<TaskInfo>> watched =
+            new ConcurrentHashMap<String, CompletableFuture<TaskInfo>>();
+    // Tasks watched but not yet added to the view.
+    private final ConcurrentLinkedQueue<ManagedObjectReference> toAdd =
+            new ConcurrentLinkedQueue<ManagedObjectReference>();
+    // Tasks finished but not yet removed from the view; only used by the watcher's thread.
+    private final List<ManagedObjectReference> toRemove = new ArrayList<ManagedObjectReference>();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Creates a watcher which uses the connection given. Nothing is done on the server until
+     * start() is called.
+     *
+     * @param connection
+     *            a connection for the watcher to use on its own
+     */
+    public TaskWatcher(VMwareConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Sets the longest time each waitForUpdatesEx waits. Shorter times pick up new tasks sooner,
+     * longer times make fewer calls when nothing is happening.
+     *
+     * @param pollSeconds
+     *            the time, in seconds
+     */
+    public void setPollSeconds(int pollSeconds) {
+        this.pollSeconds = pollSeconds;
+    }
+
+    /**
+     * Creates a PropertyCollector, ListView and PropertyFilter on the server, and starts the
+     * watcher's thread.
+     *
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public synchronized void start() throws Exception {
+        if (thread != null) {
+            return;
+        }
+        VimPortType vimPort = connection.getVimPort();
+        propertyCollector = vimPort.createPropertyCollector(connection.getPropertyCollector());
+        listView = vimPort.createListView(connection.getViewManager(),
+                new ArrayList<ManagedObjectReference>());
+
+        // Watch the "info" property of every task in the list view, but not the view itself.
+        ObjectSpec oSpec = new ObjectSpec();
+        oSpec.setObj(listView);
+        oSpec.setSkip(true);
+        TraversalSpec tSpec = new TraversalSpec();
+        tSpec.setName("traverseTasks");
+        tSpec.setPath("view");
+        tSpec.setSkip(false);
+        tSpec.setType("ListView");
+        oSpec.getSelectSet().add(tSpec);
+        PropertySpec pSpec = ObjectUtils.createPropertySpec("Task", "info");
+        PropertyFilterSpec fSpec = new PropertyFilterSpec();
+        fSpec.getObjectSet().add(oSpec);
+        fSpec.getPropSet().add(pSpec);
+        filter = vimPort.createFilter(propertyCollector, fSpec, true);
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                watchLoop();
+            }
+        }, "TaskWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts watching a task.
+     *
+     * @param task
+     *            the ManagedObjectReference of the Task
+     * @return a future which is completed with the TaskInfo once the task has succeeded or failed.
+     *         Watching the same task twice returns the same future.
+     */
+    public CompletableFuture<TaskInfo> watch(ManagedObjectReference task) {
+        if (!running) {
+            throw new IllegalStateException("The TaskWatcher is not running.");
+        }
+        String key = ObjectUtils.getMoRefKey(task);
+        CompletableFuture<TaskInfo> future = new CompletableFuture<TaskInfo>();
+        CompletableFuture<TaskInfo> existing = watched.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        toAdd.add(task);
+        if (!running) {
+            // The watcher stopped while this task was being added.
+            fail(task, new IllegalStateException("The TaskWatcher is not running."));
+        }
+        return future;
+    }
+
+    /**
+     * Returns the number of tasks being watched which have not finished yet.
+     */
+    public int getWatchedCount() {
+        return watched.size();
+    }
+
+    /**
+     * Stops the watcher's thread and removes the PropertyFilter, ListView and PropertyCollector
+     * from the server. Tasks still being watched have their futures failed.
+     *
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public void close() throws Exception {
+        Thread watcherThread;
+        synchronized (this) {
+            running = false;
+            watcherThread = thread;
+            thread = null;
+        }
+        if (watcherThread == null) {
+            return;
+        }
+        VimPortType vimPort = connection.getVimPort();
+        try {
+            // Wake the thread out of waitForUpdatesEx rather than waiting for the poll to end.
+            try {
+                vimPort.cancelWaitForUpdates(propertyCollector);
+            } catch (Exception e) {
+                // ignored, it may not have been waiting
+            }
+            watcherThread.join();
+
+            // Each object is destroyed even if destroying the one before it failed, as when the
+            // session has expired.
+            try {
+                vimPort.destroyPropertyFilter(filter);
+            } finally {
+                try {
+                    vimPort.destroyView(listView);
+                } finally {
+                    vimPort.destroyPropertyCollector(propertyCollector);
+                }
+            }
+        } finally {
+            // Nobody waiting for a task may be left waiting forever.
+            failAll(new IllegalStateException("The TaskWatcher was closed."));
+        }
+    }
+
+    private void watchLoop() {
+        VimPortType vimPort = connection.getVimPort();
+        while (running) {
+            try {
+                updateView(vimPort);
+
+                WaitOptions waitOptions = new WaitOptions();
+                waitOptions.setMaxWaitSeconds(pollSeconds);
+                UpdateSet updateSet;
+                try {
+                    updateSet = vimPort.waitForUpdatesEx(propertyCollector, version, waitOptions);
+                } catch (InvalidCollectorVersionFaultMsg icvfm) {
+                    // Start again from the full state of every task in the view.
+                    version = "";
+                    continue;
+                }
+                if (updateSet == null) {
+                    continue;
+                }
+                version = updateSet.getVersion();
+                for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+                    for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet()) {
+                        handleUpdate(objectUpdate);
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                // Most likely the session is gone, in which case no task will ever be reported.
+                running = false;
+                failAll(e);
+            }
+        }
+    }
+
+    /**
+     * Adds newly watched tasks to the list view, and removes finished ones.
+     */
+    private void updateView(VimPortType vimPort) throws Exception {
+        List<ManagedObjectReference> adding = new ArrayList<ManagedObjectReference>();
+        ManagedObjectReference task;
+        while ((task = toAdd.poll()) != null) {
+            adding.add(task);
+        }
+        if (!adding.isEmpty()) {
+            // The server returns the objects it could not add, such as tasks which no longer
+            // exist.
+            List<ManagedObjectReference> notAdded = vimPort.modifyListView(listView, adding, null);
+            if (notAdded != null) {
+                for (ManagedObjectReference missing : notAdded) {
+                    fail(missing, new RuntimeException("The task " + missing.getValue()
+                            + " does not exist."));
+                }
+            }
+        }
+        if (!toRemove.isEmpty()) {
+            vimPort.modifyListView(listView, null, toRemove);
+            toRemove.clear();
+        }
+    }
+
+    private void handleUpdate(ObjectUpdate objectUpdate) {
+        String key = ObjectUtils.getMoRefKey(objectUpdate.getObj());
+        if (objectUpdate.getKind() == ObjectUpdateKind.LEAVE) {
+            fail(objectUpdate.getObj(), new RuntimeException("The task "
+                    + objectUpdate.getObj().getValue() + " disappeared before it finished."));
+            return;
+        }
+        for (PropertyChange change : objectUpdate.getChangeSet()) {
+            if ("info".equals(change.getName()) && change.getVal() instanceof TaskInfo) {
+                TaskInfo info = (TaskInfo) change.getVal();
+                if (info.getState() == TaskInfoState.SUCCESS
+                        || info.getState() == TaskInfoState.ERROR) {
+                    CompletableFuture<TaskInfo> future = watched.remove(key);
+                    if (future != null) {
+                        toRemove.add(objectUpdate.getObj());
+                        future.complete(info);
+                    }
+                }
+            }
+        }
+    }
+
+    private void fail(ManagedObjectReference task, Exception e) {
+        CompletableFuture<TaskInfo> future = watched.remove(ObjectUtils.getMoRefKey(task));
+        if (future != null) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private void failAll(Exception e) {
+        for (String key : new ArrayList<String>(watched.keySet())) {
+            CompletableFuture<TaskInfo> future = watched.remove(key);
+            if (future != null) {
+                future.completeExceptionally(e);
+            }
+        }
+        toAdd.clear();
+    }
+}
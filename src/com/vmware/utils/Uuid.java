@@ -0,0 +1,261 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.Arrays;
+
+/**
+ * A UUID held as two longs, with a parser and formatter for the text forms vSphere uses. A UUID
+ * string such as "52f7b088-357e-bb81-59ec-9d9389c7d89e" takes over 100 bytes as a Java String; a
+ * Uuid takes 32, and the two longs can be kept in arrays (see UuidIntMap) with no object at all.
+ * <P>
+ * VM instance UUIDs and BIOS UUIDs are reported in lower case, and the instance UUID of vCenter
+ * itself (getAbout().getInstanceUuid()) in upper case. parse() accepts either case, with or
+ * without the hyphens, so the same UUID always gives equal Uuids; toString() gives the lower case
+ * form and toUpperCaseString() the upper case form.
+ * <P>
+ * Unlike java.util.UUID, the bits are not interpreted (vSphere BIOS UUIDs are not all valid RFC
+ * 4122 UUIDs), so every UUID string round trips exactly. Uuids are immutable.
+ */
+public final class Uuid implements Comparable<Uuid> {
+
+    private static final byte[] HEX_VALUES = new byte[128];
+    private static final char[] LOWER_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char[] UPPER_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private final long mostSignificantBits;
+    private final long leastSignificantBits;
+
+    /**
+     * Creates a Uuid from its two halves.
+     */
+    public Uuid(long mostSignificantBits, long leastSignificantBits) {
+        this.mostSignificantBits = mostSignificantBits;
+        this.leastSignificantBits = leastSignificantBits;
+    }
+
+    /**
+     * Parses a UUID in either case, in the usual form with hyphens
+     * ("52f7b088-357e-bb81-59ec-9d9389c7d89e") or as 32 hexadecimal digits.
+     *
+     * @param text
+     *            the UUID
+     * @return the Uuid.
+     * @throws IllegalArgumentException
+     *             if the text is not a UUID
+     */
+    public static Uuid parse(CharSequence text) {
+        return new Uuid(parseMostSignificantBits(text), parseLeastSignificantBits(text));
+    }
+
+    /**
+     * Parses a UUID as parse() does, but returns null instead of throwing an exception if the text
+     * is null or not a UUID.
+     */
+    public static Uuid tryParse(CharSequence text) {
+        return isValid(text) ? parse(text) : null;
+    }
+
+    /**
+     * Returns true if the text is a UUID that parse() accepts.
+     */
+    public static boolean isValid(CharSequence text) {
+        if (text == null) {
+            return false;
+        }
+        int length = text.length();
+        if (length != 36 && length != 32) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (length == 36 && (i == 8 || i == 13 || i == 18 || i == 23)) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (c >= 128 || HEX_VALUES[c] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first half of a UUID, without creating a Uuid.
+     *
+     * @throws IllegalArgumentException
+     *             if the text is not a UUID
+     */
+    public static long parseMostSignificantBits(CharSequence text) {
+        if (text.length() == 32) {
+            return parseHex(text, 0, 16, 0);
+        }
+        checkHyphens(text);
+        long bits = parseHex(text, 0, 8, 0);
+        bits = parseHex(text, 9, 13, bits);
+        return parseHex(text, 14, 18, bits);
+    }
+
+    /**
+     * Returns the second half of a UUID, without creating a Uuid.
+     *
+     * @throws IllegalArgumentException
+     *             if the text is not a UUID
+     */
+    public static long parseLeastSignificantBits(CharSequence text) {
+        if (text.length() == 32) {
+            return parseHex(text, 16, 32, 0);
+        }
+        checkHyphens(text);
+        long bits = parseHex(text, 19, 23, 0);
+        return parseHex(text, 24, 36, bits);
+    }
+
+    private static void checkHyphens(CharSequence text) {
+        if (text.length() != 36 || text.charAt(8) != '-' || text.charAt(13) != '-'
+                || text.charAt(18) != '-' || text.charAt(23) != '-') {
+            throw new IllegalArgumentException("Not a UUID: " + text);
+        }
+    }
+
+    private static long parseHex(CharSequence text, int start, int end, long bits) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            int value = c < 128 ? HEX_VALUES[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Not a UUID: " + text);
+            }
+            bits = (bits << 4) | value;
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the first 64 bits of the UUID.
+     */
+    public long getMostSignificantBits() {
+        return mostSignificantBits;
+    }
+
+    /**
+     * Returns the last 64 bits of the UUID.
+     */
+    public long getLeastSignificantBits() {
+        return leastSignificantBits;
+    }
+
+    /**
+     * Returns the UUID in lower case with hyphens, as vSphere reports VM UUIDs.
+     */
+    public String toString() {
+        return format(mostSignificantBits, leastSignificantBits, LOWER_DIGITS);
+    }
+
+    /**
+     * Returns the UUID in upper case with hyphens, as vSphere reports the instance UUID of
+     * vCenter.
+     */
+    public String toUpperCaseString() {
+        return format(mostSignificantBits, leastSignificantBits, UPPER_DIGITS);
+    }
+
+    /**
+     * Formats a UUID given as two longs in lower case with hyphens, without creating a Uuid.
+     */
+    public static String toString(long mostSignificantBits, long leastSignificantBits) {
+        return format(mostSignificantBits, leastSignificantBits, LOWER_DIGITS);
+    }
+
+    private static String format(long most, long least, char[] digits) {
+        char[] chars = new char[36];
+        formatHex(chars, 0, 8, most >>> 32, digits);
+        chars[8] = '-';
+        formatHex(chars, 9, 4, most >>> 16, digits);
+        chars[13] = '-';
+        formatHex(chars, 14, 4, most, digits);
+        chars[18] = '-';
+        formatHex(chars, 19, 4, least >>> 48, digits);
+        chars[23] = '-';
+        formatHex(chars, 24, 12, least, digits);
+        return new String(chars);
+    }
+
+    // Writes the lowest count hexadecimal digits of bits.
+    private static void formatHex(char[] chars, int start, int count, long bits, char[] digits) {
+        for (int i = start + count - 1; i >= start; i--) {
+            chars[i] = digits[(int) bits & 0xf];
+            bits >>>= 4;
+        }
+    }
+
+    /**
+     * Returns a hash code for a UUID given as two longs; the same as hashCode() of the Uuid.
+     */
+    public static int hashCode(long mostSignificantBits, long leastSignificantBits) {
+        // The bits of a UUID are not evenly spread (BIOS UUIDs often share a prefix), so mix
+        // them, as MurmurHash3 does.
+        long h = mostSignificantBits * 0x9E3779B97F4A7C15L ^ leastSignificantBits;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    public int hashCode() {
+        return hashCode(mostSignificantBits, leastSignificantBits);
+    }
+
+    public boolean equals(Object other) {
+        if (!(other instanceof Uuid)) {
+            return false;
+        }
+        Uuid uuid = (Uuid) other;
+        return mostSignificantBits == uuid.mostSignificantBits
+                && leastSignificantBits == uuid.leastSignificantBits;
+    }
+
+    /**
+     * Orders Uuids as their lower case strings are ordered.
+     */
+    public int compareTo(Uuid other) {
+        int result = compareUnsigned(mostSignificantBits, other.mostSignificantBits);
+        return result != 0 ? result : compareUnsigned(leastSignificantBits,
+                other.leastSignificantBits);
+    }
+
+    private static int compareUnsigned(long a, long b) {
+        a += Long.MIN_VALUE;
+        b += Long.MIN_VALUE;
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * An in-memory index from UUID to VirtualMachine, for both kinds of VM UUID: the instance UUID
+ * (summary.config.instanceUuid), which vCenter keeps unique, and the BIOS UUID
+ * (summary.config.uuid), which cloned VMs may share. The index is built with one paged retrieval,
+ * and after that every lookup is a hash table lookup with no call to the server.
+ * <P>
+ * The UUIDs are kept as pairs of longs in UuidIntMaps, and the VMs as an array of MoRef values,
+ * so the index takes about 60 bytes per VM rather than several hundred.
+ * <P>
+ * UUIDs are compared without regard to case. The index is a snapshot, and is never changed once
+ * built, so it can be shared between threads.
+ */
+public class UuidIndex {
+    private final long buildTime;
+    // The MoRef values of the VMs, by position; they are all VirtualMachines.
+    private final String[] vms;
+    // The position of the last VM with each UUID, and of the VM before it with the same UUID.
+    private final UuidIntMap byInstanceUuid;
+    private final int[] previousWithInstanceUuid;
+    private final UuidIntMap byBiosUuid;
+    private final int[] previousWithBiosUuid;
+
+    private UuidIndex(Builder builder) {
+        this.buildTime = System.currentTimeMillis();
+        this.vms = builder.vms.toArray(new String[builder.vms.size()]);
+        this.byInstanceUuid = builder.byInstanceUuid;
+        this.previousWithInstanceUuid = Arrays.copyOf(builder.previousWithInstanceUuid,
+                vms.length);
+        this.byBiosUuid = builder.byBiosUuid;
+        this.previousWithBiosUuid = Arrays.copyOf(builder.previousWithBiosUuid, vms.length);
+    }
+
+    // Collects the VMs while the pages arrive.
+    private static class Builder {
+        final List<String> vms = new ArrayList<String>();
+        final UuidIntMap byInstanceUuid = new UuidIntMap();
+        final UuidIntMap byBiosUuid = new UuidIntMap();
+        int[] previousWithInstanceUuid = new int[1024];
+        int[] previousWithBiosUuid = new int[1024];
+
+        void add(ManagedObjectReference vm, String instanceUuid, String biosUuid) {
+            int position = vms.size();
+            vms.add(vm.getValue());
+            if (position == previousWithInstanceUuid.length) {
+                previousWithInstanceUuid = Arrays.copyOf(previousWithInstanceUuid, position * 2);
+                previousWithBiosUuid = Arrays.copyOf(previousWithBiosUuid, position * 2);
+            }
+            previousWithInstanceUuid[position] = add(byInstanceUuid, instanceUuid, position);
+            previousWithBiosUuid[position] = add(byBiosUuid, biosUuid, position);
+        }
+
+        private static int add(UuidIntMap map, String uuid, int position) {
+            if (!Uuid.isValid(uuid)) {
+                return UuidIntMap.NOT_FOUND;
+            }
+            return map.put(Uuid.parseMostSignificantBits(uuid),
+                    Uuid.parseLeastSignificantBits(uuid), position);
+        }
+    }
+
+    /**
+     * Builds an index of the UUIDs of all VirtualMachines.
+     *
+     * @return the new index.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public static UuidIndex build(VimPortType vimPort, ServiceContent serviceContent)
+            throws Exception {
+        final Builder builder = new Builder();
+
+        FindObjects.findAllObjects(vimPort, serviceContent, FindObjects.DEFAULT_PAGE_SIZE,
+                new ObjectContentHandler() {
+                    public boolean handlePage(List<ObjectContent> page) {
+                        for (ObjectContent oc : page) {
+                            builder.add(oc.getObj(), ObjectUtils.getPropertyValue(oc,
+                                    "summary.config.instanceUuid"), ObjectUtils
+                                    .getPropertyValue(oc, "summary.config.uuid"));
+                        }
+                        return true;
+                    }
+                }, "VirtualMachine", "summary.config.instanceUuid", "summary.config.uuid");
+
+        return new UuidIndex(builder);
+    }
+
+    /**
+     * Returns the time this index was built, in milliseconds, as from System.currentTimeMillis().
+     */
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * Returns the number of VirtualMachines in the index.
+     */
+    public int size() {
+        return vms.length;
+    }
+
+    /**
+     * Returns the VirtualMachines with the UUID given.
+     *
+     * @param uuid
+     *            the UUID to look for
+     * @param instanceUuid
+     *            true to look for an instance UUID, false to look for a BIOS UUID
+     * @return the VMs, or an empty list if there are none.
+     */
+    public List<ManagedObjectReference> find(String uuid, boolean instanceUuid) {
+        int position = (instanceUuid ? byInstanceUuid : byBiosUuid).get(uuid);
+        if (position == UuidIntMap.NOT_FOUND) {
+            return Collections.emptyList();
+        }
+        int[] previous = instanceUuid ? previousWithInstanceUuid : previousWithBiosUuid;
+        List<ManagedObjectReference> found = new ArrayList<ManagedObjectReference>(1);
+        for (; position != UuidIntMap.NOT_FOUND; position = previous[position]) {
+            found.add(ObjectUtils.createMoRef("VirtualMachine", vms[position]));
+        }
+        // The chain runs from the last VM retrieved to the first.
+        Collections.reverse(found);
+        return Collections.unmodifiableList(found);
+    }
+}
@@ -19,10 +19,15 @@
 
 package com.vmware.utils;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.ws.BindingProvider;
 
@@ -76,12 +81,37 @@ public class VMwareConnection {
     com.vmware.vim25.ManagedObjectReference propertyCollector;
     ManagedObjectReference viewManager;
     boolean connected = false;
+    ContainerViewCache viewCache;
+    // The file the session is saved in, or null, and the session cookie.
+    File sessionFile;
+    String sessionCookie;
+    ConnectionOptions options;
+
+    // Name indexes used by findObject, one for each object type, built on first use. The
+    // connections of a VMwareConnectionPool share these, and the builds (see shareNameIndexes).
+    Map<String, ObjectNameIndex> nameIndexes = new ConcurrentHashMap<String, ObjectNameIndex>();
+    // Names which were still missing after their index was rebuilt for them, by type. Asking for
+    // them again does not rebuild the index until it reaches its maximum age.
+    Map<String, Set<String>> missingNames = new ConcurrentHashMap<String, Set<String>>();
+    // Builds of the same index at the same time share one build.
+    SingleFlight<String, ObjectNameIndex> nameIndexBuilds =
+            new SingleFlight<String, ObjectNameIndex>();
+    long nameIndexMaxAgeMillis = DEFAULT_NAME_INDEX_MAX_AGE_MILLIS;
+
+    /**
+     * How old a name index may get, in milliseconds, before findObject builds it again.
+     */
+    public static final long DEFAULT_NAME_INDEX_MAX_AGE_MILLIS = 5 * 60 * 1000;
+
+    // When a name is not in the index, the index is built again unless it is newer than this.
+    private static final long NAME_INDEX_MISS_REFRESH_MILLIS = 10 * 1000;
 
     /**
      * Creates a connection to vCenter server.
      *
      * @param serverName
-     *            the name or IP address of the vCenter server to connect to
+     *            the name or IP address of the vCenter server to connect to, or the full URL of
+     *            its web services endpoint (such as "http://127.0.0.1:8080/sdk/vimService")
      * @param userName
      *            the user's name to login as
      * @param password
@@ -91,8 +121,61 @@ public class VMwareConnection {
      *
      */
     public VMwareConnection(String serverName, String userName, String password) throws Exception {
-        // Set up the URL to connect to the server.
-        String url = "https://" + serverName + "/sdk/vimService";
+        this(serverName, userName, password, null);
+    }
+
+    /**
+     * Creates a connection to vCenter server, using the session saved in a file if there is one
+     * for the same server and user which is still logged in. Otherwise this logs in, and saves
+     * the new session to the file. This saves the login, which can take most of a second, for
+     * programs which run many times a minute.
+     * <P>
+     * close() does not log out of a saved session, so the next program can use it. It lasts
+     * until it has been unused for the server's session timeout, normally 30 minutes.
+     *
+     * @param serverName
+     *            the name or IP address of the vCenter server to connect to, or the full URL of
+     *            its web services endpoint
+     * @param userName
+     *            the user's name to login as
+     * @param password
+     *            the user's password
+     * @param sessionFile
+     *            the file the session is saved in, or null to log in and out as usual
+     *
+     * @throws Exception if an exception occurred
+     *
+     */
+    public VMwareConnection(String serverName, String userName, String password, File sessionFile)
+            throws Exception {
+        this(serverName, userName, password, sessionFile, new ConnectionOptions());
+    }
+
+    /**
+     * Creates a connection to vCenter server with the HTTP settings given: compression,
+     * persistent connections and timeouts. The other constructors use the defaults of
+     * ConnectionOptions.
+     *
+     * @param serverName
+     *            the name or IP address of the vCenter server to connect to, or the full URL of
+     *            its web services endpoint
+     * @param userName
+     *            the user's name to login as
+     * @param password
+     *            the user's password
+     * @param sessionFile
+     *            the file the session is saved in, or null to log in and out as usual
+     * @param options
+     *            the HTTP settings
+     *
+     * @throws Exception if an exception occurred
+     *
+     */
+    public VMwareConnection(String serverName, String userName, String password,
+            File sessionFile, ConnectionOptions options) throws Exception {
+        // Set up the URL to connect to the server, unless we were given one.
+        String url = serverName.contains("://") ? serverName : "https://" + serverName
+                + "/sdk/vimService";
 
         // Set up the manufactured managed object reference for the ServiceInstance
         ManagedObjectReference serviceInstance = com.vmware.utils.ObjectUtils.createMoRef(
@@ -115,14 +198,40 @@ public class VMwareConnection {
         // the Server will start a new session with each request.
         ctxt.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, url);
         ctxt.put(BindingProvider.SESSION_MAINTAIN_PROPERTY, true);
-        // Retrieve the ServiceContent object and viewManager object
-        serviceContent = vimPort.retrieveServiceContent(serviceInstance);
+        // Ask for compressed responses, and set the timeouts.
+        options.apply(vimPort);
+        this.options = options;
+        this.sessionFile = sessionFile;
+
+        // Try the saved session first: it needs neither the ServiceContent nor the login.
+        SavedSession saved = sessionFile != null ? SavedSession.load(sessionFile) : null;
+        if (saved != null && saved.isFor(url, userName)) {
+            SavedSession.setSessionCookie(vimPort, saved.getCookie());
+            serviceContent = saved.getServiceContent();
+            connected = true;
+            if (isSessionActive()) {
+                sessionCookie = saved.getCookie();
+            } else {
+                // Expired, or the server was restarted; log in again below.
+                SavedSession.setSessionCookie(vimPort, null);
+                connected = false;
+            }
+        }
+
+        if (!connected) {
+            // Retrieve the ServiceContent object and do the login
+            serviceContent = vimPort.retrieveServiceContent(serviceInstance);
+            vimPort.login(serviceContent.getSessionManager(), userName, password, null);
+            sessionCookie = SavedSession.getSessionCookie(vimPort);
+            connected = true;
+            if (sessionFile != null && sessionCookie != null) {
+                new SavedSession(url, userName, sessionCookie, serviceContent).save(sessionFile);
+            }
+        }
         propertyCollector = serviceContent.getPropertyCollector();
         viewManager = serviceContent.getViewManager();
-
-        // Do the login
-        vimPort.login(serviceContent.getSessionManager(), userName, password, null);
-        connected = true;
+        viewCache = new ContainerViewCache(vimPort, viewManager,
+                ContainerViewCache.DEFAULT_MAX_IDLE_VIEWS);
     }
 
     /**
@@ -134,15 +243,56 @@ public class VMwareConnection {
 
     /**
      * Shuts down the connection when you are done with it. If called multiple times, will only be
-     * executed once.
+     * executed once. A session saved to a file is not logged out of, so it can be used again.
      */
     public void close() throws Exception {
         // In case the user does an explicit close, we don't want to rerun this when Java
         // does a finalize.
         if (connected) {
-            vimPort.logout(serviceContent.getSessionManager());
-            connected = false;
+            try {
+                // Views would go away with the session anyway, but tidy up on the server.
+                viewCache.close();
+            } finally {
+                if (sessionFile == null) {
+                    vimPort.logout(serviceContent.getSessionManager());
+                }
+                connected = false;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the session of this connection is still logged in, with a cheap call to the
+     * server (ServiceInstance.CurrentTime, which fails for a session which is not logged in).
+     *
+     * @return true if the session is logged in, false if it has expired or can not be reached.
+     */
+    public boolean isSessionActive() {
+        if (!connected) {
+            return false;
         }
+        try {
+            vimPort.currentTime(ObjectUtils.createMoRef("ServiceInstance", "ServiceInstance"));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the session cookie of this connection, such as
+     * <code>vmware_soap_session="52a3..."</code>, or null if the server did not set one. Another
+     * program can use the session by sending this cookie.
+     */
+    public String getSessionCookie() {
+        return sessionCookie;
+    }
+
+    /**
+     * Returns the HTTP settings of this connection.
+     */
+    public ConnectionOptions getConnectionOptions() {
+        return options;
     }
 
     /**
@@ -180,6 +330,14 @@ public class VMwareConnection {
         return viewManager;
     }
 
+    /**
+     * Gets the cache of ContainerViews used by this connection's lookups. The views in it are
+     * destroyed when the connection is closed.
+     */
+    public ContainerViewCache getViewCache() {
+        return viewCache;
+    }
+
     /**
      * Returns all ObjectContent objects of the specified type and with each one include the
      * properties specified.
@@ -207,8 +365,9 @@ public class VMwareConnection {
         List<String> typeList = new ArrayList<String>();
         typeList.add(objectType);
 
-        ManagedObjectReference cViewRef = vimPort.createContainerView(viewMgrRef,
-                serviceContent.getRootFolder(), typeList, true);
+        // The view comes from this connection's cache, so it is used again by later calls.
+        ManagedObjectReference cViewRef = viewCache.acquire(serviceContent.getRootFolder(),
+                typeList, true);
 
         // create an object spec to define the beginning of the traversal;
         // container view is the root object for this traversal
@@ -254,16 +413,254 @@ public class VMwareConnection {
         List<PropertyFilterSpec> fSpecList = new ArrayList<PropertyFilterSpec>();
         fSpecList.add(fSpec);
 
-        // get the data from the server
-        com.vmware.vim25.RetrieveOptions retrieveOptions = new RetrieveOptions();
-        com.vmware.vim25.RetrieveResult props = vimPort.retrievePropertiesEx(propColl, fSpecList,
-                retrieveOptions);
+        // get the data from the server, one page at a time, and keep all of it
+        final List<ObjectContent> allObjects = new ArrayList<ObjectContent>();
+        try {
+            FindObjects.retrievePages(vimPort, propColl, fSpecList,
+                    FindObjects.DEFAULT_PAGE_SIZE, new ObjectContentHandler() {
+                        public boolean handlePage(List<ObjectContent> page) {
+                            allObjects.addAll(page);
+                            return true;
+                        }
+                    });
+        } finally {
+            viewCache.release(cViewRef);
+        }
 
-        // go through the returned list and print out the data
-        if (props != null) {
-            return props.getObjects();
+        if (allObjects.isEmpty()) {
+            return null;
+        }
+        return allObjects;
+    }
+
+    /**
+     * Finds all objects of the specified type, with the properties specified, and hands them to
+     * the handler one page at a time as each page arrives from the server. Only one page is held
+     * in memory at once.
+     *
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param handler
+     *            receives each page; it can return false to stop early
+     * @param objectType
+     *            the type of the object to retrieve
+     * @param properties
+     *            zero or more property names
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public void findAllObjects(int pageSize, ObjectContentHandler handler, String objectType,
+            String... properties) throws Exception {
+        ManagedObjectReference cViewRef = viewCache.acquire(serviceContent.getRootFolder(),
+                Arrays.asList(objectType), true);
+        try {
+            FindObjects.findAllObjectsInView(vimPort, propertyCollector, cViewRef, pageSize,
+                    handler, objectType, properties);
+        } finally {
+            viewCache.release(cViewRef);
+        }
+    }
+
+    /**
+     * Finds all objects of the specified type, with the properties specified, and hands them to
+     * the handler one object at a time as each is parsed from the response. Unlike
+     * findAllObjects, which needs a whole page in memory before the handler sees any of it, this
+     * reads the responses with a StreamingRetriever, so only one object is in memory at a time.
+     * Use it for very large pages.
+     *
+     * @param pageSize
+     *            the largest number of objects in one response
+     * @param handler
+     *            receives each object; it can return false to stop early
+     * @param objectType
+     *            the type of the object to retrieve
+     * @param properties
+     *            zero or more property names
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public void streamAllObjects(int pageSize, StreamingRetriever.Handler handler,
+            String objectType, String... properties) throws Exception {
+        ManagedObjectReference cViewRef = viewCache.acquire(serviceContent.getRootFolder(),
+                Arrays.asList(objectType), true);
+        try {
+            PropertySpec pSpec = ObjectUtils.createPropertySpec(objectType, properties);
+            createStreamingRetriever().retrieve(propertyCollector,
+                    ObjectUtils.createContainerViewFilterSpec(cViewRef, pSpec), pageSize, handler);
+        } finally {
+            viewCache.release(cViewRef);
         }
-        return null;
+    }
+
+    /**
+     * Returns a StreamingRetriever which makes its calls in the session of this connection.
+     *
+     * @return the retriever.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public StreamingRetriever createStreamingRetriever() throws Exception {
+        if (sessionCookie == null) {
+            throw new IllegalStateException("The server did not set a session cookie.");
+        }
+        String url = (String) ((BindingProvider) vimPort).getRequestContext().get(
+                BindingProvider.ENDPOINT_ADDRESS_PROPERTY);
+        StreamingRetriever retriever = new StreamingRetriever(url, sessionCookie, serviceContent
+                .getAbout().getApiVersion());
+        retriever.setConnectionOptions(options);
+        return retriever;
+    }
+
+    /**
+     * Returns an iterator over all objects of the specified type, with the properties specified.
+     * Pages are fetched from the server as the iterator reaches them. Close the iterator if you
+     * stop before the end.
+     *
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param objectType
+     *            the type of the object to retrieve
+     * @param properties
+     *            zero or more property names
+     * @return an iterator which must be closed if it is not read to the end.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public ObjectContentIterator iterateAllObjects(int pageSize, String objectType,
+            String... properties) throws Exception {
+        ManagedObjectReference cViewRef = viewCache.acquire(serviceContent.getRootFolder(),
+                Arrays.asList(objectType), true);
+        PropertySpec pSpec = ObjectUtils.createPropertySpec(objectType, properties);
+        RetrieveOptions retrieveOptions = new RetrieveOptions();
+        retrieveOptions.setMaxObjects(pageSize);
+        RetrieveResult firstPage;
+        try {
+            firstPage = vimPort.retrievePropertiesEx(propertyCollector,
+                    Arrays.asList(ObjectUtils.createContainerViewFilterSpec(cViewRef, pSpec)),
+                    retrieveOptions);
+        } catch (Exception e) {
+            viewCache.release(cViewRef);
+            throw e;
+        }
+        // The iterator releases the view when it reaches the end or is closed.
+        return new ObjectContentIterator(vimPort, propertyCollector, firstPage, cViewRef,
+                viewCache);
+    }
+
+    /**
+     * Finds all objects of one or more types inside a container, with the properties specified
+     * for each type, and hands them to the handler one page at a time. Only the container is
+     * searched, so a query about one datacenter or cluster does not pay for the whole inventory.
+     * The view comes from this connection's cache, so it is used again by later calls. Example of
+     * use:<br>
+     * <code>conn.findAllObjects(clusterMOR, true, 1000, handler,</code><br>
+     * <code>        ObjectUtils.createPropertySpec("VirtualMachine", "name", "runtime.host"),</code><br>
+     * <code>        ObjectUtils.createPropertySpec("HostSystem", "name"));</code>
+     *
+     * @param container
+     *            the Folder, Datacenter, ComputeResource, ResourcePool or HostSystem to look in
+     * @param recursive
+     *            true to include objects in the container's descendants, not just its children
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param handler
+     *            receives each page; it can return false to stop early
+     * @param propertySpecs
+     *            one PropertySpec for each type of object to find, with the properties to return
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public void findAllObjects(ManagedObjectReference container, boolean recursive, int pageSize,
+            ObjectContentHandler handler, PropertySpec... propertySpecs) throws Exception {
+        ManagedObjectReference cViewRef = viewCache.acquire(container,
+                ObjectUtils.getPropertySpecTypes(propertySpecs), recursive);
+        try {
+            FindObjects.findAllObjectsInView(vimPort, propertyCollector, cViewRef, pageSize,
+                    handler, propertySpecs);
+        } finally {
+            viewCache.release(cViewRef);
+        }
+    }
+
+    /**
+     * Finds all objects of one or more types inside the container at an inventory path, such as
+     * "Datacenter/host/Cluster", with the properties specified for each type, and hands them to
+     * the handler one page at a time.
+     *
+     * @param containerPath
+     *            the inventory path of the Folder, Datacenter, ComputeResource, ResourcePool or
+     *            HostSystem to look in
+     * @param recursive
+     *            true to include objects in the container's descendants, not just its children
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param handler
+     *            receives each page; it can return false to stop early
+     * @param propertySpecs
+     *            one PropertySpec for each type of object to find, with the properties to return
+     * @throws Exception
+     *             if an exception occurred, or if there is nothing at the inventory path
+     */
+    public void findAllObjects(String containerPath, boolean recursive, int pageSize,
+            ObjectContentHandler handler, PropertySpec... propertySpecs) throws Exception {
+        ManagedObjectReference container = FindObjects.findByInventoryPath(vimPort,
+                serviceContent, containerPath);
+        if (container == null) {
+            throw new IllegalArgumentException("There is no object at the inventory path "
+                    + containerPath);
+        }
+        findAllObjects(container, recursive, pageSize, handler, propertySpecs);
+    }
+
+    /**
+     * Returns an iterator over all objects of one or more types inside a container, with the
+     * properties specified for each type. Close the iterator if you stop before the end.
+     *
+     * @param container
+     *            the Folder, Datacenter, ComputeResource, ResourcePool or HostSystem to look in
+     * @param recursive
+     *            true to include objects in the container's descendants, not just its children
+     * @param pageSize
+     *            the largest number of objects in one page
+     * @param propertySpecs
+     *            one PropertySpec for each type of object to find, with the properties to return
+     * @return an iterator which must be closed if it is not read to the end.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public ObjectContentIterator iterateAllObjects(ManagedObjectReference container,
+            boolean recursive, int pageSize, PropertySpec... propertySpecs) throws Exception {
+        ManagedObjectReference cViewRef = viewCache.acquire(container,
+                ObjectUtils.getPropertySpecTypes(propertySpecs), recursive);
+        RetrieveOptions retrieveOptions = new RetrieveOptions();
+        retrieveOptions.setMaxObjects(pageSize);
+        RetrieveResult firstPage;
+        try {
+            firstPage = vimPort.retrievePropertiesEx(propertyCollector, Arrays.asList(ObjectUtils
+                    .createContainerViewFilterSpec(cViewRef, propertySpecs)), retrieveOptions);
+        } catch (Exception e) {
+            viewCache.release(cViewRef);
+            throw e;
+        }
+        // The iterator releases the view when it reaches the end or is closed.
+        return new ObjectContentIterator(vimPort, propertyCollector, firstPage, cViewRef,
+                viewCache);
+    }
+
+    /**
+     * Creates a query for the objects of a type, which can also retrieve the objects they refer to
+     * and join them, in one or two retrievals per page instead of one per relationship per object.
+     * Example of use:<br>
+     * <code>List&lt;ObjectQuery.JoinedObject&gt; vms = conn.createQuery("VirtualMachine", "name").follow("runtime.host", "HostSystem", "name").run();</code>
+     *
+     * @param objectType
+     *            the type of the objects to retrieve
+     * @param properties
+     *            zero or more property names
+     * @return the query, which ObjectQuery's methods add relationships to and then run.
+     */
+    public ObjectQuery createQuery(String objectType, String... properties) {
+        return new ObjectQuery(this, objectType, properties);
     }
 
     /**
@@ -273,63 +670,265 @@ public class VMwareConnection {
      * <code>ObjectContent vm = conn.findObject("VirtualMachine", vmName, "runtime.host");</code><br>
      * <code>ObjectContent hostStorageSystem = conn.findObject("HostStorageSystem", hostStorageSystemMOR.getValue(),"devicePath","model");</code>
      * <br>
+     * The name is looked up in this connection's name index for the type (see getNameIndex), so
+     * only the object found is retrieved from the server. If more than one object has the name,
+     * the first one is returned; use findAllObjectsNamed to get all of them.
+     * <P>
+     * vSphere stores a "/" typed in the name of an object as "%2f", so no name contains "/". A
+     * name which contains "/" is therefore an inventory path, such as "Datacenter/vm/myvm", and
+     * is looked up as findObjectByInventoryPath does, without the index.
      *
      * @param objectType
      *            the type of the object to retrieve
      * @param name
-     *            the name of the object to retrieve
+     *            the name of the object to retrieve, or its inventory path
      * @param properties
      *            zero or more property names
      *
-     * @return ObjectContent containing the entity and all returned properties.
+     * @return ObjectContent containing the entity and all returned properties, or null if there is
+     *         no object with that name.
      * @throws Exception
      *             if an exception occurred
      */
     public ObjectContent findObject(String objectType, String name, String... properties)
             throws Exception {
+        if (name.contains("/")) {
+            return findObjectByInventoryPath(objectType, name, properties);
+        }
 
-        // Get references to the ViewManager and PropertyCollector
-        ManagedObjectReference viewMgrRef = serviceContent.getViewManager();
-        ManagedObjectReference propColl = serviceContent.getPropertyCollector();
+        // Look the name up in the index for this type, which is built on first use. A name which
+        // is not in the index may belong to an object created after the index was built, so
+        // rebuild the index once, unless it was built only a moment ago or the name was already
+        // missing from the index the last time it was rebuilt for a miss.
+        ObjectNameIndex index = getNameIndex(objectType);
+        List<ManagedObjectReference> objectRefs = index.findAll(name);
+        if (objectRefs.isEmpty() && shouldRefreshForMiss(index, name)) {
+            index = refreshNameIndex(objectType);
+            objectRefs = index.findAll(name);
+            if (objectRefs.isEmpty()) {
+                missingNames.get(objectType).add(name);
+            }
+        }
+        if (objectRefs.isEmpty()) {
+            return null;
+        }
 
-        // use a container view for virtual machines to define the traversal
-        // - invoke the VimPortType method createContainerView (corresponds
-        // to the ViewManager method) - pass the ViewManager MOR and
-        // the other parameters required for the method invocation
-        // (use a List<String> for the type parameter's string[])
-        List<String> typeList = new ArrayList<String>();
-        typeList.add(objectType);
+        // Only the objects with the name are fetched from the server. When several objects have
+        // the name, the first one is returned, as findObject always has.
+        List<ObjectContent> found = retrieveNamedObjects(objectRefs, name, properties);
+        if (found.isEmpty()) {
+            // The object was deleted or renamed after the index was built.
+            index = refreshNameIndex(objectType);
+            objectRefs = index.findAll(name);
+            if (objectRefs.isEmpty()) {
+                return null;
+            }
+            found = retrieveNamedObjects(objectRefs, name, properties);
+            if (found.isEmpty()) {
+                return null;
+            }
+        }
+        return found.get(0);
+    }
 
-        ManagedObjectReference cViewRef = vimPort.createContainerView(viewMgrRef,
-                serviceContent.getRootFolder(), typeList, true);
+    /**
+     * Returns an ObjectContent for the object at an inventory path, such as
+     * "Datacenter/vm/Folder/myvm", with the properties specified. The server's SearchIndex
+     * resolves the path, so the name index is not used. A "/" in the name of an object is written
+     * as "%2f" in an inventory path. Example of use:<br>
+     * <code>ObjectContent vm = conn.findObjectByInventoryPath("VirtualMachine", "Datacenter/vm/myvm", "runtime.host");</code>
+     *
+     * @param objectType
+     *            the type of the object to retrieve
+     * @param inventoryPath
+     *            the names of the objects from the root folder down, separated by "/"
+     * @param properties
+     *            zero or more property names
+     * @return the object, or null if there is nothing of the type at the path.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public ObjectContent findObjectByInventoryPath(String objectType, String inventoryPath,
+            String... properties) throws Exception {
+        return FindObjects.findObjectByInventoryPath(vimPort, serviceContent,
+                ObjectUtils.createPropertySpec(objectType, properties), inventoryPath);
+    }
 
-        // create an object spec to define the beginning of the traversal;
-        // container view is the root object for this traversal
-        ObjectSpec oSpec = new ObjectSpec();
-        oSpec.setObj(cViewRef);
-        oSpec.setSkip(true);
+    /**
+     * Returns an ObjectContent for the object of the type and name given inside a container, with
+     * the properties specified. Only the container is searched, so this reads far less than a
+     * search of the whole inventory, and finds the right object when objects in other containers
+     * have the same name. The server looks the name up among the children of a Folder or
+     * ResourcePool; other containers, and objects further down, are found by reading the names in
+     * a ContainerView of the container. See FindObjects.findObjectInContainer.
+     * <P>
+     * Example of use:<br>
+     * <code>ObjectContent vm = conn.findObjectInContainer(clusterMOR, "VirtualMachine", vmName, "runtime.host");</code>
+     *
+     * @param container
+     *            the Folder, Datacenter, ComputeResource, ResourcePool or HostSystem to look in
+     * @param objectType
+     *            the type of the object to retrieve
+     * @param name
+     *            the name of the object to retrieve
+     * @param properties
+     *            zero or more property names
+     * @return the object, or null if there is no object with that name in the container.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public ObjectContent findObjectInContainer(ManagedObjectReference container,
+            String objectType, String name, String... properties) throws Exception {
+        return FindObjects.findObjectInContainer(vimPort, serviceContent, container,
+                ObjectUtils.createPropertySpec(objectType, properties), name);
+    }
 
-        // create a traversal spec to select all objects in the view
-        TraversalSpec tSpec = new TraversalSpec();
-        tSpec.setName("traverseEntities");
-        tSpec.setPath("view");
-        tSpec.setSkip(false);
-        tSpec.setType("ContainerView");
+    /**
+     * Returns an ObjectContent for the object of the type and name given inside the container at
+     * an inventory path, such as "Datacenter/vm/Production", with the properties specified.
+     *
+     * @param containerPath
+     *            the inventory path of the Folder, Datacenter, ComputeResource, ResourcePool or
+     *            HostSystem to look in
+     * @param objectType
+     *            the type of the object to retrieve
+     * @param name
+     *            the name of the object to retrieve
+     * @param properties
+     *            zero or more property names
+     * @return the object, or null if there is no container at the path or no object with that name
+     *         in it.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public ObjectContent findObjectInContainer(String containerPath, String objectType,
+            String name, String... properties) throws Exception {
+        ManagedObjectReference container = FindObjects.findByInventoryPath(vimPort,
+                serviceContent, containerPath);
+        if (container == null) {
+            return null;
+        }
+        return findObjectInContainer(container, objectType, name, properties);
+    }
 
-        // add the traversal spec to the object spec;
-        // the accessor method (getSelectSet) returns a reference
-        // to the mapped XML representation of the list; using this
-        // reference to add the spec will update the selectSet list
-        oSpec.getSelectSet().add(tSpec);
+    /**
+     * Returns ObjectContents for all objects of the type with the name given, with the properties
+     * specified. vSphere allows objects of the same type in different folders to have the same
+     * name; use this method when the name may not identify one object.
+     *
+     * @param objectType
+     *            the type of the objects to retrieve
+     * @param name
+     *            the name of the objects to retrieve
+     * @param properties
+     *            zero or more property names
+     * @return the objects with the name, or an empty list if there are none.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public List<ObjectContent> findAllObjectsNamed(String objectType, String name,
+            String... properties) throws Exception {
+        List<ManagedObjectReference> objectRefs = getNameIndex(objectType).findAll(name);
+        if (objectRefs.isEmpty()) {
+            return new ArrayList<ObjectContent>();
+        }
+        return retrieveNamedObjects(objectRefs, name, properties);
+    }
 
-        // specify the properties for retrieval
-        // (virtual machine name, network summary accessible, rp runtime props);
-        // the accessor method (getPathSet) returns a reference to the mapped
-        // XML representation of the list; using this reference to add the
-        // property names will update the pathSet list
+    /**
+     * Returns the name index for the type given, building it if this connection does not have one
+     * yet or if the one it has is older than the maximum age. Connections borrowed from a
+     * VMwareConnectionPool share their name indexes.
+     *
+     * @param objectType
+     *            the type of the managed objects, such as "VirtualMachine"
+     * @return the index.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public ObjectNameIndex getNameIndex(String objectType) throws Exception {
+        ObjectNameIndex index = nameIndexes.get(objectType);
+        if (index == null
+                || System.currentTimeMillis() - index.getBuildTime() > nameIndexMaxAgeMillis) {
+            index = refreshNameIndex(objectType);
+        }
+        return index;
+    }
+
+    /**
+     * Builds the name index for the type given again, so that it sees objects created, renamed or
+     * deleted since it was last built.
+     *
+     * @param objectType
+     *            the type of the managed objects, such as "VirtualMachine"
+     * @return the new index.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public ObjectNameIndex refreshNameIndex(final String objectType) throws Exception {
+        return nameIndexBuilds.execute(objectType, new Callable<ObjectNameIndex>() {
+            public ObjectNameIndex call() throws Exception {
+                return buildNameIndex(objectType);
+            }
+        });
+    }
+
+    private ObjectNameIndex buildNameIndex(String objectType) throws Exception {
+        ManagedObjectReference cViewRef = viewCache.acquire(serviceContent.getRootFolder(),
+                Arrays.asList(objectType), true);
+        ObjectNameIndex index;
+        try {
+            index = ObjectNameIndex.build(vimPort, propertyCollector, cViewRef, objectType);
+        } finally {
+            viewCache.release(cViewRef);
+        }
+        nameIndexes.put(objectType, index);
+        missingNames.put(objectType,
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+        return index;
+    }
+
+    /**
+     * Makes this connection use, and add to, the name indexes given instead of its own. The
+     * connections of a pool are to the same server, where a managed object reference means the
+     * same object in every session, so one index of each type serves all of them.
+     */
+    void shareNameIndexes(Map<String, ObjectNameIndex> nameIndexes,
+            Map<String, Set<String>> missingNames,
+            SingleFlight<String, ObjectNameIndex> nameIndexBuilds) {
+        this.nameIndexes = nameIndexes;
+        this.missingNames = missingNames;
+        this.nameIndexBuilds = nameIndexBuilds;
+    }
+
+    // Whether a name missing from the index is worth rebuilding the index for.
+    private boolean shouldRefreshForMiss(ObjectNameIndex index, String name) {
+        if (System.currentTimeMillis() - index.getBuildTime() <= NAME_INDEX_MISS_REFRESH_MILLIS) {
+            return false;
+        }
+        Set<String> missing = missingNames.get(index.getObjectType());
+        return missing == null || !missing.contains(name);
+    }
+
+    /**
+     * Sets how old a name index may get before findObject builds it again.
+     *
+     * @param maxAgeMillis
+     *            the maximum age, in milliseconds
+     */
+    public void setNameIndexMaxAge(long maxAgeMillis) {
+        nameIndexMaxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Retrieves the objects given, with the properties given, in one call. Objects which no longer
+     * exist, or which are no longer called by the name given, are left out.
+     */
+    private List<ObjectContent> retrieveNamedObjects(List<ManagedObjectReference> objectRefs,
+            String name, String... properties) throws Exception {
         boolean gotName = false;
         PropertySpec pSpec = new PropertySpec();
-        pSpec.setType(objectType);
+        pSpec.setType(objectRefs.get(0).getType());
         if (properties != null) {
             for (String property : properties) {
                 pSpec.getPathSet().add(property);
@@ -342,23 +941,21 @@ public class VMwareConnection {
             pSpec.getPathSet().add("name");
         }
 
-        // create a PropertyFilterSpec and add the object and
-        // property specs to it; use the getter methods to reference
-        // the mapped XML representation of the lists and add the specs
-        // directly to the objectSet and propSet lists
         PropertyFilterSpec fSpec = new PropertyFilterSpec();
-        fSpec.getObjectSet().add(oSpec);
+        for (ManagedObjectReference objectRef : objectRefs) {
+            ObjectSpec oSpec = new ObjectSpec();
+            oSpec.setObj(objectRef);
+            oSpec.setSkip(false);
+            fSpec.getObjectSet().add(oSpec);
+        }
         fSpec.getPropSet().add(pSpec);
+        // Objects deleted since the index was built are reported, rather than failing the call.
+        fSpec.setReportMissingObjectsInResults(true);
 
-        // Create a list for the filters and add the spec to it
-        List<PropertyFilterSpec> fSpecList = new ArrayList<PropertyFilterSpec>();
-        fSpecList.add(fSpec);
-
-        // get the data from the server
-        RetrieveOptions retrieveOptions = new RetrieveOptions();
         RetrieveResult props = null;
         try {
-            props = vimPort.retrievePropertiesEx(propColl, fSpecList, retrieveOptions);
+            props = vimPort.retrievePropertiesEx(propertyCollector, Arrays.asList(fSpec),
+                    new RetrieveOptions());
         } catch (com.vmware.vim25.InvalidPropertyFaultMsg ipfm) {
             String oneStringOfProperties = "";
             if (properties != null) {
@@ -371,28 +968,52 @@ public class VMwareConnection {
                             + oneStringOfProperties, ipfm);
         }
 
-        // go through the returned list and print out the data
+        List<ObjectContent> found = new ArrayList<ObjectContent>();
         if (props != null) {
             for (ObjectContent oc : props.getObjects()) {
-                String value = null;
-                String path = null;
-                List<com.vmware.vim25.DynamicProperty> dps = oc.getPropSet();
-                if (dps != null) {
-                    for (DynamicProperty dp : dps) {
-                        path = dp.getName();
-                        if (path.equals("name")) {
-                            value = (String) dp.getVal();
-                            if (value.equals(name)) {
-                                return oc;
-                            }
-                        }
-                    }
+                if (name.equals(ObjectUtils.getPropertyValue(oc, "name"))) {
+                    found.add(oc);
                 }
             }
         }
-        return null;
+        return found;
     }
 
+    /**
+     * Returns the VirtualMachines with the UUID given, using the server's SearchIndex. Example of
+     * use:<br>
+     * <code>List&lt;ManagedObjectReference&gt; vms = conn.findVirtualMachinesByUuid("52f7b088-357e-bb81-59ec-9d9389c7d89e", true);</code>
+     *
+     * @param uuid
+     *            the UUID to look for
+     * @param instanceUuid
+     *            true to look for an instance UUID, false to look for a BIOS UUID
+     * @return the VMs with the UUID, or an empty list if there are none.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public List<ManagedObjectReference> findVirtualMachinesByUuid(String uuid,
+            boolean instanceUuid) throws Exception {
+        return FindObjects.findVirtualMachinesByUuid(vimPort, serviceContent, uuid, instanceUuid);
+    }
+
+    /**
+     * Returns the VirtualMachines with each of the UUIDs given. See
+     * FindObjects.findVirtualMachinesByUuid for how batches are looked up.
+     *
+     * @param uuids
+     *            the UUIDs to look for
+     * @param instanceUuid
+     *            true to look for instance UUIDs, false to look for BIOS UUIDs
+     * @return the VMs with each UUID, in the order given. A UUID with no VM maps to an empty list.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public Map<String, List<ManagedObjectReference>> findVirtualMachinesByUuid(
+            java.util.Collection<String> uuids, boolean instanceUuid) throws Exception {
+        return FindObjects.findVirtualMachinesByUuid(vimPort, serviceContent, uuids,
+                instanceUuid);
+    }
 
     /**
      * Method to retrieve from the server properties of a {@link ManagedObjectReference}.
@@ -0,0 +1,462 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.vmware.vim25.ObjectContent;
+
+/**
+ * A thread safe pool of logged-in connections to one vCenter server. A VMwareConnection is not
+ * thread safe, because its VimPortType is not, so a program with many threads needs one
+ * connection per thread making calls. The pool keeps up to maxConnections sessions open and hands
+ * each one to one thread at a time.
+ * <P>
+ * Connections are created when first needed. A connection which has been idle for longer than the
+ * validation interval is checked with a cheap call before it is handed out, and replaced by a new
+ * login if its session has expired.
+ * <P>
+ * For a single lookup by name, findObject borrows and returns the connection itself, and lets
+ * threads which ask for the same object at the same time share one call to the server. The
+ * connections share one name index for each object type (see VMwareConnection.getNameIndex), so
+ * a resolveAll over many connections reads the names of the type from the server only once.
+ * <P>
+ * Example of use:<br><code>
+ *     VMwareConnectionPool pool = new VMwareConnectionPool(serverName, userName, password, 8);<br>
+ *     VMwareConnectionPool.Lease lease = pool.lease();<br>
+ *     try {<br>
+ *         ObjectContent vm = lease.getConnection().findObject("VirtualMachine", vmName, "runtime.host");<br>
+ *     } finally {<br>
+ *         lease.close();<br>
+ *     }<br>
+ *     ...<br>
+ *     pool.close();<br>
+ * </code>
+ */
+public class VMwareConnectionPool {
+
+    /**
+     * How long a connection may be idle, in milliseconds, before it is checked again, unless
+     * setValidationInterval is called.
+     */
+    public static final long DEFAULT_VALIDATION_INTERVAL_MILLIS = 30 * 1000;
+
+    private final String serverName;
+    private final String userName;
+    private final String password;
+    private final int maxConnections;
+    // Connections nobody is using, most recently returned first.
+    private final LinkedBlockingDeque<IdleConnection> idle =
+            new LinkedBlockingDeque<IdleConnection>();
+    // One permit for each connection which may be handed out.
+    private final Semaphore available;
+    private volatile long validationIntervalMillis = DEFAULT_VALIDATION_INTERVAL_MILLIS;
+    private volatile boolean closed;
+    // The name indexes of the connections, which they share so that the names of a type are read
+    // from the server once for the pool rather than once for each connection.
+    private final Map<String, ObjectNameIndex> nameIndexes =
+            new ConcurrentHashMap<String, ObjectNameIndex>();
+    private final Map<String, Set<String>> missingNames =
+            new ConcurrentHashMap<String, Set<String>>();
+    private final SingleFlight<String, ObjectNameIndex> nameIndexBuilds =
+            new SingleFlight<String, ObjectNameIndex>();
+    // Identical findObject calls made at the same time share one call.
+    private final SingleFlight<List<Object>, ObjectContent> findObjectCalls =
+            new SingleFlight<List<Object>, ObjectContent>();
+
+    private static class IdleConnection {
+        final VMwareConnection connection;
+        final long idleSince;
+
+        IdleConnection(VMwareConnection connection) {
+            this.connection = connection;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Creates a pool. No connection is made until one is borrowed.
+     *
+     * @param serverName
+     *            the name or IP address of the vCenter server to connect to
+     * @param userName
+     *            the user's name to login as
+     * @param password
+     *            the user's password
+     * @param maxConnections
+     *            the largest number of sessions the pool opens at once
+     */
+    public VMwareConnectionPool(String serverName, String userName, String password,
+            int maxConnections) {
+        this.serverName = serverName;
+        this.userName = userName;
+        this.password = password;
+        this.maxConnections = maxConnections;
+        this.available = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * Returns the name or IP address of the vCenter server of this pool.
+     */
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * Returns the largest number of sessions the pool opens at once.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets how long a connection may be idle before it is checked again when borrowed.
+     *
+     * @param intervalMillis
+     *            the interval, in milliseconds
+     */
+    public void setValidationInterval(long intervalMillis) {
+        validationIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * Returns a connection for the calling thread to use on its own, waiting until one is free.
+     * It must be given back with returnConnection (or invalidate, if it is broken).
+     *
+     * @return a logged-in connection.
+     * @throws Exception
+     *             if an exception occurred, such as a login failure
+     */
+    public VMwareConnection borrow() throws Exception {
+        available.acquire();
+        return take();
+    }
+
+    /**
+     * Returns a connection for the calling thread to use on its own, waiting no longer than the
+     * time given for one to be free.
+     *
+     * @param timeout
+     *            the longest time to wait
+     * @param unit
+     *            the unit of the timeout
+     * @return a logged-in connection.
+     * @throws TimeoutException
+     *             if no connection was free in time
+     * @throws Exception
+     *             if an exception occurred, such as a login failure
+     */
+    public VMwareConnection borrow(long timeout, TimeUnit unit) throws Exception {
+        if (!available.tryAcquire(timeout, unit)) {
+            throw new TimeoutException("No connection to " + serverName + " was free within "
+                    + timeout + " " + unit.toString().toLowerCase() + ".");
+        }
+        return take();
+    }
+
+    /**
+     * Hands out an idle connection, checking it first if it has been idle a while, or logs in a
+     * new one. The caller holds a permit, which is given back if this fails.
+     */
+    private VMwareConnection take() throws Exception {
+        try {
+            if (closed) {
+                throw new IllegalStateException("The connection pool for " + serverName
+                        + " is closed.");
+            }
+            IdleConnection idleConnection;
+            while ((idleConnection = idle.pollFirst()) != null) {
+                long idleTime = System.currentTimeMillis() - idleConnection.idleSince;
+                if (idleTime < validationIntervalMillis
+                        || idleConnection.connection.isSessionActive()) {
+                    return idleConnection.connection;
+                }
+                // The session has expired; let it go and try the next one.
+                closeQuietly(idleConnection.connection);
+            }
+            VMwareConnection connection = new VMwareConnection(serverName, userName, password);
+            connection.shareNameIndexes(nameIndexes, missingNames, nameIndexBuilds);
+            return connection;
+        } catch (Exception e) {
+            available.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a connection from borrow(), so another thread can use it.
+     *
+     * @param connection
+     *            the connection from borrow()
+     */
+    public void returnConnection(VMwareConnection connection) {
+        if (closed) {
+            closeQuietly(connection);
+        } else {
+            IdleConnection idleConnection = new IdleConnection(connection);
+            idle.offerFirst(idleConnection);
+            // close() may have run since closed was read, and drained the idle connections
+            // before this one was added. If it is still here, nothing else will close it.
+            if (closed && idle.remove(idleConnection)) {
+                closeQuietly(connection);
+            }
+        }
+        available.release();
+    }
+
+    /**
+     * Gives back a connection from borrow() which should not be used again, for example because a
+     * call on it failed in a way that leaves it unusable. It is closed, and a new one is made when
+     * needed.
+     *
+     * @param connection
+     *            the connection from borrow()
+     */
+    public void invalidate(VMwareConnection connection) {
+        closeQuietly(connection);
+        available.release();
+    }
+
+    /**
+     * Borrows a connection, for use with try-with-resources or try/finally. Closing the lease
+     * returns the connection to the pool.
+     *
+     * @return the lease.
+     * @throws Exception
+     *             if an exception occurred, such as a login failure
+     */
+    public Lease lease() throws Exception {
+        return new Lease(borrow());
+    }
+
+    /**
+     * Returns the object of the type and name given, with the properties specified, as
+     * VMwareConnection.findObject does, using a connection borrowed for the call. Threads which
+     * ask for the same type, name and properties while such a call is running wait for that call
+     * and share its result rather than making one of their own, so a burst of identical lookups
+     * reaches the server once. The ObjectContent returned may be shared with other threads, so it
+     * must not be changed.
+     *
+     * @param objectType
+     *            the type of the object to retrieve
+     * @param name
+     *            the name of the object to retrieve, or its inventory path
+     * @param properties
+     *            zero or more property names
+     * @return the object, or the first one if more than one object has the name, or null if there
+     *         is no object with that name.
+     * @throws Exception
+     *             if an exception occurred
+     */
+    public ObjectContent findObject(final String objectType, final String name,
+            final String... properties) throws Exception {
+        // The order of the properties makes no difference to the result.
+        List<Object> key = Arrays.<Object> asList(objectType, name,
+                new HashSet<String>(Arrays.asList(properties)));
+        return findObjectCalls.execute(key, new Callable<ObjectContent>() {
+            public ObjectContent call() throws Exception {
+                Lease lease = lease();
+                try {
+                    return lease.getConnection().findObject(objectType, name, properties);
+                } finally {
+                    lease.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of findObject calls which were made to the server.
+     */
+    public long getFindObjectIssuedCount() {
+        return findObjectCalls.getIssuedCount();
+    }
+
+    /**
+     * Returns the number of findObject calls which shared the result of an identical call already
+     * running, instead of being made to the server.
+     */
+    public long getFindObjectCoalescedCount() {
+        return findObjectCalls.getCoalescedCount();
+    }
+
+    /**
+     * Finds many objects by name at once, looking each name up with findObject in a task of its
+     * own on a virtual thread (see VirtualThreads). Each task borrows a connection for its
+     * lookup, so no more than maxConnections lookups reach the server at once however many names
+     * there are; the other tasks wait for a connection without holding an operating system
+     * thread. Before Java 21, which has no virtual threads, the tasks run on maxConnections
+     * ordinary threads instead.
+     * <P>
+     * Example of use:<br>
+     * <code>Map&lt;String, ObjectContent&gt; vms = pool.resolveAll(vmNames, "VirtualMachine", "runtime.host");</code>
+     *
+     * @param names
+     *            the names (or inventory paths) of the objects to find
+     * @param objectType
+     *            the type of the objects to find
+     * @param properties
+     *            zero or more property names
+     * @return the objects found, by name, in the order of the names; names with no object are
+     *         left out.
+     * @throws Exception
+     *             if an exception occurred in any of the lookups
+     */
+    public Map<String, ObjectContent> resolveAll(Collection<String> names, String objectType,
+            String... properties) throws Exception {
+        // Without virtual threads, no more threads than connections, since only that many
+        // lookups can run at once.
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor("VMwareConnectionPool-"
+                + serverName, maxConnections);
+        try {
+            return resolveAll(names, executor, objectType, properties);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Finds many objects by name at once, as resolveAll above, running the lookups on the
+     * executor given. The number of lookups which reach the server at once is still limited by
+     * maxConnections, so an executor with more threads than that only gives more threads to wait.
+     *
+     * @param names
+     *            the names (or inventory paths) of the objects to find
+     * @param executor
+     *            runs one task for each name
+     * @param objectType
+     *            the type of the objects to find
+     * @param properties
+     *            zero or more property names
+     * @return the objects found, by name, in the order of the names; names with no object are
+     *         left out.
+     * @throws Exception
+     *             if an exception occurred in any of the lookups; the lookups not yet finished are
+     *             cancelled
+     */
+    public Map<String, ObjectContent> resolveAll(Collection<String> names,
+            ExecutorService executor, final String objectType, final String... properties)
+            throws Exception {
+        Map<String, Future<ObjectContent>> lookups =
+                new LinkedHashMap<String, Future<ObjectContent>>();
+        try {
+            for (final String name : names) {
+                if (lookups.containsKey(name)) {
+                    continue;
+                }
+                lookups.put(name, executor.submit(new Callable<ObjectContent>() {
+                    public ObjectContent call() throws Exception {
+                        return findObject(objectType, name, properties);
+                    }
+                }));
+            }
+
+            Map<String, ObjectContent> found = new LinkedHashMap<String, ObjectContent>();
+            for (Map.Entry<String, Future<ObjectContent>> lookup : lookups.entrySet()) {
+                ObjectContent oc;
+                try {
+                    oc = lookup.getValue().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                if (oc != null) {
+                    found.put(lookup.getKey(), oc);
+                }
+            }
+            return found;
+        } finally {
+            // Only lookups left behind by an exception are still running.
+            for (Future<ObjectContent> lookup : lookups.values()) {
+                lookup.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Closes the idle connections and stops handing out new ones. Connections still borrowed are
+     * closed when they are given back.
+     */
+    public void close() {
+        closed = true;
+        IdleConnection idleConnection;
+        while ((idleConnection = idle.pollFirst()) != null) {
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    private static void closeQuietly(VMwareConnection connection) {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            // ignored, the session may already have expired
+        }
+    }
+
+    /**
+     * A connection borrowed from the pool. Closing the lease gives the connection back; closing
+     * it more than once has no further effect.
+     */
+    public class Lease implements Closeable {
+        private VMwareConnection connection;
+
+        Lease(VMwareConnection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Returns the borrowed connection.
+         */
+        public VMwareConnection getConnection() {
+            if (connection == null) {
+                throw new IllegalStateException("The lease has been closed.");
+            }
+            return connection;
+        }
+
+        /**
+         * Gives the connection back to the pool.
+         */
+        public void close() {
+            if (connection != null) {
+                returnConnection(connection);
+                connection = null;
+            }
+        }
+    }
+}
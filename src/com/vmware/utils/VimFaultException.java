@@ -0,0 +1,54 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.vmware.utils;
+
+/**
+ * A SOAP fault returned by the server to a call made without JAX-WS, by StreamingRetriever or
+ * AsyncVimClient. JAX-WS turns each fault into its own exception class, such as
+ * InvalidCollectorVersionFaultMsg; here the type of the fault is given by name instead.
+ */
+public class VimFaultException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final String faultType;
+
+    /**
+     * Creates an exception for a fault.
+     *
+     * @param faultType
+     *            the type of the fault, such as "NotAuthenticated", or null if the server did not
+     *            say
+     * @param faultString
+     *            the message of the fault
+     */
+    public VimFaultException(String faultType, String faultString) {
+        super("The server returned a fault: " + faultString
+                + (faultType != null ? " (" + faultType + ")" : ""));
+        this.faultType = faultType;
+    }
+
+    /**
+     * Returns the type of the fault, such as "NotAuthenticated" or "InvalidCollectorVersion", or
+     * null if the server did not say.
+     */
+    public String getFaultType() {
+        return faultType;
+    }
+}
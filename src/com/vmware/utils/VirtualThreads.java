@@ -0,0 +1,116 @@
+/*
+ * ******************************************************
+ * Copyright VMware, Inc. 2014. All Rights Reserved.
+ * ******************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.vmware.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors which run each task on a thread of its own, for work which spends most of its
+ * time blocked in SOAP calls. On Java 21 and later the threads are virtual threads, so thousands
+ * of tasks can wait at once without tying up an operating system thread each. On earlier Java
+ * versions, where virtual threads do not exist, a fixed number of daemon threads run the tasks
+ * instead, and the rest of the tasks wait in a queue, so a large batch never starts a thread per
+ * task.
+ * <P>
+ * With virtual threads, the executor does not limit how many tasks run at once. Limit them with
+ * something the tasks share, such as the permits of a VMwareConnectionPool, and give the same
+ * limit as the number of daemon threads to use without virtual threads.
+ */
+public class VirtualThreads {
+    // Executors.newVirtualThreadPerTaskExecutor(), or null before Java 21. It is found by
+    // reflection so that this code still compiles and runs on older versions.
+    private static final Method newVirtualThreadPerTaskExecutor = findFactoryMethod();
+
+    private static Method findFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if this Java version has virtual threads.
+     */
+    public static boolean isAvailable() {
+        return newVirtualThreadPerTaskExecutor != null;
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for each task, or runs the tasks on no
+     * more than maxPlatformThreads daemon threads if virtual threads are not available. Shut it
+     * down when it is no longer needed.
+     *
+     * @param threadName
+     *            the prefix of the names of the daemon threads, if they are used
+     * @param maxPlatformThreads
+     *            the largest number of daemon threads to start, if they are used; this should be
+     *            the number of tasks which can make progress at once
+     * @return the new executor.
+     */
+    public static ExecutorService newPerTaskExecutor(final String threadName,
+            int maxPlatformThreads) {
+        if (newVirtualThreadPerTaskExecutor != null) {
+            try {
+                return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+            } catch (Exception e) {
+                // Fall back to platform threads.
+            }
+        }
+        return newPlatformThreadExecutor(threadName, maxPlatformThreads);
+    }
+
+    /**
+     * Creates an executor which runs the tasks on no more than maxThreads daemon threads, and
+     * queues the rest. The threads end when they have been idle for a minute. Shut it down when it
+     * is no longer needed.
+     *
+     * @param threadName
+     *            the name of the threads, to which a number is added
+     * @param maxThreads
+     *            the most threads to run the tasks on
+     */
+    public static ExecutorService newPlatformThreadExecutor(final String threadName,
+            int maxThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task, threadName + "-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // Let the threads end when there is nothing to do, as virtual threads would.
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}